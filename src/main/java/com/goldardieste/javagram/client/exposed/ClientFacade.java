@@ -4,14 +4,32 @@ import com.goldardieste.javagram.client.unexposed.*;
 import com.goldardieste.javagram.client.unexposed.cryptography.CryptographicServices;
 import com.goldardieste.javagram.common.*;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 import com.goldardieste.javagram.common.datacontainers.UserToken;
 import com.goldardieste.javagram.common.exceptions.ClientListeningOperationFailedException;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
 import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
 
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.security.GeneralSecurityException;
 import java.security.PublicKey;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 // TODO catch and throw ClientOperationFailedException when the server is not reachable
@@ -52,6 +70,83 @@ public class ClientFacade implements IServerNotificationsListener {
      */
     private CryptographicServices cryptographicServices;
 
+    /**
+     * {@link CryptographicServices} whose keys are being generated in background, so that they are ready when the
+     * client logs in or signs up. It will be null once they have been taken.
+     * <p>
+     * It is only accessed while holding {@link #userTokenLock}.
+     */
+    private CompletableFuture<CryptographicServices> pendingCryptographicServices;
+
+    /**
+     * Bit mask of all the {@link ChatFeature}s that the client supports when setting up a chat with a remote user.
+     */
+    private final static int SUPPORTED_CHAT_FEATURES = ChatFeature.toMask(ChatFeature.PAYLOAD_COMPRESSION,
+            ChatFeature.X25519_KEY_AGREEMENT);
+
+    /**
+     * Runs the asynchronous variants of the client's operations, so that their callers do not get blocked.
+     */
+    private final ExecutorService asyncExecutor;
+
+    /**
+     * The last asynchronous operation that has been requested for each remote user, while it has not been completed
+     * yet. The operations that involve the same remote user are run one after another, in the order in which they
+     * were requested, so that, for example, a chat is initiated before sending messages through it.
+     */
+    private final Map<String, CompletableFuture<?>> lastRemoteUserOperations;
+
+    /**
+     * Remote users whose chats have been pre-warmed (see {@link ConfigurationParameters#CHAT_PREWARMING}), while they
+     * remain online. There are at most {@link ConfigurationParameters#CHAT_PREWARMING_LIMIT} of them at the same time.
+     * <p>
+     * It is only accessed while holding its own monitor.
+     */
+    private final Set<String> prewarmedChats;
+
+    /**
+     * The chats that are being pre-warmed right now, so that {@link #initiateChat(String)} may wait for them instead
+     * of initiating them again.
+     * <p>
+     * Key -> username.
+     * Value -> {@link CompletableFuture} that is completed once the chat has been pre-warmed.
+     */
+    private final Map<String, CompletableFuture<Boolean>> prewarmingChats;
+
+    /**
+     * When the client last initiated a chat with each remote user or sent him a message, so that the most recently
+     * active friends are pre-warmed first.
+     * <p>
+     * Key -> username.
+     * Value -> time of the last activity, as given by {@link System#nanoTime()}.
+     */
+    private final Map<String, Long> chatActivity;
+
+    /**
+     * Periodically closes the chats that have been idle for too long (see {@link
+     * ConfigurationParameters#CHAT_IDLE_TIMEOUT_S}), or that exceed {@link ConfigurationParameters#CHAT_OPEN_LIMIT}.
+     */
+    private final ScheduledExecutorService maintenanceScheduler;
+
+    /**
+     * The {@link PrekeyBundle}s that have been retrieved from the server for each friend, so that they are not
+     * retrieved again each time that the chat with him is set up. Each one is forgotten once the friend's status
+     * changes, as he may have logged in from another device.
+     * <p>
+     * Key -> username.
+     * Value -> its {@link PrekeyBundle}.
+     */
+    private final Map<String, PrekeyBundle> remotePrekeys;
+
+    /**
+     * The chats that have been requested with the remote users' prekeys, while their remote users have not answered
+     * yet (see {@link #requestChat}).
+     * <p>
+     * Key -> username.
+     * Value -> {@link CompletableFuture} that is completed with the remote user's answer.
+     */
+    private final Map<String, CompletableFuture<NewChatData>> pendingChatRequests;
+
 
     /* ----- Constructor ----- */
 
@@ -80,6 +175,34 @@ public class ClientFacade implements IServerNotificationsListener {
         }
 
         this.userTokenLock = new ReentrantLock();
+
+        this.asyncExecutor = Executors.newFixedThreadPool(ConfigurationParameters.CLIENT_ASYNC_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "javagram-client-async");
+            // The pending operations must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastRemoteUserOperations = new ConcurrentHashMap<>();
+        this.prewarmedChats = new HashSet<>();
+        this.prewarmingChats = new ConcurrentHashMap<>();
+        this.chatActivity = new ConcurrentHashMap<>();
+        this.remotePrekeys = new ConcurrentHashMap<>();
+        this.pendingChatRequests = new ConcurrentHashMap<>();
+
+        this.maintenanceScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-client-maintenance");
+            // The maintenance must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maintenanceScheduler.scheduleAtFixedRate(this::reapIdleChats,
+                ConfigurationParameters.CHAT_REAPING_PERIOD_S, ConfigurationParameters.CHAT_REAPING_PERIOD_S,
+                TimeUnit.SECONDS);
+
+        // Retrieving the keys may take a while (generating the RSA ones, or the device's ones the first time), so they
+        // are retrieved while the user types in his credentials and while the server checks them
+        this.pendingCryptographicServices = CompletableFuture.supplyAsync(CryptographicServices::new,
+                this.asyncExecutor);
     }
 
 
@@ -108,6 +231,23 @@ public class ClientFacade implements IServerNotificationsListener {
         return initiated;
     }
 
+    /**
+     * Retrieves the name by which the user that the client is identified as can be identified.
+     *
+     * @return the user's name.
+     * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
+     * @throws ClientOperationFailedException if the operation could not be completed successfully.
+     */
+    public String getIdentifiedUser() throws ClientOperationFailedException {
+
+        if (!isSessionInitiated()) {
+            System.err.println("No valid user session has been established yet");
+            throw new InvalidClientSessionException("No valid user session has been established yet");
+        }
+
+        return this.currentUserFacade.getIdentifiedUser();
+    }
+
     /**
      * Asks the Javagram server to create a new Javagram user, and the client is also automatically logged in.
      *
@@ -126,8 +266,9 @@ public class ClientFacade implements IServerNotificationsListener {
             try {
                 this.userToken = this.serverOperationsFacade.signUp(username, password);
                 this.currentUserFacade = new CurrentUserFacade(username);
-                this.cryptographicServices = new CryptographicServices();
+                this.cryptographicServices = takeCryptographicServices();
                 CurrentUserFacade.setCommunicationDecryptionUtility(this.cryptographicServices);
+                publishPrekeys();
 
             } catch (RemoteException e) {
                 System.err.println("The server could not perform the requested sign up operation");
@@ -169,8 +310,9 @@ public class ClientFacade implements IServerNotificationsListener {
             try {
                 this.userToken = this.serverOperationsFacade.login(username, password);
                 this.currentUserFacade = new CurrentUserFacade(username);
-                this.cryptographicServices = new CryptographicServices();
+                this.cryptographicServices = takeCryptographicServices();
                 CurrentUserFacade.setCommunicationDecryptionUtility(this.cryptographicServices);
+                publishPrekeys();
 
             } catch (RemoteException e) {
                 System.err.println("The server could not perform the requested log in operation");
@@ -191,6 +333,52 @@ public class ClientFacade implements IServerNotificationsListener {
         return isSessionInitiated();
     }
 
+    /**
+     * Retrieves the {@link CryptographicServices} whose keys have been generated in background, waiting for them if
+     * needed. If they could not be generated, or if they have already been taken by a previous session, new ones are
+     * generated right away. The lock {@link #userTokenLock} must be held.
+     *
+     * @return the {@link CryptographicServices}.
+     */
+    private CryptographicServices takeCryptographicServices() {
+
+        CompletableFuture<CryptographicServices> pending = this.pendingCryptographicServices;
+        this.pendingCryptographicServices = null;
+
+        if (pending != null) {
+            try {
+                return pending.join();
+
+            } catch (CompletionException | CancellationException e) {
+                System.err.println("The keys that were being generated in background could not be retrieved");
+                e.printStackTrace();
+            }
+        }
+
+        return new CryptographicServices();
+    }
+
+    /**
+     * Publishes the {@link PrekeyBundle} of the client in the Javagram server, so that its friends may request chats
+     * without waiting for it (see {@link ConfigurationParameters#PREKEY_CHAT_REQUESTS}). If it cannot be published,
+     * they will just initiate the chats as usual. The lock {@link #userTokenLock} must be held.
+     */
+    private void publishPrekeys() {
+
+        if (!ConfigurationParameters.X25519_KEY_AGREEMENT || !ConfigurationParameters.PREKEY_CHAT_REQUESTS) {
+            return;
+        }
+
+        try {
+            this.serverOperationsFacade.publishPrekeys(this.userToken, new PrekeyBundle(
+                    this.cryptographicServices.getAgreementPublicKey(), ClientFacade.SUPPORTED_CHAT_FEATURES));
+
+        } catch (RemoteException e) {
+            System.err.println("The client's prekeys could not be published");
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Asks the Javagram server to update the password of the current user.
      *
@@ -251,6 +439,7 @@ public class ClientFacade implements IServerNotificationsListener {
 
                 this.currentUserFacade.haltExecution();
                 this.currentUserFacade = null;
+                this.remotePrekeys.clear();
 
                 successful = true;
 
@@ -288,6 +477,7 @@ public class ClientFacade implements IServerNotificationsListener {
 
             try {
                 this.currentUserFacade.addRemoteUsers(this.serverOperationsFacade.retrieveFriends(this.userToken));
+                prewarmOnlineFriends();
 
             } catch (RemoteException e) {
                 System.err.println("The server could not retrieved the requested remote users");
@@ -316,6 +506,7 @@ public class ClientFacade implements IServerNotificationsListener {
             try {
                 this.currentUserFacade.addRemoteUsers(this.serverOperationsFacade.retrieveFriends(this.userToken,
                         status), status);
+                prewarmOnlineFriends();
 
             } catch (RemoteException e) {
                 System.err.println("The server could not retrieved the requested remote users");
@@ -333,6 +524,9 @@ public class ClientFacade implements IServerNotificationsListener {
      * The client prepares and then requests the Javagram server to contact with a remote user who will be asked to
      * initialize a communication channel with the client, through which the may communicate.
      *
+     * If the chat is being pre-warmed, it waits for it to finish before checking if the chat still needs to be
+     * initiated.
+     *
      * @param remoteUser name by which the remote user that will be asked can be identified.
      * @return if the remote user accepts the request, therefore allowing the client to communicate with him.
      * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
@@ -340,6 +534,26 @@ public class ClientFacade implements IServerNotificationsListener {
      */
     public boolean initiateChat(String remoteUser) throws ClientOperationFailedException {
 
+        CompletableFuture<Boolean> prewarming = this.prewarmingChats.get(remoteUser);
+
+        // Whether it succeeds or not, the chat will be initiated below if it is still needed
+        if (prewarming != null) {
+            prewarming.exceptionally(e -> false).join();
+        }
+
+        return establishChat(remoteUser);
+    }
+
+    /**
+     * Performs {@link #initiateChat(String)}, without waiting for the chat to be pre-warmed.
+     *
+     * @param remoteUser name by which the remote user that will be asked can be identified.
+     * @return if the remote user accepts the request, therefore allowing the client to communicate with him.
+     * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
+     * @throws ClientOperationFailedException if the operation could not be completed successfully.
+     */
+    private boolean establishChat(String remoteUser) throws ClientOperationFailedException {
+
         boolean successful = false;
 
         if (isSessionInitiated()) {
@@ -349,16 +563,55 @@ public class ClientFacade implements IServerNotificationsListener {
 
                 if (!isChatInitiated(remoteUser)) {
 
+                    // The chat must not be reaped while its tunnels and its key are being replaced
+                    CurrentUserFacade currentUserFacade = this.currentUserFacade;
+                    currentUserFacade.beginChatSetup(remoteUser);
+
                     try {
                         IRemoteUserTunnel localTunnel = this.currentUserFacade.prepareTunnel(remoteUser);
 
-                        NewChatData chatData = this.serverOperationsFacade.initiateChat(this.userToken,
-                                localTunnel, this.cryptographicServices.getPublicKey(), remoteUser);
+                        // The X25519 key agreement is only offered along with the device's key; otherwise, the RSA
+                        // key is sent instead
+                        int offeredFeatures = ClientFacade.SUPPORTED_CHAT_FEATURES;
+                        PublicKey localPublicKey = this.cryptographicServices.getAgreementPublicKey();
+
+                        if (!ConfigurationParameters.X25519_KEY_AGREEMENT) {
+                            offeredFeatures &= ~ChatFeature.X25519_KEY_AGREEMENT.getMask();
+                            localPublicKey = this.cryptographicServices.getPublicKey();
+                        }
+
+                        // If the remote user has published his prekeys, the client does not wait for him to answer
+                        PrekeyBundle bundle = null;
+
+                        if (ChatFeature.X25519_KEY_AGREEMENT.isPresentIn(offeredFeatures) &&
+                                ConfigurationParameters.PREKEY_CHAT_REQUESTS) {
+                            bundle = retrieveRemotePrekeys(remoteUser);
+                        }
 
-                        this.currentUserFacade.storeTunnel(remoteUser, chatData.remoteUserTunnel);
-                        this.cryptographicServices.storeSecretForCommunication(remoteUser,
-                                chatData.encryptedCommunicationSecret);
+                        if (bundle != null) {
+                            requestChat(remoteUser, localTunnel, localPublicKey, offeredFeatures, bundle);
 
+                        } else {
+                            NewChatData chatData = this.serverOperationsFacade.initiateChat(this.userToken,
+                                    localTunnel, localPublicKey, offeredFeatures, remoteUser);
+
+                            // The remote user may only agree on features that the client has offered
+                            int acceptedFeatures = chatData.getAcceptedFeatures() & offeredFeatures;
+
+                            this.currentUserFacade.storeTunnel(remoteUser, chatData.getRemoteUserTunnel(),
+                                    acceptedFeatures);
+
+                            if (ChatFeature.X25519_KEY_AGREEMENT.isPresentIn(acceptedFeatures)) {
+                                this.cryptographicServices.storeAgreedSecretForCommunication(remoteUser,
+                                        chatData.getAgreementPublicKey(), chatData.getAgreementSalt());
+                            } else {
+                                this.cryptographicServices.storeSecretForCommunication(remoteUser,
+                                        chatData.getEncryptedCommunicationSecret());
+                            }
+                        }
+
+                        this.chatActivity.put(remoteUser, System.nanoTime());
+                        requestChatsReaping();
                         successful = true;
 
                     } catch (RemoteException e) {
@@ -373,6 +626,9 @@ public class ClientFacade implements IServerNotificationsListener {
                         e.printStackTrace();
                         throw new ClientOperationFailedException("Could not open a local tunnel to allow the remote " +
                                 "user to communicate with the client");
+
+                    } finally {
+                        currentUserFacade.endChatSetup(remoteUser);
                     }
                 }
 
@@ -390,7 +646,263 @@ public class ClientFacade implements IServerNotificationsListener {
     }
 
     /**
-     * Checks if the chat with the specified remote user is ready.
+     * Retrieves the {@link PrekeyBundle} that the specified friend has published, asking the Javagram server for it if
+     * it has not been retrieved yet.
+     *
+     * @param remoteUser name by which the friend can be identified.
+     * @return the {@link PrekeyBundle}, or null if the friend has not published any.
+     * @throws RemoteException if the server cannot complete the requested operation.
+     */
+    private PrekeyBundle retrieveRemotePrekeys(String remoteUser) throws RemoteException {
+
+        PrekeyBundle bundle = this.remotePrekeys.get(remoteUser);
+
+        if (bundle == null) {
+            bundle = this.serverOperationsFacade.retrievePrekeys(this.userToken, remoteUser);
+
+            if (bundle != null) {
+                this.remotePrekeys.put(remoteUser, bundle);
+            }
+        }
+
+        return bundle;
+    }
+
+    /**
+     * Requests the chat with the specified remote user through {@link
+     * ServerOperationsFacade#requestChat(UserToken, IRemoteUserTunnel, PublicKey, byte[], int, String)}. The chat's
+     * key is agreed on right away with the remote user's {@link PrekeyBundle}, so the chat is considered initiated as
+     * soon as the server has accepted the request; the messages that are sent to the remote user meanwhile are held in
+     * his outbox until his tunnel arrives through {@link #completeChatRequest(String, NewChatData)}.
+     *
+     * @param remoteUser      name by which the remote user can be identified.
+     * @param localTunnel     {@link IRemoteUserTunnel} that the client has prepared for the remote user.
+     * @param localPublicKey  X25519 public key of the client.
+     * @param offeredFeatures bit mask of the {@link ChatFeature}s that the client offers.
+     * @param bundle          the remote user's {@link PrekeyBundle}.
+     * @throws RemoteException                if the server cannot complete the requested operation.
+     * @throws ClientOperationFailedException if the remote user's {@link PrekeyBundle} is not valid.
+     */
+    private void requestChat(String remoteUser, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                             int offeredFeatures, PrekeyBundle bundle)
+            throws RemoteException, ClientOperationFailedException {
+
+        CurrentUserFacade currentUserFacade = this.currentUserFacade;
+        CryptographicServices cryptographicServices = this.cryptographicServices;
+
+        // 1. The chat's key is agreed on with the remote user's prekeys
+        byte[] salt;
+
+        try {
+            salt = cryptographicServices.agreeSecretForCommunication(remoteUser, bundle.getPublicKey());
+
+        } catch (GeneralSecurityException | IllegalStateException e) {
+            this.remotePrekeys.remove(remoteUser);
+            System.err.println("The prekeys of the specified remote user are not valid");
+            e.printStackTrace();
+            throw new ClientOperationFailedException("The prekeys of the specified remote user are not valid");
+        }
+
+        // 2. The messages to the remote user are held until his answer arrives, which may happen even before the
+        // server has accepted the request; meanwhile, the chat is still being set up
+        CompletableFuture<NewChatData> answer = new CompletableFuture<>();
+        this.pendingChatRequests.put(remoteUser, answer);
+        currentUserFacade.beginChatSetup(remoteUser);
+        currentUserFacade.awaitTunnel(remoteUser);
+
+        answer.orTimeout(ConfigurationParameters.CHAT_REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenComplete((chatData, e) -> finishChatRequest(remoteUser, answer, chatData, offeredFeatures,
+                        currentUserFacade, cryptographicServices));
+
+        // 3. And the request is sent
+        try {
+            this.serverOperationsFacade.requestChat(this.userToken, localTunnel, localPublicKey, salt,
+                    offeredFeatures, remoteUser);
+
+        } catch (RemoteException e) {
+            // The prekeys may be stale, so they will be retrieved again next time
+            this.remotePrekeys.remove(remoteUser);
+            answer.complete(null);
+            throw e;
+        }
+    }
+
+    /**
+     * Completes a chat request that was sent through {@link #requestChat}, once the remote user has answered it or
+     * once he has not done so in time. If it has been accepted, the remote user's tunnel is stored and the messages
+     * that have been held are sent; otherwise, the chat is closed, so that those messages fail and the chat is
+     * initiated again when the next message is sent.
+     *
+     * @param remoteUser            name by which the remote user can be identified.
+     * @param answer                {@link CompletableFuture} of the request.
+     * @param chatData              the remote user's answer, or null if he has not accepted the request.
+     * @param offeredFeatures       bit mask of the {@link ChatFeature}s that the client offered.
+     * @param currentUserFacade     {@link #currentUserFacade} when the request was sent.
+     * @param cryptographicServices {@link #cryptographicServices} when the request was sent.
+     */
+    private void finishChatRequest(String remoteUser, CompletableFuture<NewChatData> answer, NewChatData chatData,
+                                   int offeredFeatures, CurrentUserFacade currentUserFacade,
+                                   CryptographicServices cryptographicServices) {
+
+        this.pendingChatRequests.remove(remoteUser, answer);
+
+        try {
+            // Nothing is left to do if the session has ended meanwhile
+            if (this.currentUserFacade != currentUserFacade) {
+                return;
+            }
+
+            if (chatData != null && chatData.getRemoteUserTunnel() != null) {
+                // The remote user may only agree on features that the client has offered
+                currentUserFacade.storeTunnel(remoteUser, chatData.getRemoteUserTunnel(),
+                        chatData.getAcceptedFeatures() & offeredFeatures);
+
+            } else if (currentUserFacade.getReceivedTunnel(remoteUser) == null) {
+                System.err.println("The remote user has not accepted the chat request: " + remoteUser);
+                this.remotePrekeys.remove(remoteUser);
+                releasePrewarmedChat(remoteUser);
+
+                try {
+                    currentUserFacade.closeTunnels(remoteUser);
+                    cryptographicServices.forgetSecretForCommunication(remoteUser);
+
+                } catch (TunnelOperationException e) {
+                    System.err.println("Could not close the connections with the specified user");
+                    e.printStackTrace();
+                }
+            }
+
+        } finally {
+            // The chat may be reaped again
+            currentUserFacade.endChatSetup(remoteUser);
+        }
+    }
+
+    /**
+     * Pre-warms the chats with the friends that are currently online, starting with the most recently active ones,
+     * until {@link ConfigurationParameters#CHAT_PREWARMING_LIMIT} is reached.
+     */
+    private void prewarmOnlineFriends() {
+
+        List<RemoteUser> onlineFriends = this.currentUserFacade.getRemoteUsers(StatusType.ONLINE);
+
+        onlineFriends.sort(Comparator.comparingLong((RemoteUser friend) ->
+                this.chatActivity.getOrDefault(friend.getUsername(), Long.MIN_VALUE)).reversed());
+
+        for (RemoteUser friend : onlineFriends) {
+            prewarmChat(friend.getUsername());
+        }
+    }
+
+    /**
+     * Initiates in background the chat with the specified friend, who has just been found online, so that the first
+     * message to him does not have to wait for it. It is only done if {@link ConfigurationParameters#CHAT_PREWARMING}
+     * is enabled, if less than {@link ConfigurationParameters#CHAT_PREWARMING_LIMIT} chats have been pre-warmed, and if
+     * no other operation with the friend is pending; as that operation may be initiating the chat and waiting for the
+     * pre-warming to end (see {@link #initiateChat}), it would never end if the pre-warming had to wait for it.
+     *
+     * @param remoteUser name by which the friend can be identified.
+     */
+    private void prewarmChat(String remoteUser) {
+
+        if (!ConfigurationParameters.CHAT_PREWARMING) {
+            return;
+        }
+
+        synchronized (this.prewarmedChats) {
+            if (this.prewarmedChats.size() >= ConfigurationParameters.CHAT_PREWARMING_LIMIT ||
+                    !this.prewarmedChats.add(remoteUser)) {
+                return;
+            }
+        }
+
+        // Any operation with the same friend that is requested afterwards will be run once it ends
+        CompletableFuture<Boolean> prewarming = runAsyncIfIdle(remoteUser, () -> {
+            try {
+                return !isChatInitiated(remoteUser) && establishChat(remoteUser);
+
+            } catch (ClientOperationFailedException e) {
+                // The chat will be initiated again when it is needed, so the slot is released
+                releasePrewarmedChat(remoteUser);
+                throw e;
+            }
+        });
+
+        // The pending operation will initiate the chat if it needs it
+        if (prewarming == null) {
+            releasePrewarmedChat(remoteUser);
+            return;
+        }
+
+        this.prewarmingChats.put(remoteUser, prewarming);
+        prewarming.whenComplete((initiated, e) -> this.prewarmingChats.remove(remoteUser, prewarming));
+    }
+
+    /**
+     * Releases the pre-warming slot of the specified remote user, who is no longer online.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    private void releasePrewarmedChat(String remoteUser) {
+
+        synchronized (this.prewarmedChats) {
+            this.prewarmedChats.remove(remoteUser);
+        }
+    }
+
+    /**
+     * Closes the chats that have been idle for longer than {@link ConfigurationParameters#CHAT_IDLE_TIMEOUT_S}, along
+     * with the least recently used ones while more than {@link ConfigurationParameters#CHAT_OPEN_LIMIT} remain open.
+     * Their tunnels and their keys are discarded, and each of them will be set up again when the next message is sent.
+     */
+    private void reapIdleChats() {
+
+        CurrentUserFacade currentUserFacade;
+        CryptographicServices cryptographicServices;
+
+        this.userTokenLock.lock();
+
+        try {
+            currentUserFacade = this.currentUserFacade;
+            cryptographicServices = this.cryptographicServices;
+
+        } finally {
+            // The lock must always be released
+            this.userTokenLock.unlock();
+        }
+
+        // There is nothing to close if no session has been established
+        if (currentUserFacade == null || cryptographicServices == null) {
+            return;
+        }
+
+        // The keys are forgotten along with the tunnels, before any of those chats can be set up again
+        List<String> closedChats = currentUserFacade.reapIdleTunnels(
+                TimeUnit.SECONDS.toNanos(ConfigurationParameters.CHAT_IDLE_TIMEOUT_S),
+                ConfigurationParameters.CHAT_OPEN_LIMIT, cryptographicServices::forgetSecretForCommunication);
+
+        for (String remoteUser : closedChats) {
+            releasePrewarmedChat(remoteUser);
+        }
+    }
+
+    /**
+     * Requests {@link #maintenanceScheduler} to check right away if any chat must be closed, as a new one has just been
+     * set up.
+     */
+    private void requestChatsReaping() {
+
+        try {
+            this.maintenanceScheduler.execute(this::reapIdleChats);
+
+        } catch (RejectedExecutionException e) {
+            // The client's back-end is being halted, so there is no need to close any chat
+        }
+    }
+
+    /**
+     * Checks if the chat with the specified remote user is ready. A chat that has been requested with the remote user's
+     * prekeys is ready as soon as it has been requested, as its messages can already be queued.
      *
      * @param remoteUser name by which the remote user can be identified.
      * @return if the chat is ready.
@@ -403,7 +915,8 @@ public class ClientFacade implements IServerNotificationsListener {
 
         if (isSessionInitiated()) {
 
-            initiated = this.currentUserFacade.areBothTunnelsPrepared(remoteUser);
+            initiated = this.currentUserFacade.areBothTunnelsPrepared(remoteUser) ||
+                    this.pendingChatRequests.containsKey(remoteUser);
 
         } else {
             System.err.println("No valid user session has been established yet");
@@ -415,7 +928,8 @@ public class ClientFacade implements IServerNotificationsListener {
 
     /**
      * The client sends a given message to the specified remote user. A connection between the client and that remote
-     * user must have been previously initiated using {@link ClientFacade#initiateChat(String)}.
+     * user is usually initiated beforehand using {@link ClientFacade#initiateChat(String)}; otherwise, or if it has been
+     * closed since then (for example, for being idle), it is initiated again before sending the message.
      *
      * @param remoteUser name by which the remote user that will be sent the message can be identified.
      * @param message    content of the message that will be sent.
@@ -424,23 +938,172 @@ public class ClientFacade implements IServerNotificationsListener {
      */
     public void sendMessage(String remoteUser, String message) throws ClientOperationFailedException {
 
+        try {
+            initiateChatAndQueueMessage(remoteUser, message).get();
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ClientOperationFailedException) {
+                throw (ClientOperationFailedException) e.getCause();
+            }
+            throw new ClientOperationFailedException("Could not send the given message to the specified user");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientOperationFailedException("Could not send the given message to the specified user");
+        }
+    }
+
+    /**
+     * Initiates the chat with the specified remote user if it is not ready, and then queues the given message through
+     * {@link #queueMessage(String, String, boolean)}. It blocks the caller while the chat is being initiated.
+     *
+     * @param remoteUser name by which the remote user that will be sent the message can be identified.
+     * @param message    content of the message that will be sent.
+     * @return a {@link CompletableFuture} that will be completed when the message has been sent, or with a {@link
+     * ClientOperationFailedException} if it could not be sent.
+     * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
+     * @throws ClientOperationFailedException if the chat with the remote user cannot be initiated.
+     */
+    private CompletableFuture<Void> initiateChatAndQueueMessage(String remoteUser, String message)
+            throws ClientOperationFailedException {
+
+        if (!isChatInitiated(remoteUser)) {
+            initiateChat(remoteUser);
+        }
+
+        return queueMessage(remoteUser, message, true);
+    }
+
+    /**
+     * Queues a given message in the outbox of the specified remote user, so that it is encrypted and sent by the
+     * outbox's sender after the previous messages to him. A connection between the client and that remote user must
+     * have been previously initiated using {@link ClientFacade#initiateChat(String)}.
+     * <p>
+     * If the message cannot be sent because the chat has been closed meanwhile by any of both ends, it may be queued
+     * once again after initiating the chat again, through {@link #asyncExecutor}.
+     *
+     * @param remoteUser  name by which the remote user that will be sent the message can be identified.
+     * @param message     content of the message that will be sent.
+     * @param recoverable if the message may be queued again if the chat has been closed.
+     * @return a {@link CompletableFuture} that will be completed when the message has been sent, or with a {@link
+     * ClientOperationFailedException} if it could not be sent.
+     * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
+     * @throws ClientOperationFailedException if the chat with the remote user has not been initiated yet.
+     */
+    private CompletableFuture<Void> queueMessage(String remoteUser, String message, boolean recoverable)
+            throws ClientOperationFailedException {
+
         if (isSessionInitiated()) {
 
             if (isChatInitiated(remoteUser)) {
 
+                CryptographicServices cryptographicServices = this.cryptographicServices;
+                IRemoteUserTunnel usedTunnel = this.currentUserFacade.getReceivedTunnel(remoteUser);
+                boolean compressed = this.currentUserFacade.isChatFeatureEnabled(remoteUser,
+                        ChatFeature.PAYLOAD_COMPRESSION);
+
+                CompletableFuture<Void> result = new CompletableFuture<>();
+                this.chatActivity.put(remoteUser, System.nanoTime());
+
+                // The message will be encrypted by the sender of the outbox, instead of by the caller
+                this.currentUserFacade.sendMessage(remoteUser, () -> cryptographicServices.encryptMessage(remoteUser,
+                        message, compressed)).whenComplete((sent, e) -> {
+
+                    if (e == null) {
+                        result.complete(null);
+
+                    } else if (recoverable && isChatClosed(remoteUser, usedTunnel, e)) {
+                        // This thread may be the outbox's sender, so the chat is initiated again by another one, after
+                        // any other pending operation with the remote user
+                        runAsync(remoteUser, () -> {
+                            reinitiateChat(remoteUser, usedTunnel);
+                            return queueMessage(remoteUser, message, false);
+
+                        }).thenCompose(resent -> resent).whenComplete((resent, resendingException) -> {
+
+                            if (resendingException == null) {
+                                result.complete(null);
+                            } else {
+                                result.completeExceptionally(new ClientOperationFailedException("Could not send " +
+                                        "the given message to the specified user"));
+                            }
+                        });
+
+                    } else {
+                        System.err.println("Could not send the given message to the specified user");
+                        e.printStackTrace();
+                        result.completeExceptionally(new ClientOperationFailedException("Could not send the given " +
+                                "message to the specified user"));
+                    }
+                });
+
+                return result;
+
+            } else {
+                throw new ClientOperationFailedException("The chat with the specified remote user has not been " +
+                        "initiated yet");
+            }
+
+        } else {
+            System.err.println("No valid user session has been established yet");
+            throw new InvalidClientSessionException("No valid user session has been established yet");
+        }
+    }
+
+    /**
+     * Checks if a message could not be sent to the specified remote user because the chat with him has been closed
+     * since it was queued: either the remote user has closed the tunnel through which it was sent, or the client has
+     * discarded or replaced it.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param usedTunnel {@link IRemoteUserTunnel} through which the message was sent.
+     * @param exception  the exception with which the message failed.
+     * @return if the chat has been closed.
+     */
+    private boolean isChatClosed(String remoteUser, IRemoteUserTunnel usedTunnel, Throwable exception) {
+
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchObjectException) {
+                return true;
+            }
+        }
+
+        CurrentUserFacade currentUserFacade = this.currentUserFacade;
+
+        return currentUserFacade != null && currentUserFacade.getReceivedTunnel(remoteUser) != usedTunnel;
+    }
+
+    /**
+     * Initiates once again the chat with the specified remote user, which has been closed. If the client still holds
+     * the closed tunnel, it is discarded along with the chat's key before, unless the chat has already been set up
+     * again meanwhile (for example, because the remote user has initiated it).
+     *
+     * @param remoteUser   name by which the remote user can be identified.
+     * @param closedTunnel {@link IRemoteUserTunnel} that has been found closed.
+     * @throws InvalidClientSessionException  if the current client is not logged in as a Javagram user.
+     * @throws ClientOperationFailedException if the chat cannot be initiated again.
+     */
+    private void reinitiateChat(String remoteUser, IRemoteUserTunnel closedTunnel)
+            throws ClientOperationFailedException {
+
+        if (isSessionInitiated()) {
+
+            if (this.currentUserFacade.getReceivedTunnel(remoteUser) == closedTunnel) {
+
                 try {
-                    this.currentUserFacade.sendMessage(remoteUser, this.cryptographicServices.encryptString(remoteUser,
-                            message));
+                    this.currentUserFacade.closeTunnels(remoteUser);
+                    this.cryptographicServices.forgetSecretForCommunication(remoteUser);
 
                 } catch (TunnelOperationException e) {
-                    System.err.println("Could not send the given message to the specified user");
+                    System.err.println("Could not close the connections with the specified user");
                     e.printStackTrace();
-                    throw new ClientOperationFailedException("Could not send the given message to the specified user");
+                    throw new ClientOperationFailedException("Could not close the connections with the specified " +
+                            "user");
                 }
+            }
 
-            } else {
-                throw new ClientOperationFailedException("The chat with the specified remote user has not been " +
-                        "initiated yet");
+            if (!isChatInitiated(remoteUser)) {
+                establishChat(remoteUser);
             }
 
         } else {
@@ -603,23 +1266,318 @@ public class ClientFacade implements IServerNotificationsListener {
         }
     }
 
+    /**
+     * Asynchronous variant of {@link #signUp(String, String)}.
+     *
+     * @param username name by which the user will be identified.
+     * @param password user's password.
+     * @return a {@link CompletableFuture} that will be completed with the result of the operation, or with the
+     * exception that it has thrown.
+     */
+    public CompletableFuture<Boolean> signUpAsync(String username, String password) {
+        return runAsync(() -> signUp(username, password));
+    }
+
+    /**
+     * Asynchronous variant of {@link #login(String, String)}.
+     *
+     * @param username name by which the user can be identified.
+     * @param password user's password.
+     * @return a {@link CompletableFuture} that will be completed with the result of the operation, or with the
+     * exception that it has thrown.
+     */
+    public CompletableFuture<Boolean> loginAsync(String username, String password) {
+        return runAsync(() -> login(username, password));
+    }
+
+    /**
+     * Asynchronous variant of {@link #updatePassword(String, String)}.
+     *
+     * @param currentPassword user's current password.
+     * @param newPassword     user's new password.
+     * @return a {@link CompletableFuture} that will be completed with the result of the operation, or with the
+     * exception that it has thrown.
+     */
+    public CompletableFuture<Boolean> updatePasswordAsync(String currentPassword, String newPassword) {
+        return runAsync(() -> updatePassword(currentPassword, newPassword));
+    }
+
+    /**
+     * Asynchronous variant of {@link #disconnect()}.
+     *
+     * @return a {@link CompletableFuture} that will be completed with the result of the operation, or with the
+     * exception that it has thrown.
+     */
+    public CompletableFuture<Boolean> disconnectAsync() {
+        return runAsync(this::disconnect);
+    }
+
+    /**
+     * Asynchronous variant of {@link #retrieveFriends()}.
+     *
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> retrieveFriendsAsync() {
+        return runAsync(() -> {
+            retrieveFriends();
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #retrieveFriends(StatusType)}.
+     *
+     * @param status status in which the remote users will be in relation to the other user.
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> retrieveFriendsAsync(StatusType status) {
+        return runAsync(() -> {
+            retrieveFriends(status);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #initiateChat(String)}. It will be run after any previous asynchronous operation
+     * that involves the same remote user.
+     *
+     * @param remoteUser name by which the remote user that will be asked can be identified.
+     * @return a {@link CompletableFuture} that will be completed with the result of the operation, or with the
+     * exception that it has thrown.
+     */
+    public CompletableFuture<Boolean> initiateChatAsync(String remoteUser) {
+        return runAsync(remoteUser, () -> initiateChat(remoteUser));
+    }
+
+    /**
+     * Asynchronous variant of {@link #sendMessage(String, String)}. The messages are sent in the order in which they are
+     * given, although each one does not wait for the previous ones to be transmitted: they are queued in the remote
+     * user's outbox, which sends them as soon as possible. If any other asynchronous operation that involves the same
+     * remote user is still running (such as the chat's initiation), the message is queued once it has finished; and if
+     * the chat is not ready, it is initiated in background before queueing the message.
+     *
+     * @param remoteUser name by which the remote user that will be sent the message can be identified.
+     * @param message    content of the message that will be sent.
+     * @return a {@link CompletableFuture} that will be completed when the message has been sent, or with the exception
+     * that the operation has thrown.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String remoteUser, String message) {
+
+        try {
+            // Only the queueing of the message is ordered with the other operations, not its transmission
+            if (this.lastRemoteUserOperations.containsKey(remoteUser) || !isChatInitiated(remoteUser)) {
+                return runAsync(remoteUser, () -> initiateChatAndQueueMessage(remoteUser, message))
+                        .thenCompose(sent -> sent);
+            }
+
+            return queueMessage(remoteUser, message, true);
+
+        } catch (ClientOperationFailedException e) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #requestFriendship(String)}. It will be run after any previous asynchronous
+     * operation that involves the same remote user.
+     *
+     * @param remoteUser name by which the user who will receive the request can be identified.
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> requestFriendshipAsync(String remoteUser) {
+        return runAsync(remoteUser, () -> {
+            requestFriendship(remoteUser);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #acceptFriendship(String)}. It will be run after any previous asynchronous
+     * operation that involves the same remote user.
+     *
+     * @param remoteUser name by which the user who sent the request can be identified.
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> acceptFriendshipAsync(String remoteUser) {
+        return runAsync(remoteUser, () -> {
+            acceptFriendship(remoteUser);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #rejectFriendship(String)}. It will be run after any previous asynchronous
+     * operation that involves the same remote user.
+     *
+     * @param remoteUser name by which the user who sent the request can be identified.
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> rejectFriendshipAsync(String remoteUser) {
+        return runAsync(remoteUser, () -> {
+            rejectFriendship(remoteUser);
+            return null;
+        });
+    }
+
+    /**
+     * Asynchronous variant of {@link #endFriendship(String)}. It will be run after any previous asynchronous operation
+     * that involves the same remote user.
+     *
+     * @param remoteUser name by which the client's friend request can be identified.
+     * @return a {@link CompletableFuture} that will be completed when the operation finishes, or with the exception
+     * that it has thrown.
+     */
+    public CompletableFuture<Void> endFriendshipAsync(String remoteUser) {
+        return runAsync(remoteUser, () -> {
+            endFriendship(remoteUser);
+            return null;
+        });
+    }
+
+    /**
+     * Runs the given operation in {@link #asyncExecutor}.
+     *
+     * @param operation the operation.
+     * @param <T>       type of the operation's result.
+     * @return a {@link CompletableFuture} that will be completed with the operation's result, or with the exception
+     * that it throws.
+     */
+    private <T> CompletableFuture<T> runAsync(ClientOperation<T> operation) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(operation, result);
+
+        return result;
+    }
+
+    /**
+     * Runs the given operation in {@link #asyncExecutor}, once the previous asynchronous operation that involves the
+     * same remote user, if any, has been completed.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param operation  the operation.
+     * @param <T>        type of the operation's result.
+     * @return a {@link CompletableFuture} that will be completed with the operation's result, or with the exception
+     * that it throws.
+     */
+    private <T> CompletableFuture<T> runAsync(String remoteUser, ClientOperation<T> operation) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        // The new operation becomes the last one of the remote user, and it waits for the previous one, no matter if it
+        // fails
+        this.lastRemoteUserOperations.compute(remoteUser, (user, previous) -> {
+
+            if (previous == null) {
+                execute(operation, result);
+            } else {
+                previous.whenComplete((previousResult, previousException) -> execute(operation, result));
+            }
+
+            return result;
+        });
+
+        // Once completed, it is forgotten unless another operation has been requested meanwhile
+        result.whenComplete((operationResult, exception) -> this.lastRemoteUserOperations.remove(remoteUser, result));
+
+        return result;
+    }
+
+    /**
+     * Runs the given operation in {@link #asyncExecutor} as {@link #runAsync(String, ClientOperation)} does, but only
+     * if no other asynchronous operation that involves the same remote user is pending.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param operation  the operation.
+     * @param <T>        type of the operation's result.
+     * @return a {@link CompletableFuture} that will be completed with the operation's result, or with the exception
+     * that it throws; null if the operation has not been run.
+     */
+    private <T> CompletableFuture<T> runAsyncIfIdle(String remoteUser, ClientOperation<T> operation) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        // The new operation only becomes the last one of the remote user if there was none
+        if (this.lastRemoteUserOperations.putIfAbsent(remoteUser, result) != null) {
+            return null;
+        }
+
+        execute(operation, result);
+
+        // Once completed, it is forgotten unless another operation has been requested meanwhile
+        result.whenComplete((operationResult, exception) -> this.lastRemoteUserOperations.remove(remoteUser, result));
+
+        return result;
+    }
+
+    /**
+     * Submits the given operation to {@link #asyncExecutor}, so that it completes the given {@link
+     * CompletableFuture}. If the client's back-end has been halted, it is completed exceptionally right away.
+     *
+     * @param operation the operation.
+     * @param result    the {@link CompletableFuture}.
+     * @param <T>       type of the operation's result.
+     */
+    private <T> void execute(ClientOperation<T> operation, CompletableFuture<T> result) {
+
+        try {
+            this.asyncExecutor.execute(() -> {
+                try {
+                    result.complete(operation.perform());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new ClientOperationFailedException("The execution of the client's " +
+                    "back-end has been halted"));
+        }
+    }
+
     /**
      * {@inheritDoc}
      * @return
      */
     @Override
     public NewChatData replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
-            remoteUserPublicKey) throws ClientListeningOperationFailedException {
+            remoteUserPublicKey, int remoteUserFeatures) throws ClientListeningOperationFailedException {
 
         NewChatData result = null;
 
+        // Only the features that both ends support will be used
+        int acceptedFeatures = remoteUserFeatures & ClientFacade.SUPPORTED_CHAT_FEATURES;
+
         // No checks are made to determine if the user session is valid, as the Javagram server will only execute
-        // remote methods in the client when it is logged in
+        // remote methods in the client when it is logged in; the chat must not be reaped while it is being set up
+        CurrentUserFacade currentUserFacade = this.currentUserFacade;
+        currentUserFacade.beginChatSetup(remoteUser);
+
         try {
-            IRemoteUserTunnel localTunnel = this.currentUserFacade.replyChatRequest(remoteUser, remoteUserTunnel);
-            String secret = this.cryptographicServices.generateSecretForCommunication(remoteUser, remoteUserPublicKey);
+            IRemoteUserTunnel localTunnel = currentUserFacade.replyChatRequest(remoteUser, remoteUserTunnel,
+                    acceptedFeatures);
+
+            // The AES key is agreed on if the remote user has sent his X25519 key; otherwise, it is wrapped with his
+            // RSA key
+            if (ChatFeature.X25519_KEY_AGREEMENT.isPresentIn(acceptedFeatures)) {
+                byte[] salt = this.cryptographicServices.agreeSecretForCommunication(remoteUser, remoteUserPublicKey);
+                result = new NewChatData(localTunnel, this.cryptographicServices.getAgreementPublicKey(), salt,
+                        acceptedFeatures);
+
+            } else {
+                String secret = this.cryptographicServices.generateSecretForCommunication(remoteUser,
+                        remoteUserPublicKey);
+                result = new NewChatData(localTunnel, secret, acceptedFeatures);
+            }
 
-            result = new NewChatData(localTunnel, secret);
+            requestChatsReaping();
 
         } catch (TunnelOperationException e) {
             System.err.println("Could not set up a connection for a remote user that wants to communicate with" +
@@ -627,22 +1585,92 @@ public class ClientFacade implements IServerNotificationsListener {
             e.printStackTrace();
             throw new ClientListeningOperationFailedException("Could not set up a connection for a remote user that " +
                     "wants to communicate with the client");
+
+        } finally {
+            currentUserFacade.endChatSetup(remoteUser);
         }
 
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NewChatData acceptChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
+            remoteUserPublicKey, byte[] agreementSalt, int remoteUserFeatures)
+            throws ClientListeningOperationFailedException {
+
+        NewChatData result = null;
+
+        // Only the features that both ends support will be used
+        int acceptedFeatures = remoteUserFeatures & ClientFacade.SUPPORTED_CHAT_FEATURES;
+
+        // The remote user has already agreed on the key with the client's prekeys
+        if (!ChatFeature.X25519_KEY_AGREEMENT.isPresentIn(acceptedFeatures)) {
+            throw new ClientListeningOperationFailedException("The chat request does not agree on the key with the " +
+                    "client's prekeys");
+        }
+
+        // No checks are made to determine if the user session is valid, as the Javagram server will only execute
+        // remote methods in the client when it is logged in; the chat must not be reaped while it is being set up
+        CurrentUserFacade currentUserFacade = this.currentUserFacade;
+        currentUserFacade.beginChatSetup(remoteUser);
+
+        try {
+            // The key is stored before the tunnel, so that no message is sent to the remote user without it
+            this.cryptographicServices.storeAgreedSecretForCommunication(remoteUser, remoteUserPublicKey,
+                    agreementSalt);
+
+            IRemoteUserTunnel localTunnel = currentUserFacade.replyChatRequest(remoteUser, remoteUserTunnel,
+                    acceptedFeatures);
+            result = new NewChatData(localTunnel, null, acceptedFeatures);
+
+            requestChatsReaping();
+
+        } catch (TunnelOperationException e) {
+            System.err.println("Could not set up a connection for a remote user that wants to communicate with" +
+                    "the client");
+            e.printStackTrace();
+            throw new ClientListeningOperationFailedException("Could not set up a connection for a remote user that " +
+                    "wants to communicate with the client");
+
+        } finally {
+            currentUserFacade.endChatSetup(remoteUser);
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeChatRequest(String remoteUser, NewChatData chatData) {
+
+        CompletableFuture<NewChatData> answer = this.pendingChatRequests.get(remoteUser);
+
+        // The request may have already timed out
+        if (answer != null) {
+            answer.complete(chatData);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void updateRemoteUserStatus(RemoteUser remoteUser) {
 
+        // The friend may have logged in from another device, so his prekeys will be retrieved again
+        this.remotePrekeys.remove(remoteUser.getUsername());
+
         // No checks are made to determine if the user session is valid, as the Javagram server will only execute
         // remote methods in the client when it is logged in
         if (remoteUser.getStatus().equals(StatusType.NOT_RELATED)) {
 
             this.currentUserFacade.removeRemoteUser(remoteUser.getUsername());
+            releasePrewarmedChat(remoteUser.getUsername());
 
             try {
                 this.currentUserFacade.closeTunnels(remoteUser.getUsername());
@@ -654,6 +1682,13 @@ public class ClientFacade implements IServerNotificationsListener {
 
         } else {
             this.currentUserFacade.updateRemoteUserStatus(remoteUser.getUsername(), remoteUser.getStatus());
+
+            // The chat with a friend that has just come online may be prepared before it is needed
+            if (remoteUser.getStatus().equals(StatusType.ONLINE)) {
+                prewarmChat(remoteUser.getUsername());
+            } else {
+                releasePrewarmedChat(remoteUser.getUsername());
+            }
         }
     }
 
@@ -682,5 +1717,29 @@ public class ClientFacade implements IServerNotificationsListener {
     public void haltExecution() {
 
         this.serverOperationsFacade.haltExecution();
+
+        // The asynchronous operations that are already pending are still run, but no new ones are accepted
+        this.asyncExecutor.shutdown();
+        this.maintenanceScheduler.shutdownNow();
+    }
+
+
+    /* ----- Nested classes ----- */
+
+    /**
+     * An operation of the client that may be run asynchronously.
+     *
+     * @param <T> type of the operation's result.
+     */
+    @FunctionalInterface
+    private interface ClientOperation<T> {
+
+        /**
+         * Performs the operation.
+         *
+         * @return the operation's result.
+         * @throws ClientOperationFailedException if the operation could not be completed successfully.
+         */
+        T perform() throws ClientOperationFailedException;
     }
 }
@@ -2,6 +2,8 @@ package com.goldardieste.javagram.client.exposed;
 
 import com.goldardieste.javagram.client.unexposed.LocalUserTunnel;
 
+import java.util.List;
+
 /**
  * When a {@link LocalUserTunnel} receives data from a remote user, it will probably need to be served to a consumer.
  * This consumer must implement this interface, so that, if it is available, every {@link LocalUserTunnel} will send to
@@ -18,4 +20,13 @@ public interface LocalTunnelsListener {
      * @param message the message.
      */
     void forwardIncomingMessage(String remoteUser, String message);
+
+    /**
+     * The listener receives several incoming messages that the same remote user has sent at once, and handles them as
+     * it sees fit.
+     *
+     * @param remoteUser name by which the remote user that sent the messages can be identified.
+     * @param messages   the messages, in the same order in which they were sent.
+     */
+    void forwardIncomingMessages(String remoteUser, List<String> messages);
 }
@@ -5,13 +5,16 @@ import com.goldardieste.javagram.client.exposed.RemoteUsersListener;
 import com.goldardieste.javagram.client.unexposed.cryptography.CommunicationDecryptionUtility;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.ChatFeature;
 import com.goldardieste.javagram.common.StatusType;
 
 import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
  * This class will manage all the remote users related to the local user in the client (friends, friendship
@@ -44,6 +47,34 @@ public class CurrentUserFacade {
      */
     private final Map<String, IRemoteUserTunnel> receivedTunnels;
 
+    /**
+     * Contains, for each remote user with whom a chat has been set up, the {@link ChatFeature}s that both ends have
+     * agreed on.
+     * <p>
+     * Key -> username.
+     * Value -> bit mask of the agreed {@link ChatFeature}s.
+     */
+    private final Map<String, Integer> chatFeatures;
+
+    /**
+     * Contains, for each remote user with whom a chat has been set up, when the client last set it up or sent him a
+     * message, as given by {@link System#nanoTime()}. The incoming messages are registered by each {@link
+     * LocalUserTunnel} instead.
+     * <p>
+     * Key -> username.
+     * Value -> time of the last outgoing activity.
+     */
+    private final Map<String, Long> chatsActivity;
+
+    /**
+     * Contains, for each remote user whose chat is being set up, how many set-ups are in progress (see {@link
+     * #beginChatSetup(String)}). Their chats are never reaped, as their tunnels and keys may be replaced meanwhile.
+     * <p>
+     * Key -> username.
+     * Value -> amount of set-ups in progress.
+     */
+    private final Map<String, Integer> chatsBeingSetUp;
+
     /**
      * Registers all the remote Javagram users whose current status, in relation to the client, is known, sorting them
      * by their {@link StatusType}. All the stored users are also present in {@link #remoteUserMap}.
@@ -70,7 +101,7 @@ public class CurrentUserFacade {
 
     /**
      * {@link ReentrantLock} that a thread must acquire to modify {@link #openedTunnels} and/or {@link
-     * #receivedTunnels}.
+     * #receivedTunnels}, and to access {@link #chatsBeingSetUp}.
      */
     private final ReentrantLock tunnelsLock;
 
@@ -80,6 +111,12 @@ public class CurrentUserFacade {
      */
     private RemoteUsersListener remoteUsersListener;
 
+    /**
+     * Groups the messages that are sent to each remote user so that they are transmitted in as few remote calls as
+     * possible.
+     */
+    private final OutgoingMessagesBatcher outgoingMessagesBatcher;
+
 
     /* ----- Constructor ----- */
 
@@ -94,6 +131,9 @@ public class CurrentUserFacade {
         this.identifiedUser = username;
         this.openedTunnels = new HashMap<>();
         this.receivedTunnels = new HashMap<>();
+        this.chatFeatures = new HashMap<>();
+        this.chatsActivity = new ConcurrentHashMap<>();
+        this.chatsBeingSetUp = new HashMap<>();
 
         this.statusTypeSetMap = new EnumMap<>(StatusType.class);
         for (StatusType value : StatusType.values()) {
@@ -103,6 +143,7 @@ public class CurrentUserFacade {
         this.remoteUserMap = new HashMap<>();
         this.storedUsersLock = new ReentrantLock();
         this.tunnelsLock = new ReentrantLock();
+        this.outgoingMessagesBatcher = new OutgoingMessagesBatcher(this);
     }
 
 
@@ -389,7 +430,8 @@ public class CurrentUserFacade {
             this.storedUsersLock.unlock();
         }
 
-        return localTunnel;
+        // The remote user must receive the stub or endpoint of the tunnel, not the tunnel itself
+        return localTunnel.getPublishedTunnel();
     }
 
     /**
@@ -412,6 +454,10 @@ public class CurrentUserFacade {
             if (localTunnel == null) {
 
                 localTunnel = new LocalUserTunnel(remoteUser);
+
+            } else {
+                // The remote user will number his messages from the beginning, as the tunnel is new to him
+                localTunnel.restartSequence();
             }
 
             // As the only operation that can throw a checked exception is the previous ones, all the other operations
@@ -430,24 +476,80 @@ public class CurrentUserFacade {
         return localTunnel;
     }
 
+    /**
+     * Registers that the chat with the specified remote user is being set up, so that it is not reaped (see {@link
+     * #reapIdleTunnels(long, int, Consumer)}) until {@link #endChatSetup(String)} is called; otherwise, the reaper
+     * could forget the key that the set-up has just stored, or close the tunnel that it has just prepared. If the chats
+     * are being reaped, it waits for them.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void beginChatSetup(String remoteUser) {
+
+        this.tunnelsLock.lock();
+
+        try {
+            this.chatsBeingSetUp.merge(remoteUser, 1, Integer::sum);
+
+        } finally {
+            // The lock must always be released
+            this.tunnelsLock.unlock();
+        }
+    }
+
+    /**
+     * Registers that a set-up of the chat with the specified remote user, which was started through {@link
+     * #beginChatSetup(String)}, has ended, whether it has succeeded or not.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void endChatSetup(String remoteUser) {
+
+        this.tunnelsLock.lock();
+
+        try {
+            this.chatsBeingSetUp.computeIfPresent(remoteUser, (user, setups) -> setups > 1 ? setups - 1 : null);
+
+        } finally {
+            // The lock must always be released
+            this.tunnelsLock.unlock();
+        }
+    }
+
+    /**
+     * Holds the messages that are sent to the specified remote user until his {@link IRemoteUserTunnel} is stored
+     * through {@link #storeTunnel(String, IRemoteUserTunnel, int)}, as the chat with him is being set up.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void awaitTunnel(String remoteUser) {
+        this.outgoingMessagesBatcher.holdOutbox(remoteUser);
+    }
+
     /**
      * Saves a {@link IRemoteUserTunnel} that a remote user has prepared so that the client may communicate with him.
+     * Any message that has been held while waiting for it is sent right away.
      *
      * @param remoteUser       name by which the remote user can be identified.
      * @param remoteUserTunnel {@link IRemoteUserTunnel} that the remote user has prepared for the client.
+     * @param features         bit mask of the {@link ChatFeature}s that both ends have agreed on.
      */
-    public void storeTunnel(String remoteUser, IRemoteUserTunnel remoteUserTunnel) {
+    public void storeTunnel(String remoteUser, IRemoteUserTunnel remoteUserTunnel, int features) {
 
         this.storedUsersLock.lock();
 
         try {
             // Any previously received tunnel from the given remote user is removed
             this.receivedTunnels.put(remoteUser, remoteUserTunnel);
+            this.chatFeatures.put(remoteUser, features);
+            this.chatsActivity.put(remoteUser, System.nanoTime());
 
         } finally {
             // The lock must always be released
             this.storedUsersLock.unlock();
         }
+
+        this.outgoingMessagesBatcher.releaseOutbox(remoteUser);
     }
 
     /**
@@ -467,8 +569,8 @@ public class CurrentUserFacade {
 
             if (localTunnel != null) {
 
-                // As local tunnels are remote objects, they must be unexported before deleting them
-                UnicastRemoteObject.unexportObject(localTunnel, true);
+                // As local tunnels are published through a transport, they must be withdrawn before deleting them
+                localTunnel.close();
             }
 
             // As the only operation that can throw a checked exception is the one that unexports the remote object,
@@ -477,6 +579,12 @@ public class CurrentUserFacade {
 
             // 2. Any received tunnel is closed
             this.receivedTunnels.remove(remoteUser);
+            this.chatFeatures.remove(remoteUser);
+            this.chatsActivity.remove(remoteUser);
+
+            // 3. And the outbox is discarded too, unless it still has messages; if they were being held, they will fail
+            this.outgoingMessagesBatcher.releaseOutbox(remoteUser);
+            this.outgoingMessagesBatcher.discardOutbox(remoteUser);
 
         } catch (NoSuchObjectException e) {
             System.err.println("Could not unexport a local tunnel");
@@ -488,6 +596,88 @@ public class CurrentUserFacade {
         }
     }
 
+    /**
+     * Closes the tunnels of the chats that have been idle for longer than the given timeout. Afterwards, if more than
+     * the given amount of chats remain open, the least recently used ones are also closed until that limit is met. A
+     * chat counts as used whenever it is set up or a message is sent or received through it, and no chat is closed
+     * while it is being set up, while it has any outgoing message waiting to be sent or acknowledged, or while it has
+     * any received message waiting to be delivered.
+     * <p>
+     * The key of each closed chat is forgotten through the given function before any other chat can be set up, so that
+     * the key of a chat that is set up again right afterwards is never forgotten instead.
+     *
+     * @param idleTimeout      maximum time in nanoseconds that a chat may stay open without being used.
+     * @param maxChats         maximum amount of chats that may stay open.
+     * @param secretsForgetter forgets the key of the chat with the given remote user.
+     * @return names of the remote users whose tunnels have been closed.
+     */
+    public List<String> reapIdleTunnels(long idleTimeout, int maxChats, Consumer<String> secretsForgetter) {
+
+        List<String> closedChats = new ArrayList<>();
+
+        // No tunnel may be prepared or stored meanwhile, so both locks are needed
+        this.storedUsersLock.lock();
+        this.tunnelsLock.lock();
+
+        try {
+            // 1. The time of the last usage of each open chat is computed, skipping the ones that are still busy
+            long now = System.nanoTime();
+            Map<String, Long> lastUsages = new HashMap<>();
+
+            for (Map.Entry<String, LocalUserTunnel> entry : this.openedTunnels.entrySet()) {
+
+                String remoteUser = entry.getKey();
+                long lastUsage = Math.max(entry.getValue().getLastActivity(),
+                        this.chatsActivity.getOrDefault(remoteUser, Long.MIN_VALUE));
+
+                // Neither the messages that have not been sent yet nor the ones that have been received but not
+                // delivered yet may be lost
+                if (!this.chatsBeingSetUp.containsKey(remoteUser) && entry.getValue().isIdle() &&
+                        !this.outgoingMessagesBatcher.hasPendingMessages(remoteUser)) {
+                    lastUsages.put(remoteUser, lastUsage);
+                }
+            }
+
+            // 2. The chats that have been idle for too long are selected
+            List<String> candidates = new ArrayList<>(lastUsages.keySet());
+            candidates.sort(Comparator.comparingLong(lastUsages::get));
+
+            int remainingChats = this.openedTunnels.size();
+
+            for (String remoteUser : candidates) {
+
+                // 3. The least recently used chats are also selected if there are still too many of them
+                if (now - lastUsages.get(remoteUser) < idleTimeout && remainingChats <= maxChats) {
+                    break;
+                }
+
+                // 4. A message may have arrived since the chat was selected; otherwise, the tunnel stops accepting
+                //    them before the key is forgotten, so the remote user will retry any other one
+                if (!this.openedTunnels.get(remoteUser).shutIfIdle()) {
+                    continue;
+                }
+
+                try {
+                    closeTunnels(remoteUser);
+                    secretsForgetter.accept(remoteUser);
+                    closedChats.add(remoteUser);
+                    remainingChats--;
+
+                } catch (TunnelOperationException e) {
+                    System.err.println("Could not close the idle tunnels of the user: " + remoteUser);
+                    e.printStackTrace();
+                }
+            }
+
+        } finally {
+            // The locks must always be released
+            this.tunnelsLock.unlock();
+            this.storedUsersLock.unlock();
+        }
+
+        return closedChats;
+    }
+
     /**
      * Checks if the two tunnels that are needed to communicate with a remote user are ready:
      * - The {@link LocalUserTunnel} will allow the client to send messages to the remote user.
@@ -514,37 +704,72 @@ public class CurrentUserFacade {
     }
 
     /**
-     * Sends a given message to the specified remote user. He must have previously given the client a {@link
-     * IRemoteUserTunnel} that allows the client to communicate with him.
+     * Checks if the given {@link ChatFeature} has been agreed on when setting up the chat with the specified remote
+     * user.
      *
-     * @param remoteUser name by which the remote user that will be sent the message can be identified.
-     * @param message    content of the message that will be sent.
-     * @throws TunnelOperationException if no remote tunnel can be found for the specified user, of if the transmission
-     *                                  of the message fails.
+     * @param remoteUser name by which the remote user can be identified.
+     * @param feature    the {@link ChatFeature}.
+     * @return if the feature can be used when communicating with the remote user.
      */
-    public void sendMessage(String remoteUser, String message) throws TunnelOperationException {
+    public boolean isChatFeatureEnabled(String remoteUser, ChatFeature feature) {
+
+        boolean enabled = false;
 
         this.storedUsersLock.lock();
 
         try {
-            IRemoteUserTunnel remoteTunnel = this.receivedTunnels.get(remoteUser);
+            Integer features = this.chatFeatures.get(remoteUser);
+            enabled = features != null && feature.isPresentIn(features);
 
-            if (remoteTunnel != null) {
-                remoteTunnel.transmitMessage(message);
+        } finally {
+            // The lock must always be released
+            this.storedUsersLock.unlock();
+        }
 
-            } else {
-                throw new TunnelOperationException("No remote tunnel has been received from the specified remote " +
-                        "user");
-            }
+        return enabled;
+    }
 
-        } catch (RemoteException e) {
-            System.err.println("Could not send a message trough a remote tunnel");
-            throw new TunnelOperationException(e);
+    /**
+     * Returns the {@link IRemoteUserTunnel} that the specified remote user has prepared so that the client may
+     * communicate with him.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @return the {@link IRemoteUserTunnel} if it has been received; otherwise, returns null.
+     */
+    public IRemoteUserTunnel getReceivedTunnel(String remoteUser) {
+
+        IRemoteUserTunnel remoteTunnel = null;
+
+        this.storedUsersLock.lock();
+
+        try {
+            remoteTunnel = this.receivedTunnels.get(remoteUser);
 
         } finally {
             // The lock must always be released
             this.storedUsersLock.unlock();
         }
+
+        return remoteTunnel;
+    }
+
+    /**
+     * Sends a given message to the specified remote user. He must have previously given the client a {@link
+     * IRemoteUserTunnel} that allows the client to communicate with him. The message is queued in the remote user's
+     * outbox of {@link #outgoingMessagesBatcher}, which encodes and sends it after the previous ones, so the method does
+     * not wait for it to be transmitted.
+     *
+     * @param remoteUser name by which the remote user that will be sent the message can be identified.
+     * @param message    provides the content of the message that will be sent, as an encrypted binary frame.
+     * @return {@link CompletableFuture} that is completed when the message has been sent, or that is completed
+     * exceptionally with a {@link TunnelOperationException} if no remote tunnel can be found for the specified user, of
+     * if the encoding or the transmission of the message fails.
+     */
+    public CompletableFuture<Void> sendMessage(String remoteUser, OutgoingMessagesBatcher.FrameSupplier message) {
+
+        this.chatsActivity.computeIfPresent(remoteUser, (user, lastActivity) -> System.nanoTime());
+
+        return this.outgoingMessagesBatcher.enqueueMessage(remoteUser, message);
     }
 
     /**
@@ -555,12 +780,13 @@ public class CurrentUserFacade {
      * @param remoteUser       name by which the remote user can be identified.
      * @param remoteUserTunnel {@link IRemoteUserTunnel} that the remote user has prepared so that the client may
      *                         communicate with him.
+     * @param features         bit mask of the {@link ChatFeature}s that both ends have agreed on.
      * @return {@link IRemoteUserTunnel} that the client has prepared so that the remote user may communicate with him.
      * @throws TunnelOperationException if a previously opened local tunnel cannot be unexported, of if a new one
      *                                  cannot be exported.
      */
-    public IRemoteUserTunnel replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel) throws
-            TunnelOperationException {
+    public IRemoteUserTunnel replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, int features)
+            throws TunnelOperationException {
 
         LocalUserTunnel localTunnel = null;
 
@@ -573,13 +799,15 @@ public class CurrentUserFacade {
             // As the only operation that can throw a checked exception is the previous one, all the other operations
             // are executed only if that one causes no error
             this.receivedTunnels.put(remoteUser, remoteUserTunnel);
+            this.chatFeatures.put(remoteUser, features);
+            this.chatsActivity.put(remoteUser, System.nanoTime());
 
         } finally {
             // The lock must always be released
             this.storedUsersLock.unlock();
         }
 
-        return localTunnel;
+        return localTunnel.getPublishedTunnel();
     }
 
     /**
@@ -615,6 +843,9 @@ public class CurrentUserFacade {
      */
     public void haltExecution() {
 
+        // No more messages will be sent
+        this.outgoingMessagesBatcher.haltExecution();
+
         // All local tunnels that have been opened are now closed
         this.tunnelsLock.lock();
 
@@ -622,7 +853,7 @@ public class CurrentUserFacade {
             for (LocalUserTunnel localUserTunnel : this.openedTunnels.values()) {
 
                 try {
-                    UnicastRemoteObject.unexportObject(localUserTunnel, true);
+                    localUserTunnel.close();
 
                 } catch (NoSuchObjectException e) {
                     System.err.println("A local user tunnel could not be unexported");
@@ -634,5 +865,8 @@ public class CurrentUserFacade {
             // The lock must always be released
             this.tunnelsLock.unlock();
         }
+
+        // The NIO transport is stopped, if it was used
+        NioTunnelTransport.haltExecution();
     }
 }
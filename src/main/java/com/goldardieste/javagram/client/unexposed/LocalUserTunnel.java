@@ -2,26 +2,111 @@ package com.goldardieste.javagram.client.unexposed;
 
 import com.goldardieste.javagram.client.exposed.LocalTunnelsListener;
 import com.goldardieste.javagram.client.unexposed.cryptography.CommunicationDecryptionUtility;
+import com.goldardieste.javagram.common.ConfigurationParameters;
+import com.goldardieste.javagram.common.TunedSslRMIClientSocketFactory;
+import com.goldardieste.javagram.common.TunedSslRMIServerSocketFactory;
+import com.goldardieste.javagram.common.datacontainers.TransmissionAck;
+import com.goldardieste.javagram.common.exceptions.TunnelCongestedException;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
 
-import javax.rmi.ssl.SslRMIClientSocketFactory;
-import javax.rmi.ssl.SslRMIServerSocketFactory;
+import java.io.IOException;
+import java.rmi.NoSuchObjectException;
 import java.rmi.RemoteException;
+import java.rmi.server.ExportException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * This class implements a Javagram tunnel that allows one client to communicate with another one directly.
+ * This class implements a Javagram tunnel that allows one client to communicate with another one directly. Depending on
+ * {@link ConfigurationParameters#NIO_CHAT_TRANSPORT}, it is published either as an RMI remote object or through the
+ * {@link NioTunnelTransport}; in both cases, the remote user must be given its {@link #publishedTunnel}.
+ * <p>
+ * The received messages are not decrypted nor delivered by the thread that handles the transmission: they are queued in
+ * the tunnel's {@link #inbox}, which is drained by {@link #DELIVERY_WORKERS}, so that the sender does not wait for the
+ * client to process them. If the inbox is full, new transmissions are rejected until there is room again.
  */
-public class LocalUserTunnel extends UnicastRemoteObject implements IRemoteUserTunnel {
+public class LocalUserTunnel implements IRemoteUserTunnel {
 
     /* ----- Attributes ----- */
 
+    /**
+     * Decrypt and deliver the messages queued in the inboxes of all tunnels.
+     */
+    private final static ExecutorService DELIVERY_WORKERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "javagram-incoming-messages");
+        // The workers must not prevent the client from ending its execution
+        thread.setDaemon(true);
+        return thread;
+    });
+
     /**
      * Name that identifies the user for which this {@link LocalUserTunnel} has been opened. That is, this object has
      * been instantiated so that the remote user may send messages through it to communicate with the local user.
      */
     private final String remoteUser;
 
+    /**
+     * {@link IRemoteUserTunnel} through which the remote user may reach this object: an RMI stub, or a {@link
+     * NioTunnelEndpoint}.
+     */
+    private final IRemoteUserTunnel publishedTunnel;
+
+    /**
+     * {@link NioTunnelTransport} through which the tunnel has been published, if the NIO transport is being used.
+     */
+    private final NioTunnelTransport nioTunnelTransport;
+
+    /**
+     * {@link ReentrantLock} that a thread must acquire to handle a transmission, so that the messages are delivered in
+     * order even if several transmissions arrive at the same time.
+     */
+    private final ReentrantLock receptionLock;
+
+    /**
+     * Sequence number of the next message that will be delivered.
+     */
+    private long expectedSequence;
+
+    /**
+     * Messages that have arrived ahead of {@link #expectedSequence}, which will be delivered once all the previous
+     * ones have arrived.
+     * <p>
+     * Key -> sequence number.
+     * Value -> the message, as an encrypted binary frame.
+     */
+    private final NavigableMap<Long, byte[]> reorderBuffer;
+
+    /**
+     * Messages that have been accepted, in order, but which have not been delivered yet. Holds at most {@link
+     * ConfigurationParameters#TUNNEL_INBOX_CAPACITY} messages, plus the ones of the transmission that filled it. The
+     * access to it is synchronized on its own monitor.
+     */
+    private final Queue<byte[]> inbox;
+
+    /**
+     * If a worker has already been requested to drain {@link #inbox}, or if it is running.
+     */
+    private boolean deliveryScheduled;
+
+    /**
+     * If the tunnel has been closed, so that it refuses any further transmission as an unknown tunnel would. It is only
+     * accessed while holding {@link #receptionLock}.
+     */
+    private boolean closed;
+
+    /**
+     * When the tunnel was opened or last received a transmission, as given by {@link System#nanoTime()}.
+     */
+    private volatile long lastActivity;
+
     /**
      * If it is not null, all {@link LocalUserTunnel} will forward to it all incoming data.
      */
@@ -36,15 +121,61 @@ public class LocalUserTunnel extends UnicastRemoteObject implements IRemoteUserT
     /* ----- Constructor ----- */
 
     /**
-     * Initializes a {@link LocalUserTunnel} that is prepared to be used.
+     * Initializes a {@link LocalUserTunnel} that is prepared to be used, publishing it through the configured
+     * transport.
      *
      * @param remoteUser name that identifies the remote user that this {@link LocalUserTunnel} has been opened for.
-     * @throws RemoteException the remote object cannot be successfully exported.
+     * @throws RemoteException the tunnel cannot be successfully published.
      */
     public LocalUserTunnel(String remoteUser) throws RemoteException {
-        // TLS connections; port = 0 -> ephemeral port
-        super(0, new SslRMIClientSocketFactory(), new SslRMIServerSocketFactory());
+
         this.remoteUser = remoteUser;
+        this.receptionLock = new ReentrantLock();
+        this.expectedSequence = 1;
+        this.reorderBuffer = new TreeMap<>();
+        this.inbox = new ArrayDeque<>();
+        this.deliveryScheduled = false;
+        this.closed = false;
+        this.lastActivity = System.nanoTime();
+
+        if (ConfigurationParameters.NIO_CHAT_TRANSPORT) {
+
+            try {
+                this.nioTunnelTransport = NioTunnelTransport.getInstance();
+                this.publishedTunnel = this.nioTunnelTransport.publishTunnel(this);
+
+            } catch (IOException e) {
+                System.err.println("The NIO transport could not be started");
+                throw new ExportException("The tunnel could not be published", e);
+            }
+
+        } else {
+            this.nioTunnelTransport = null;
+            // TLS connections; port = 0 -> ephemeral port
+            this.publishedTunnel = (IRemoteUserTunnel) UnicastRemoteObject.exportObject(this, 0,
+                    new TunedSslRMIClientSocketFactory(), new TunedSslRMIServerSocketFactory());
+        }
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #publishedTunnel}.
+     *
+     * @return {@link #publishedTunnel}.
+     */
+    public IRemoteUserTunnel getPublishedTunnel() {
+        return publishedTunnel;
+    }
+
+    /**
+     * Retrieves the current {@link #lastActivity}.
+     *
+     * @return {@link #lastActivity}.
+     */
+    public long getLastActivity() {
+        return lastActivity;
     }
 
 
@@ -52,18 +183,234 @@ public class LocalUserTunnel extends UnicastRemoteObject implements IRemoteUserT
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The messages that arrive ahead of a missing one are kept in {@link #reorderBuffer} until it arrives, and the ones
+     * that have already been accepted are discarded. Each run of consecutive messages is queued in {@link #inbox},
+     * without waiting for it to be delivered.
      */
     @Override
-    public void transmitMessage(String message) {
+    public TransmissionAck transmitMessages(long firstSequence, long windowBase, byte[][] messages)
+            throws TunnelCongestedException, NoSuchObjectException {
+
+        this.lastActivity = System.nanoTime();
+        this.receptionLock.lock();
+
+        // The lock must always be released
+        try {
+            // 0. A closed tunnel acknowledges nothing, as its key may have already been forgotten; the sender will set
+            //    up the chat again and retry
+            if (this.closed) {
+                throw new NoSuchObjectException("The tunnel has been closed");
+            }
+
+            // 0. No message is accepted if the inbox is full, so the sender will have to retry the whole transmission
+            synchronized (this.inbox) {
+                if (this.inbox.size() >= ConfigurationParameters.TUNNEL_INBOX_CAPACITY) {
+                    throw new TunnelCongestedException("The messages sent by the user '" + this.remoteUser + "' " +
+                            "are not being delivered as fast as they arrive");
+                }
+            }
+
+            // 1. The messages that the sender has given up are no longer waited for
+            if (windowBase > this.expectedSequence) {
+                this.reorderBuffer.headMap(windowBase).clear();
+                this.expectedSequence = windowBase;
+            }
+
+            // 2. The new messages are buffered; duplicates, and those that do not fit in the window, are ignored
+            for (int i = 0; i < messages.length; i++) {
+
+                long sequence = firstSequence + i;
+
+                if (sequence >= this.expectedSequence &&
+                        sequence < this.expectedSequence + ConfigurationParameters.TUNNEL_SEND_WINDOW) {
+                    this.reorderBuffer.putIfAbsent(sequence, messages[i]);
+                }
+            }
+
+            // 3. And all the consecutive messages that are now available are queued, while the lock is still held so
+            //    that concurrent transmissions cannot reorder them
+            int credit;
+
+            synchronized (this.inbox) {
+
+                byte[] message;
+
+                while ((message = this.reorderBuffer.remove(this.expectedSequence)) != null) {
+                    this.inbox.add(message);
+                    this.expectedSequence++;
+                }
+
+                if (!this.deliveryScheduled && !this.inbox.isEmpty()) {
+                    this.deliveryScheduled = true;
+                    LocalUserTunnel.DELIVERY_WORKERS.execute(this::deliverQueuedMessages);
+                }
+
+                // The sender is told how much room is left in the inbox
+                credit = Math.max(0, ConfigurationParameters.TUNNEL_INBOX_CAPACITY - this.inbox.size());
+            }
 
-        String decryptedMessage = LocalUserTunnel.communicationDecryptionUtility.decryptString(this.remoteUser,
-                message);
+            return new TransmissionAck(this.expectedSequence - 1, credit);
+
+        } finally {
+            this.receptionLock.unlock();
+        }
+    }
+
+    /**
+     * Delivers all the messages that are queued in {@link #inbox}, in batches. Only one worker may drain the inbox at
+     * the same time.
+     */
+    private void deliverQueuedMessages() {
+
+        while (true) {
+
+            List<byte[]> messages;
+
+            synchronized (this.inbox) {
+
+                if (this.inbox.isEmpty()) {
+                    this.deliveryScheduled = false;
+                    return;
+                }
+
+                messages = new ArrayList<>(this.inbox);
+                this.inbox.clear();
+            }
+
+            // The worker must keep draining the inbox no matter what happens to a batch, or no other one would ever be
+            // scheduled and the tunnel would end up congested
+            try {
+                deliverMessages(messages);
+
+            } catch (RuntimeException e) {
+                System.err.println("Some messages sent by the user '" + this.remoteUser + "' could not be delivered");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Decrypts the given messages and forwards them to {@link #localTunnelsListener}. A message that cannot be
+     * decrypted is discarded, without preventing the other ones from being delivered.
+     *
+     * @param messages the messages, as encrypted binary frames, in the order in which they were sent.
+     */
+    private void deliverMessages(List<byte[]> messages) {
+
+        List<String> decryptedMessages = new ArrayList<>(messages.size());
+
+        // The messages are decrypted in the same order in which they were sent
+        for (byte[] message : messages) {
+            try {
+                decryptedMessages.add(LocalUserTunnel.communicationDecryptionUtility.decryptMessage(this.remoteUser,
+                        message));
+
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                System.err.println("A message sent by the user '" + this.remoteUser + "' could not be decrypted");
+                e.printStackTrace();
+            }
+        }
+
+        if (decryptedMessages.isEmpty()) {
+            return;
+        }
 
         if (LocalUserTunnel.localTunnelsListener != null) {
-            LocalUserTunnel.localTunnelsListener.forwardIncomingMessage(this.remoteUser, decryptedMessage);
+            // A single message does not need to be treated as a batch
+            if (decryptedMessages.size() == 1) {
+                LocalUserTunnel.localTunnelsListener.forwardIncomingMessage(this.remoteUser,
+                        decryptedMessages.get(0));
+            } else {
+                LocalUserTunnel.localTunnelsListener.forwardIncomingMessages(this.remoteUser, decryptedMessages);
+            }
         }
+    }
 
-        System.out.println("The user '" + this.remoteUser + "' has sent the following message: " + decryptedMessage);
+    /**
+     * Checks if the tunnel has no messages left to deliver, neither queued in {@link #inbox} nor being delivered by a
+     * worker. The messages of a busy tunnel have already been acknowledged to the sender, so the tunnel must not be
+     * closed until they are delivered.
+     *
+     * @return if the tunnel is idle.
+     */
+    public boolean isIdle() {
+
+        synchronized (this.inbox) {
+            return this.inbox.isEmpty() && !this.deliveryScheduled;
+        }
+    }
+
+    /**
+     * Waits for the messages to be numbered from the beginning again, as the remote user does when he receives the
+     * tunnel once more because the chat has been set up again. Any message that was waiting for a missing one is
+     * discarded, while the ones that have already been accepted are still delivered.
+     */
+    public void restartSequence() {
+
+        this.receptionLock.lock();
+
+        try {
+            this.reorderBuffer.clear();
+            this.expectedSequence = 1;
+
+        } finally {
+            // The lock must always be released
+            this.receptionLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting transmissions, but only if the tunnel is idle (see {@link #isIdle()}). As the check and the
+     * closing happen while holding {@link #receptionLock}, no transmission can be acknowledged in between, so every
+     * message that the tunnel has acknowledged is delivered. The tunnel must still be withdrawn through {@link
+     * #close()}.
+     *
+     * @return if the tunnel was idle, and therefore it no longer accepts transmissions.
+     */
+    public boolean shutIfIdle() {
+
+        boolean shut = false;
+
+        this.receptionLock.lock();
+
+        try {
+            if (isIdle()) {
+                this.closed = true;
+                shut = true;
+            }
+
+        } finally {
+            // The lock must always be released
+            this.receptionLock.unlock();
+        }
+
+        return shut;
+    }
+
+    /**
+     * Withdraws the tunnel from the transport through which it was published, so that the remote user can no longer
+     * use it. Any transmission that arrives afterwards through a connection that was already established is refused.
+     *
+     * @throws NoSuchObjectException if the tunnel had already been withdrawn.
+     */
+    public void close() throws NoSuchObjectException {
+
+        this.receptionLock.lock();
+
+        try {
+            this.closed = true;
+
+        } finally {
+            // The lock must always be released
+            this.receptionLock.unlock();
+        }
+
+        if (this.nioTunnelTransport != null) {
+            this.nioTunnelTransport.withdrawTunnel((NioTunnelEndpoint) this.publishedTunnel);
+        } else {
+            UnicastRemoteObject.unexportObject(this, true);
+        }
     }
 
     /**
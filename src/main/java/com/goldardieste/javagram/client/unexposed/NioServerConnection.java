@@ -0,0 +1,419 @@
+package com.goldardieste.javagram.client.unexposed;
+
+import com.goldardieste.javagram.common.ConfigurationParameters;
+import com.goldardieste.javagram.common.StatusType;
+import com.goldardieste.javagram.common.datacontainers.CompactSerialization;
+import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
+import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.datacontainers.UserToken;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+import com.goldardieste.javagram.common.interfaces.IServer;
+import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
+import com.goldardieste.javagram.common.nio.MultiplexedChannel;
+import com.goldardieste.javagram.common.nio.NioEventLoop;
+import com.goldardieste.javagram.common.nio.RequestHandler;
+import com.goldardieste.javagram.common.nio.ServerProtocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class allows the client to use a Javagram server through its NIO endpoint instead of RMI. It keeps a single
+ * persistent TLS connection to the server, over which it sends the requests with the binary {@link ServerProtocol},
+ * and through which it receives the server's callbacks, which are forwarded to the {@link
+ * IServerNotificationsListener} given when connecting. Therefore, the listeners that are given to {@link
+ * #signUp(String, String, IServerNotificationsListener)} and {@link #login(String, String,
+ * IServerNotificationsListener)} are ignored.
+ */
+public class NioServerConnection implements IServer, RequestHandler {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * {@link NioEventLoop} that drives the connection.
+     */
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Processes the server's callbacks, so that the {@link #eventLoop} never blocks.
+     */
+    private final ExecutorService callbacksExecutor;
+
+    /**
+     * {@link MultiplexedChannel} that connects the client to the server.
+     */
+    private final MultiplexedChannel channel;
+
+    /**
+     * {@link IServerNotificationsListener} that will attend the server's callbacks.
+     */
+    private final IServerNotificationsListener serverNotificationsListener;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioServerConnection}, immediately connecting to the specified NIO endpoint.
+     *
+     * @param host                        address where the Javagram server can be located.
+     * @param port                        port where its NIO endpoint accepts clients.
+     * @param serverNotificationsListener {@link IServerNotificationsListener} that will attend the server's callbacks.
+     * @throws IOException if the connection cannot be established.
+     */
+    public NioServerConnection(String host, int port, IServerNotificationsListener serverNotificationsListener)
+            throws IOException {
+
+        this.serverNotificationsListener = serverNotificationsListener;
+
+        // Callbacks are processed one at a time, so that status updates are applied in order
+        this.callbacksExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-nio-server-callbacks");
+            // The executor must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.eventLoop = new NioEventLoop("javagram-nio-server-connection");
+
+        try {
+            this.channel = MultiplexedChannel.connect(this.eventLoop, host, port, this, this.callbacksExecutor, true,
+                    ServerProtocol.MAX_RESPONSE_SIZE)
+                    .get(ConfigurationParameters.SOCKET_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        } catch (ExecutionException | TimeoutException e) {
+            haltExecution();
+            System.err.println("The NIO endpoint of the Javagram server could not be reached");
+            throw new ConnectIOException("The NIO endpoint of the Javagram server could not be reached", e);
+
+        } catch (InterruptedException e) {
+            haltExecution();
+            Thread.currentThread().interrupt();
+            throw new ConnectIOException("The connection to the Javagram server has been interrupted", e);
+        }
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UserToken signUp(String username, String passwordHash, IServerNotificationsListener
+            serverNotificationsListener) throws RemoteException {
+
+        return call(ServerProtocol.SIGN_UP, out -> {
+            CompactSerialization.writeString(out, username);
+            CompactSerialization.writeString(out, passwordHash);
+        }, ServerProtocol::readToken);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public UserToken login(String username, String passwordHash, IServerNotificationsListener
+            serverNotificationsListener) throws RemoteException {
+
+        return call(ServerProtocol.LOGIN, out -> {
+            CompactSerialization.writeString(out, username);
+            CompactSerialization.writeString(out, passwordHash);
+        }, ServerProtocol::readToken);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updatePassword(UserToken token, String passwordHash, String newPasswordHash) throws RemoteException {
+
+        call(ServerProtocol.UPDATE_PASSWORD, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, passwordHash);
+            CompactSerialization.writeString(out, newPasswordHash);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void disconnect(UserToken token) throws RemoteException {
+        call(ServerProtocol.DISCONNECT, out -> ServerProtocol.writeToken(out, token),
+                NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<RemoteUser> retrieveFriends(UserToken token) throws RemoteException {
+
+        return call(ServerProtocol.RETRIEVE_FRIENDS, out -> ServerProtocol.writeToken(out, token),
+                ServerProtocol::readRemoteUsers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<RemoteUser> retrieveFriends(UserToken token, StatusType status) throws RemoteException {
+
+        return call(ServerProtocol.RETRIEVE_FRIENDS_BY_STATUS, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeStatus(out, status);
+        }, ServerProtocol::readRemoteUsers);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                                    int localFeatures, String remoteUser) throws RemoteException {
+
+        return call(ServerProtocol.INITIATE_CHAT, out -> {
+            ServerProtocol.writeToken(out, token);
+            ServerProtocol.writeTunnel(out, localTunnel);
+            ServerProtocol.writePublicKey(out, localPublicKey);
+            out.writeInt(localFeatures);
+            CompactSerialization.writeString(out, remoteUser);
+        }, ServerProtocol::readNewChatData);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publishPrekeys(UserToken token, PrekeyBundle bundle) throws RemoteException {
+
+        call(ServerProtocol.PUBLISH_PREKEYS, out -> {
+            ServerProtocol.writeToken(out, token);
+            ServerProtocol.writePrekeyBundle(out, bundle);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrekeyBundle retrievePrekeys(UserToken token, String remoteUser) throws RemoteException {
+
+        return call(ServerProtocol.RETRIEVE_PREKEYS, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, remoteUser);
+        }, ServerProtocol::readPrekeyBundle);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requestChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                            byte[] agreementSalt, int localFeatures, String remoteUser) throws RemoteException {
+
+        call(ServerProtocol.REQUEST_CHAT, out -> {
+            ServerProtocol.writeToken(out, token);
+            ServerProtocol.writeTunnel(out, localTunnel);
+            ServerProtocol.writePublicKey(out, localPublicKey);
+            ServerProtocol.writeBytes(out, agreementSalt);
+            out.writeInt(localFeatures);
+            CompactSerialization.writeString(out, remoteUser);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requestFriendship(UserToken token, String remoteUser) throws RemoteException {
+
+        call(ServerProtocol.REQUEST_FRIENDSHIP, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, remoteUser);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean acceptFriendship(UserToken token, String remoteUser) throws RemoteException {
+
+        return call(ServerProtocol.ACCEPT_FRIENDSHIP, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, remoteUser);
+        }, DataInputStream::readBoolean);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rejectFriendship(UserToken token, String remoteUser) throws RemoteException {
+
+        call(ServerProtocol.REJECT_FRIENDSHIP, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, remoteUser);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void endFriendship(UserToken token, String remoteUser) throws RemoteException {
+
+        call(ServerProtocol.END_FRIENDSHIP, out -> {
+            ServerProtocol.writeToken(out, token);
+            CompactSerialization.writeString(out, remoteUser);
+        }, NioServerConnection::readNothing);
+    }
+
+    /**
+     * Sends a request to the server and waits for its response.
+     *
+     * @param code   code of the operation.
+     * @param body   writes the arguments of the operation.
+     * @param reader reads the returned value from the response.
+     * @param <T>    type of the returned value.
+     * @return the returned value.
+     * @throws RemoteException if the server cannot complete the operation, or if it does not answer in time.
+     */
+    private <T> T call(byte code, ServerProtocol.BodyWriter body, ResponseReader<T> reader) throws RemoteException {
+
+        try {
+            byte[] response = this.channel.sendRequest(ServerProtocol.encode(code, body))
+                    .get(ConfigurationParameters.SERVER_CALL_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            return reader.read(ServerProtocol.decode(response));
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new ConnectIOException("The request could not be sent to the Javagram server", e);
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (IOException e) {
+            throw new RemoteException("The request could not be encoded or its response decoded", e);
+
+        } catch (TimeoutException e) {
+            throw new ConnectIOException("The Javagram server has not answered in time", e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectIOException("The request has been interrupted", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Decodes a callback from the server and forwards it to {@link #serverNotificationsListener}.
+     */
+    @Override
+    public byte[] handleRequest(MultiplexedChannel channel, byte[] request) throws IOException {
+
+        DataInputStream in = ServerProtocol.decode(request);
+        byte code = in.readByte();
+
+        switch (code) {
+
+            case ServerProtocol.REPLY_CHAT_REQUEST: {
+                String remoteUser = CompactSerialization.readString(in);
+                IRemoteUserTunnel remoteUserTunnel = ServerProtocol.readTunnel(in);
+                PublicKey remoteUserPublicKey = ServerProtocol.readPublicKey(in);
+                int remoteUserFeatures = in.readInt();
+
+                NewChatData chatData = this.serverNotificationsListener.replyChatRequest(remoteUser,
+                        remoteUserTunnel, remoteUserPublicKey, remoteUserFeatures);
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeNewChatData(out, chatData));
+            }
+
+            case ServerProtocol.ACCEPT_CHAT_REQUEST: {
+                String remoteUser = CompactSerialization.readString(in);
+                IRemoteUserTunnel remoteUserTunnel = ServerProtocol.readTunnel(in);
+                PublicKey remoteUserPublicKey = ServerProtocol.readPublicKey(in);
+                byte[] agreementSalt = ServerProtocol.readBytes(in);
+                int remoteUserFeatures = in.readInt();
+
+                NewChatData chatData = this.serverNotificationsListener.acceptChatRequest(remoteUser,
+                        remoteUserTunnel, remoteUserPublicKey, agreementSalt, remoteUserFeatures);
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeNewChatData(out, chatData));
+            }
+
+            case ServerProtocol.COMPLETE_CHAT_REQUEST: {
+                String remoteUser = CompactSerialization.readString(in);
+                NewChatData chatData = in.readBoolean() ? ServerProtocol.readNewChatData(in) : null;
+
+                this.serverNotificationsListener.completeChatRequest(remoteUser, chatData);
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.UPDATE_REMOTE_USER_STATUS: {
+                this.serverNotificationsListener.updateRemoteUserStatus(ServerProtocol.readRemoteUser(in));
+
+                return new byte[0];
+            }
+
+            default:
+                System.err.println("An unknown callback has been received from the Javagram server: " + code);
+                throw new RemoteException("Unknown callback: " + code);
+        }
+    }
+
+    /**
+     * Reads the response of the operations that do not return any value.
+     *
+     * @param in where the response would be read from.
+     * @return null.
+     */
+    private static Void readNothing(DataInputStream in) {
+        return null;
+    }
+
+    /**
+     * Closes the connection to the server.
+     */
+    public void haltExecution() {
+        this.eventLoop.haltExecution();
+        this.callbacksExecutor.shutdownNow();
+    }
+
+
+    /* ----- Nested interfaces ----- */
+
+    /**
+     * Reads the value that an operation returns from its response.
+     *
+     * @param <T> type of the returned value.
+     */
+    @FunctionalInterface
+    private interface ResponseReader<T> {
+
+        /**
+         * Reads the value.
+         *
+         * @param in where the response can be read from.
+         * @return the value.
+         * @throws IOException if it cannot be read.
+         */
+        T read(DataInputStream in) throws IOException;
+    }
+}
@@ -0,0 +1,108 @@
+package com.goldardieste.javagram.client.unexposed;
+
+import com.goldardieste.javagram.common.datacontainers.TransmissionAck;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.util.UUID;
+
+/**
+ * This class represents a {@link LocalUserTunnel} that has been published through the {@link NioTunnelTransport}.
+ * Unlike an RMI stub, it is sent by value to the remote user, and it just contains where and how the tunnel can be
+ * reached: the address and port of the client that opened it, and the random token that identifies it there.
+ */
+public class NioTunnelEndpoint implements IRemoteUserTunnel, Serializable {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Version of the class, as instances are sent to remote users.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Address of the client that opened the tunnel.
+     */
+    private final String host;
+
+    /**
+     * Port where the {@link NioTunnelTransport} of the client that opened the tunnel accepts connections.
+     */
+    private final int port;
+
+    /**
+     * Random token that identifies the tunnel among all the ones that the client has opened.
+     */
+    private final UUID token;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioTunnelEndpoint} that points to the specified tunnel.
+     *
+     * @param host  address of the client that opened the tunnel.
+     * @param port  port where its {@link NioTunnelTransport} accepts connections.
+     * @param token random token that identifies the tunnel.
+     */
+    public NioTunnelEndpoint(String host, int port, UUID token) {
+        this.host = host;
+        this.port = port;
+        this.token = token;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #host}.
+     *
+     * @return {@link #host}.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Retrieves the current {@link #port}.
+     *
+     * @return {@link #port}.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Retrieves the current {@link #token}.
+     *
+     * @return {@link #token}.
+     */
+    public UUID getToken() {
+        return token;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TransmissionAck transmitMessages(long firstSequence, long windowBase, byte[][] messages)
+            throws RemoteException {
+
+        NioTunnelTransport transport;
+
+        try {
+            transport = NioTunnelTransport.getInstance();
+
+        } catch (IOException e) {
+            throw new ConnectIOException("The NIO transport could not be started", e);
+        }
+
+        return transport.transmitMessages(this, firstSequence, windowBase, messages);
+    }
+}
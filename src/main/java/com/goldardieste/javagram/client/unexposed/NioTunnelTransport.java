@@ -0,0 +1,362 @@
+package com.goldardieste.javagram.client.unexposed;
+
+import com.goldardieste.javagram.client.unexposed.cryptography.CryptographicServices;
+import com.goldardieste.javagram.common.ConfigurationParameters;
+import com.goldardieste.javagram.common.datacontainers.TransmissionAck;
+import com.goldardieste.javagram.common.exceptions.TunnelCongestedException;
+import com.goldardieste.javagram.common.nio.MultiplexedChannel;
+import com.goldardieste.javagram.common.nio.NioEventLoop;
+import com.goldardieste.javagram.common.nio.RequestHandler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class implements the NIO transport that clients may use to chat with each other instead of RMI tunnels (see
+ * {@link ConfigurationParameters#NIO_CHAT_TRANSPORT}). A single {@link NioEventLoop} accepts the connections of the
+ * remote users and opens the ones to them, and each batch of messages travels as one request over a {@link
+ * MultiplexedChannel}:
+ * <p>
+ * [token (16 bytes)][first sequence (8 bytes)][window base (8 bytes)][amount of messages (4 bytes)] + for each
+ * message: [length (4 bytes)][encrypted frame]
+ * <p>
+ * The response just contains the {@link TransmissionAck}: [accepted sequence (8 bytes)][credit (4 bytes)]. It is only
+ * sent once the messages have been accepted, as with RMI; if the tunnel is congested, it is empty instead, and if the
+ * tunnel has been closed, it has a single byte. Only one connection is opened to each remote client, regardless of how
+ * many tunnels it has opened.
+ */
+public class NioTunnelTransport implements RequestHandler {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Size in bytes of the token that identifies each tunnel.
+     */
+    private final static int TOKEN_SIZE = 2 * Long.BYTES;
+
+    /**
+     * Size in bytes of each encoded {@link TransmissionAck}.
+     */
+    private final static int ACK_SIZE = Long.BYTES + Integer.BYTES;
+
+    /**
+     * Maximum size in bytes of a transmission: its header, followed by as many encrypted messages as a batch may have,
+     * each of them prefixed by its length. Any client may connect to the transport, so nothing bigger is buffered.
+     */
+    private final static int MAX_TRANSMISSION_SIZE = NioTunnelTransport.TOKEN_SIZE + 2 * Long.BYTES + Integer.BYTES +
+            OutgoingMessagesBatcher.MAX_BATCH_SIZE * (Integer.BYTES + CryptographicServices.MAX_FRAME_SIZE);
+
+    /**
+     * Size in bytes of the response that is sent when a transmission is addressed to a tunnel that does not exist.
+     */
+    private final static int UNKNOWN_TUNNEL_SIZE = 1;
+
+    /**
+     * The only instance of the transport in the client, if it has been started.
+     */
+    private static NioTunnelTransport instance;
+
+    /**
+     * {@link NioEventLoop} that drives all connections.
+     */
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Processes the received messages, so that the {@link #eventLoop} never blocks.
+     */
+    private final ExecutorService workers;
+
+    /**
+     * Address that remote users will use to reach the client.
+     */
+    private final String host;
+
+    /**
+     * Port where the client accepts connections from remote users.
+     */
+    private final int port;
+
+    /**
+     * Contains all the {@link LocalUserTunnel} that have been published through the transport.
+     * <p>
+     * Key -> token that identifies the tunnel.
+     * Value -> the {@link LocalUserTunnel}.
+     */
+    private final Map<UUID, LocalUserTunnel> publishedTunnels;
+
+    /**
+     * Contains the connections that have been opened to remote clients.
+     * <p>
+     * Key -> "address:port" of the remote client.
+     * Value -> {@link CompletableFuture} that is completed with the {@link MultiplexedChannel} to it.
+     */
+    private final Map<String, CompletableFuture<MultiplexedChannel>> channels;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioTunnelTransport}, which immediately starts accepting connections on an ephemeral port.
+     *
+     * @throws IOException if the connections cannot be accepted.
+     */
+    private NioTunnelTransport() throws IOException {
+
+        this.publishedTunnels = new ConcurrentHashMap<>();
+        this.channels = new ConcurrentHashMap<>();
+
+        this.workers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-nio-tunnel-worker");
+            // The workers must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.eventLoop = new NioEventLoop("javagram-nio-tunnels");
+
+        // The messages that arrive through each connection must be processed in order
+        this.port = this.eventLoop.listen(0, MultiplexedChannel.acceptor(this, this.workers, true,
+                NioTunnelTransport.MAX_TRANSMISSION_SIZE));
+
+        // The same address that RMI would advertise is used
+        String advertisedHost = System.getProperty("java.rmi.server.hostname");
+        this.host = advertisedHost != null ? advertisedHost : InetAddress.getLocalHost().getHostAddress();
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Retrieves the only instance of the transport, starting it if needed.
+     *
+     * @return the {@link NioTunnelTransport}.
+     * @throws IOException if the transport cannot be started.
+     */
+    public static synchronized NioTunnelTransport getInstance() throws IOException {
+
+        if (NioTunnelTransport.instance == null) {
+            NioTunnelTransport.instance = new NioTunnelTransport();
+        }
+
+        return NioTunnelTransport.instance;
+    }
+
+    /**
+     * Publishes the given {@link LocalUserTunnel}, so that the remote user may send messages through it.
+     *
+     * @param localTunnel the {@link LocalUserTunnel}.
+     * @return {@link NioTunnelEndpoint} that must be sent to the remote user.
+     */
+    public NioTunnelEndpoint publishTunnel(LocalUserTunnel localTunnel) {
+
+        UUID token = UUID.randomUUID();
+        this.publishedTunnels.put(token, localTunnel);
+
+        return new NioTunnelEndpoint(this.host, this.port, token);
+    }
+
+    /**
+     * Withdraws a previously published tunnel, so that no more messages can be sent through it.
+     *
+     * @param endpoint {@link NioTunnelEndpoint} that was generated when publishing it.
+     * @throws NoSuchObjectException if the tunnel had not been published.
+     */
+    public void withdrawTunnel(NioTunnelEndpoint endpoint) throws NoSuchObjectException {
+
+        if (this.publishedTunnels.remove(endpoint.getToken()) == null) {
+            throw new NoSuchObjectException("The tunnel had not been published");
+        }
+    }
+
+    /**
+     * Sends the given messages through the specified tunnel, and waits until the remote client has processed them.
+     *
+     * @param endpoint      {@link NioTunnelEndpoint} that points to the tunnel.
+     * @param firstSequence sequence number of the first message.
+     * @param windowBase    lowest sequence number that is still waiting to be acknowledged.
+     * @param messages      the messages, as encrypted binary frames.
+     * @return {@link TransmissionAck} that the remote client has returned.
+     * @throws RemoteException if the messages cannot be delivered.
+     */
+    public TransmissionAck transmitMessages(NioTunnelEndpoint endpoint, long firstSequence, long windowBase,
+                                           byte[][] messages) throws RemoteException {
+
+        // 1. The request is generated
+        int size = NioTunnelTransport.TOKEN_SIZE + 2 * Long.BYTES + Integer.BYTES;
+        for (byte[] message : messages) {
+            size += Integer.BYTES + message.length;
+        }
+
+        ByteBuffer request = ByteBuffer.allocate(size);
+        request.putLong(endpoint.getToken().getMostSignificantBits());
+        request.putLong(endpoint.getToken().getLeastSignificantBits());
+        request.putLong(firstSequence);
+        request.putLong(windowBase);
+        request.putInt(messages.length);
+
+        for (byte[] message : messages) {
+            request.putInt(message.length).put(message);
+        }
+
+        // 2. It is sent, and the response is awaited
+        byte[] response;
+
+        try {
+            response = retrieveChannel(endpoint).sendRequest(request.array())
+                    .get(ConfigurationParameters.SOCKET_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new ConnectIOException("The messages could not be delivered", e);
+
+        } catch (TimeoutException e) {
+            throw new ConnectIOException("The remote client has not answered in time", e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectIOException("The transmission has been interrupted", e);
+        }
+
+        // 3. And the acknowledgement is decoded
+        if (response.length == 0) {
+            throw new TunnelCongestedException("The remote client cannot accept more messages for now");
+        }
+
+        if (response.length == NioTunnelTransport.UNKNOWN_TUNNEL_SIZE) {
+            throw new NoSuchObjectException("The remote client has closed the tunnel");
+        }
+
+        if (response.length != NioTunnelTransport.ACK_SIZE) {
+            throw new UnmarshalException("The remote client has sent an invalid acknowledgement");
+        }
+
+        ByteBuffer ack = ByteBuffer.wrap(response);
+        return new TransmissionAck(ack.getLong(), ack.getInt());
+    }
+
+    /**
+     * Retrieves the {@link MultiplexedChannel} to the client that published the specified tunnel, opening it if there
+     * is none or if the previous one has been closed.
+     *
+     * @param endpoint {@link NioTunnelEndpoint} that points to the tunnel.
+     * @return the {@link MultiplexedChannel}.
+     * @throws ExecutionException   if the connection cannot be established.
+     * @throws TimeoutException     if the connection cannot be established in time.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private MultiplexedChannel retrieveChannel(NioTunnelEndpoint endpoint) throws ExecutionException,
+            TimeoutException, InterruptedException {
+
+        String address = endpoint.getHost() + ":" + endpoint.getPort();
+
+        CompletableFuture<MultiplexedChannel> channel = this.channels.compute(address, (k, current) -> {
+
+            // A failed or closed connection is replaced
+            if (current == null || current.isCompletedExceptionally() ||
+                    (current.isDone() && current.join().isClosed())) {
+                // This side does not accept requests through the connections that it opens
+                return MultiplexedChannel.connect(this.eventLoop, endpoint.getHost(), endpoint.getPort(), null,
+                        this.workers, true, NioTunnelTransport.MAX_TRANSMISSION_SIZE);
+            }
+
+            return current;
+        });
+
+        return channel.get(ConfigurationParameters.SOCKET_CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Decodes a batch of messages and hands it to the {@link LocalUserTunnel} that it is addressed to.
+     */
+    @Override
+    public byte[] handleRequest(MultiplexedChannel channel, byte[] request) {
+
+        ByteBuffer buffer = ByteBuffer.wrap(request);
+        LocalUserTunnel localTunnel;
+        long firstSequence;
+        long windowBase;
+        byte[][] messages;
+
+        try {
+            UUID token = new UUID(buffer.getLong(), buffer.getLong());
+            localTunnel = this.publishedTunnels.get(token);
+
+            // The sender will know that it must set up the chat again, as with a RMI tunnel that has been unexported
+            if (localTunnel == null) {
+                return new byte[NioTunnelTransport.UNKNOWN_TUNNEL_SIZE];
+            }
+
+            firstSequence = buffer.getLong();
+            windowBase = buffer.getLong();
+            int amount = buffer.getInt();
+
+            // Each message needs at least its length
+            if (amount < 0 || amount > buffer.remaining() / Integer.BYTES) {
+                throw new IllegalArgumentException("The request claims an invalid amount of messages: " + amount);
+            }
+
+            messages = new byte[amount][];
+
+            for (int i = 0; i < amount; i++) {
+                int length = buffer.getInt();
+
+                if (length < 0 || length > buffer.remaining()) {
+                    throw new IllegalArgumentException("A message claims an invalid length: " + length);
+                }
+
+                messages[i] = new byte[length];
+                buffer.get(messages[i]);
+            }
+
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("The request is truncated");
+        }
+
+        try {
+            TransmissionAck ack = localTunnel.transmitMessages(firstSequence, windowBase, messages);
+            return ByteBuffer.allocate(NioTunnelTransport.ACK_SIZE)
+                    .putLong(ack.getAcceptedSequence())
+                    .putInt(ack.getCredit())
+                    .array();
+
+        } catch (TunnelCongestedException e) {
+            // The sender will know that it must retry later
+            return new byte[0];
+
+        } catch (NoSuchObjectException e) {
+            // The tunnel has been closed after being looked up
+            return new byte[NioTunnelTransport.UNKNOWN_TUNNEL_SIZE];
+        }
+    }
+
+    /**
+     * Stops the transport, if it has been started, closing all of its connections.
+     */
+    public static synchronized void haltExecution() {
+
+        if (NioTunnelTransport.instance != null) {
+            NioTunnelTransport.instance.eventLoop.haltExecution();
+            NioTunnelTransport.instance.workers.shutdownNow();
+            NioTunnelTransport.instance = null;
+        }
+    }
+}
@@ -0,0 +1,792 @@
+package com.goldardieste.javagram.client.unexposed;
+
+import com.goldardieste.javagram.common.ConfigurationParameters;
+import com.goldardieste.javagram.common.datacontainers.TransmissionAck;
+import com.goldardieste.javagram.common.exceptions.TunnelCongestedException;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps an outbox for each remote user to whom the client sends messages. Each outbox has, at most, one
+ * sender running at any time, which encodes the queued messages in order and numbers them; therefore, the callers
+ * never wait for the encryption nor for the remote calls, and a slow remote user only delays his own messages, as the
+ * outboxes of different remote users are served in parallel.
+ * <p>
+ * The messages that are queued for the same remote user within a short window of time are transmitted through a
+ * single call to {@link IRemoteUserTunnel#transmitMessages(long, long, byte[][])}. The sender does not wait for each
+ * call to return before starting the next one, as long as no more than {@link
+ * ConfigurationParameters#TUNNEL_SEND_WINDOW} messages remain unacknowledged; as they carry sequence numbers, the
+ * receiving end delivers them in order anyway. Each message is considered sent once a {@link TransmissionAck} covers
+ * it, and a failed transmission is retried before giving up its messages; if the receiving end is congested, the
+ * transmission is delayed instead.
+ * <p>
+ * Besides, each acknowledgement advertises how many more messages the receiving end can accept, and the sender never
+ * has more messages in flight than that; the rest wait in the outbox, which is bounded by {@link
+ * ConfigurationParameters#TUNNEL_OUTBOX_CAPACITY}. If no credit is left and nothing is waiting to be acknowledged, the
+ * receiving end is asked for credit again after a while.
+ */
+public class OutgoingMessagesBatcher {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Time in milliseconds that a message may wait for other messages to the same remote user before being sent.
+     */
+    private final static long BATCHING_WINDOW_MS = 5;
+
+    /**
+     * Maximum amount of messages that will be sent through a single remote call. The NIO tunnels also use it to bound
+     * the size of the transmissions that they accept.
+     */
+    final static int MAX_BATCH_SIZE = 64;
+
+    /**
+     * Maximum time in milliseconds that a transmission waits before being retried after a congested tunnel rejects it.
+     */
+    private final static long MAX_CONGESTION_BACKOFF_MS = 1_000;
+
+    /**
+     * {@link CurrentUserFacade} that provides the {@link IRemoteUserTunnel} through which each batch will be sent.
+     */
+    private final CurrentUserFacade currentUserFacade;
+
+    /**
+     * Contains, for each remote user, the messages that are waiting to be sent to him.
+     * <p>
+     * Key -> username.
+     * Value -> the {@link Outbox} for that remote user.
+     */
+    private final Map<String, Outbox> outboxes;
+
+    /**
+     * Runs the senders of the outboxes, so that different remote users are served in parallel, and the transmissions
+     * that they start.
+     */
+    private final ExecutorService senders;
+
+    /**
+     * Takes care of starting each sender once the batching window of its first message has expired.
+     */
+    private final ScheduledExecutorService scheduler;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes an empty {@link OutgoingMessagesBatcher}.
+     *
+     * @param currentUserFacade {@link CurrentUserFacade} that provides the tunnels through which the batches will be
+     *                          sent.
+     */
+    public OutgoingMessagesBatcher(CurrentUserFacade currentUserFacade) {
+
+        this.currentUserFacade = currentUserFacade;
+        this.outboxes = new ConcurrentHashMap<>();
+
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-outgoing-messages");
+            // The senders must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-outgoing-messages-scheduler");
+            // The scheduler must not prevent the client from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Queues the given message in the outbox of the specified remote user, so that it is sent after the previous ones,
+     * along with any other message that is queued for him within the batching window. The message is encoded by the
+     * sender of the outbox, instead of by the caller.
+     *
+     * @param remoteUser name by which the remote user that will be sent the message can be identified.
+     * @param message    provides the content of the message that will be sent, as an encrypted binary frame.
+     * @return {@link CompletableFuture} that is completed when the message has been sent, or that is completed
+     * exceptionally with a {@link TunnelOperationException} if it could not be encoded or sent, or if the outbox is
+     * full.
+     */
+    public CompletableFuture<Void> enqueueMessage(String remoteUser, FrameSupplier message) {
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Outbox outbox = this.outboxes.computeIfAbsent(remoteUser, Outbox::new);
+
+        synchronized (outbox) {
+
+            if (!outbox.discarded) {
+
+                // The outbox only grows up to its capacity, no matter how slow the remote user is
+                if (outbox.messages.size() >= ConfigurationParameters.TUNNEL_OUTBOX_CAPACITY) {
+                    result.completeExceptionally(new TunnelOperationException("Too many messages are waiting to be " +
+                            "sent to the specified remote user"));
+                    return result;
+                }
+
+                outbox.messages.add(new PendingMessage(message, result));
+
+                // The first message of the batch is the one that opens its window
+                if (!outbox.senderScheduled) {
+                    outbox.senderScheduled = true;
+
+                    try {
+                        this.scheduler.schedule(() -> startSender(outbox), OutgoingMessagesBatcher.BATCHING_WINDOW_MS,
+                                TimeUnit.MILLISECONDS);
+
+                    } catch (RejectedExecutionException e) {
+                        // Every queued message is failed, not only the new one, so that no caller waits forever
+                        TunnelOperationException exception = new TunnelOperationException("The client's back-end " +
+                                "has been stopped before sending the message");
+
+                        outbox.messages.forEach(m -> m.result.completeExceptionally(exception));
+                        outbox.messages.clear();
+                        outbox.senderScheduled = false;
+                    }
+                }
+
+                return result;
+            }
+        }
+
+        // The outbox has been discarded right after being retrieved, so the message is queued in a new one
+        return enqueueMessage(remoteUser, message);
+    }
+
+    /**
+     * Discards the outbox of the specified remote user, as the chat with him has been closed, so that it does not take
+     * up memory while it is not needed. It is kept if it still has any message waiting to be sent or acknowledged.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void discardOutbox(String remoteUser) {
+
+        this.outboxes.computeIfPresent(remoteUser, (user, outbox) -> {
+
+            synchronized (outbox) {
+
+                if (!outbox.messages.isEmpty() || !outbox.inFlight.isEmpty() || outbox.senderScheduled ||
+                        outbox.probeScheduled || outbox.held) {
+                    return outbox;
+                }
+
+                outbox.discarded = true;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Holds the messages that are queued in the outbox of the specified remote user, without sending them, until
+     * {@link #releaseOutbox(String)} is called. It is used while the chat with him is being set up, so that messages
+     * may already be queued before his tunnel has been received.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void holdOutbox(String remoteUser) {
+
+        Outbox outbox = this.outboxes.computeIfAbsent(remoteUser, Outbox::new);
+
+        synchronized (outbox) {
+
+            if (!outbox.discarded) {
+                outbox.held = true;
+                return;
+            }
+        }
+
+        // The outbox has been discarded right after being retrieved, so a new one is held instead
+        holdOutbox(remoteUser);
+    }
+
+    /**
+     * Stops holding the outbox of the specified remote user, so that the messages that are waiting in it are sent
+     * right away. If his tunnel has still not been received, they will fail.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void releaseOutbox(String remoteUser) {
+
+        Outbox outbox = this.outboxes.get(remoteUser);
+
+        if (outbox != null) {
+            synchronized (outbox) {
+                outbox.held = false;
+                restartSender(outbox);
+            }
+        }
+    }
+
+    /**
+     * Checks if any message to the specified remote user is waiting to be sent or acknowledged.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @return if there is any such message.
+     */
+    public boolean hasPendingMessages(String remoteUser) {
+
+        Outbox outbox = this.outboxes.get(remoteUser);
+
+        if (outbox == null) {
+            return false;
+        }
+
+        synchronized (outbox) {
+            return !outbox.messages.isEmpty() || !outbox.inFlight.isEmpty();
+        }
+    }
+
+    /**
+     * Starts the sender of the given {@link Outbox} in {@link #senders}.
+     *
+     * @param outbox the {@link Outbox}.
+     */
+    private void startSender(Outbox outbox) {
+
+        try {
+            this.senders.execute(() -> send(outbox));
+
+        } catch (RejectedExecutionException e) {
+            // The back-end is being stopped, so the pending messages will be discarded
+        }
+    }
+
+    /**
+     * Sends all the messages that are waiting in the given {@link Outbox}, in batches of {@link #MAX_BATCH_SIZE}
+     * messages at most. The remaining messages do not need to wait for another window, but they do wait for
+     * acknowledgements if there is no room for them in the send window, or if the receiving end has no credit left.
+     * Only one sender may run for each outbox at the same time.
+     *
+     * @param outbox the {@link Outbox}.
+     */
+    private void send(Outbox outbox) {
+
+        while (true) {
+
+            List<PendingMessage> batch = new ArrayList<>();
+
+            synchronized (outbox) {
+
+                // The messages stay in the outbox until it is released
+                if (outbox.held) {
+                    outbox.senderScheduled = false;
+                    return;
+                }
+
+                int room = Math.min(OutgoingMessagesBatcher.MAX_BATCH_SIZE,
+                        Math.min(ConfigurationParameters.TUNNEL_SEND_WINDOW, outbox.credit) - outbox.inFlight.size());
+
+                while (batch.size() < room && !outbox.messages.isEmpty()) {
+                    batch.add(outbox.messages.poll());
+                }
+
+                // The next message will open a new window, or the next acknowledgement will start the sender again
+                if (batch.isEmpty()) {
+                    outbox.senderScheduled = false;
+
+                    // If no acknowledgement is coming, the receiving end must be asked for credit
+                    if (!outbox.messages.isEmpty() && outbox.inFlight.isEmpty() && !outbox.probeScheduled) {
+                        outbox.probeScheduled = true;
+                        scheduleProbe(outbox);
+                    }
+
+                    return;
+                }
+            }
+
+            sendBatch(outbox, batch);
+        }
+    }
+
+    /**
+     * Schedules an empty transmission to the outbox's remote user, whose only purpose is to receive an acknowledgement
+     * with his current credit.
+     *
+     * @param outbox the {@link Outbox}.
+     */
+    private void scheduleProbe(Outbox outbox) {
+
+        try {
+            this.scheduler.schedule(() -> this.senders.execute(() -> probe(outbox)),
+                    ConfigurationParameters.TUNNEL_CONGESTION_BACKOFF_MS, TimeUnit.MILLISECONDS);
+
+        } catch (RejectedExecutionException e) {
+            // The back-end is being stopped, so the pending messages will be discarded
+        }
+    }
+
+    /**
+     * Asks the outbox's remote user for credit through an empty transmission. If his tunnel has been replaced
+     * meanwhile, the sender is just started again, as the new tunnel has all of its credit.
+     *
+     * @param outbox the {@link Outbox}.
+     */
+    private void probe(Outbox outbox) {
+
+        IRemoteUserTunnel remoteTunnel = this.currentUserFacade.getReceivedTunnel(outbox.remoteUser);
+        long nextSequence;
+
+        synchronized (outbox) {
+
+            outbox.probeScheduled = false;
+
+            if (remoteTunnel == null || remoteTunnel != outbox.tunnel) {
+                outbox.replaceTunnel(remoteTunnel);
+                restartSender(outbox);
+                return;
+            }
+
+            nextSequence = outbox.nextSequence;
+        }
+
+        transmit(outbox, remoteTunnel, nextSequence, new byte[0][]);
+    }
+
+    /**
+     * Encodes the given messages, numbers them, and starts their transmission to the outbox's remote user through a
+     * single remote call, without waiting for it. The messages that cannot be encoded are discarded, without
+     * preventing the other ones from being sent.
+     *
+     * @param outbox the {@link Outbox}.
+     * @param batch  the messages, in the order in which they were queued.
+     */
+    private void sendBatch(Outbox outbox, List<PendingMessage> batch) {
+
+        // 1. The messages are encoded
+        List<byte[]> frames = new ArrayList<>(batch.size());
+        List<CompletableFuture<Void>> results = new ArrayList<>(batch.size());
+
+        for (PendingMessage message : batch) {
+            try {
+                frames.add(message.frame.get());
+                results.add(message.result);
+
+            } catch (RuntimeException e) {
+                System.err.println("Could not encode a message that was going to be sent trough a remote tunnel");
+                message.result.completeExceptionally(new TunnelOperationException(e));
+            }
+        }
+
+        if (frames.isEmpty()) {
+            return;
+        }
+
+        IRemoteUserTunnel remoteTunnel = this.currentUserFacade.getReceivedTunnel(outbox.remoteUser);
+
+        if (remoteTunnel == null) {
+            TunnelOperationException exception = new TunnelOperationException("No remote tunnel has been received " +
+                    "from the specified remote user");
+            results.forEach(r -> r.completeExceptionally(exception));
+            return;
+        }
+
+        // 2. They are numbered, and kept until they are acknowledged
+        long firstSequence;
+
+        synchronized (outbox) {
+
+            if (remoteTunnel != outbox.tunnel) {
+                outbox.replaceTunnel(remoteTunnel);
+            }
+
+            firstSequence = outbox.nextSequence;
+
+            for (CompletableFuture<Void> result : results) {
+                outbox.inFlight.add(new InFlightMessage(outbox.nextSequence++, result));
+            }
+        }
+
+        // 3. And they are transmitted, while the sender goes on with the next batch
+        startTransmission(outbox, remoteTunnel, firstSequence, frames.toArray(new byte[0][]));
+    }
+
+    /**
+     * Starts, in {@link #senders}, the transmission of the given messages.
+     *
+     * @param outbox        the {@link Outbox} where the messages were queued.
+     * @param remoteTunnel  {@link IRemoteUserTunnel} through which they will be sent.
+     * @param firstSequence sequence number of the first message.
+     * @param frames        the messages, as encrypted binary frames.
+     */
+    private void startTransmission(Outbox outbox, IRemoteUserTunnel remoteTunnel, long firstSequence,
+                                   byte[][] frames) {
+
+        try {
+            this.senders.execute(() -> transmit(outbox, remoteTunnel, firstSequence, frames));
+
+        } catch (RejectedExecutionException e) {
+            // The back-end is being stopped, so the messages have already been given up
+        }
+    }
+
+    /**
+     * Transmits the given messages, retrying up to {@link ConfigurationParameters#TUNNEL_TRANSMISSION_RETRIES} times
+     * if the remote call fails. If it never succeeds, the messages are given up, along with any previous message that
+     * has not been acknowledged yet. The rejections of a congested tunnel are not considered failures: the transmission
+     * is just retried later, waiting longer after each consecutive rejection.
+     *
+     * @param outbox        the {@link Outbox} where the messages were queued.
+     * @param remoteTunnel  {@link IRemoteUserTunnel} through which they will be sent.
+     * @param firstSequence sequence number of the first message.
+     * @param frames        the messages, as encrypted binary frames.
+     */
+    private void transmit(Outbox outbox, IRemoteUserTunnel remoteTunnel, long firstSequence, byte[][] frames) {
+
+        int failures = 0;
+        long backoff = ConfigurationParameters.TUNNEL_CONGESTION_BACKOFF_MS;
+
+        while (true) {
+
+            long windowBase;
+
+            synchronized (outbox) {
+
+                // The messages were given up when the tunnel was replaced
+                if (remoteTunnel != outbox.tunnel) {
+                    return;
+                }
+
+                windowBase = outbox.getWindowBase();
+            }
+
+            try {
+                acknowledge(outbox, remoteTunnel, remoteTunnel.transmitMessages(firstSequence, windowBase, frames));
+                return;
+
+            } catch (TunnelCongestedException e) {
+
+                try {
+                    Thread.sleep(backoff);
+                    backoff = Math.min(2 * backoff, OutgoingMessagesBatcher.MAX_CONGESTION_BACKOFF_MS);
+
+                } catch (InterruptedException interruption) {
+                    // The back-end is being stopped, so the messages have already been given up
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+            } catch (RemoteException e) {
+
+                // A closed tunnel will not come back, so there is no point in retrying the transmission; RMI wraps the
+                // exception if the tunnel was closed while the call was being dispatched
+                if (e instanceof NoSuchObjectException || e.getCause() instanceof NoSuchObjectException ||
+                        ++failures > ConfigurationParameters.TUNNEL_TRANSMISSION_RETRIES) {
+                    System.err.println("Could not send a batch of messages trough a remote tunnel");
+                    giveUp(outbox, remoteTunnel, firstSequence + frames.length - 1, new TunnelOperationException(e));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Completes all the messages that the given acknowledgement covers, updates the credit of the receiving end, and
+     * starts the outbox's sender again if it was waiting for room in the send window or for credit.
+     *
+     * @param outbox       the {@link Outbox} where the messages were queued.
+     * @param remoteTunnel {@link IRemoteUserTunnel} through which they were sent.
+     * @param ack          {@link TransmissionAck} that the receiving end has returned.
+     */
+    private void acknowledge(Outbox outbox, IRemoteUserTunnel remoteTunnel, TransmissionAck ack) {
+
+        long acceptedSequence = ack.getAcceptedSequence();
+
+        synchronized (outbox) {
+
+            if (remoteTunnel != outbox.tunnel) {
+                return;
+            }
+
+            // An acknowledgement that arrives after a more recent one does not know the current credit
+            if (acceptedSequence >= outbox.creditSequence) {
+                outbox.credit = ack.getCredit();
+                outbox.creditSequence = acceptedSequence;
+            }
+
+            // The messages are completed while the monitor is held, so that they are completed in order even if
+            // several acknowledgements arrive at the same time
+            while (!outbox.inFlight.isEmpty() && outbox.inFlight.peek().sequence <= acceptedSequence) {
+                outbox.inFlight.poll().result.complete(null);
+            }
+
+            restartSender(outbox);
+        }
+    }
+
+    /**
+     * Gives up all the messages up to the given sequence number that have not been acknowledged yet. If any later
+     * message is still waiting to be acknowledged, an empty transmission is started so that the receiving end stops
+     * waiting for the given up messages.
+     *
+     * @param outbox       the {@link Outbox} where the messages were queued.
+     * @param remoteTunnel {@link IRemoteUserTunnel} through which they were sent.
+     * @param lastSequence sequence number of the last message that will be given up.
+     * @param exception    {@link TunnelOperationException} with which their results will be completed.
+     */
+    private void giveUp(Outbox outbox, IRemoteUserTunnel remoteTunnel, long lastSequence,
+                        TunnelOperationException exception) {
+
+        long nextSequence;
+
+        synchronized (outbox) {
+
+            if (remoteTunnel != outbox.tunnel) {
+                return;
+            }
+
+            outbox.failInFlight(lastSequence, exception);
+            restartSender(outbox);
+
+            if (outbox.inFlight.isEmpty()) {
+                return;
+            }
+
+            nextSequence = outbox.nextSequence;
+        }
+
+        startTransmission(outbox, remoteTunnel, nextSequence, new byte[0][]);
+    }
+
+    /**
+     * Starts the sender of the given {@link Outbox} right away if it has messages waiting, and it is not already
+     * scheduled. The monitor of the outbox must be held.
+     *
+     * @param outbox the {@link Outbox}.
+     */
+    private void restartSender(Outbox outbox) {
+
+        if (!outbox.senderScheduled && !outbox.messages.isEmpty()) {
+            outbox.senderScheduled = true;
+            startSender(outbox);
+        }
+    }
+
+    /**
+     * Discards all the messages that have not been sent or acknowledged yet, and stops the threads that send the
+     * batches.
+     */
+    public void haltExecution() {
+
+        this.scheduler.shutdownNow();
+        this.senders.shutdownNow();
+
+        TunnelOperationException exception = new TunnelOperationException("The client's back-end has been " +
+                "stopped before sending the message");
+
+        for (Outbox outbox : this.outboxes.values()) {
+            synchronized (outbox) {
+                outbox.messages.forEach(m -> m.result.completeExceptionally(exception));
+                outbox.messages.clear();
+                outbox.failInFlight(outbox.nextSequence - 1, exception);
+            }
+        }
+    }
+
+
+    /* ----- Nested classes ----- */
+
+    /**
+     * Provides the content of a message as an encrypted binary frame. It is only called by the sender of the outbox
+     * where the message is queued, right before transmitting it.
+     */
+    @FunctionalInterface
+    public interface FrameSupplier {
+
+        /**
+         * Encodes the message.
+         *
+         * @return the encrypted binary frame.
+         * @throws RuntimeException if the message cannot be encoded.
+         */
+        byte[] get();
+    }
+
+    /**
+     * A message that is waiting to be sent, along with the {@link CompletableFuture} that must be completed once it
+     * has been sent.
+     */
+    private static class PendingMessage {
+
+        /**
+         * Provides the content of the message.
+         */
+        private final FrameSupplier frame;
+
+        /**
+         * Completed once the message has been sent.
+         */
+        private final CompletableFuture<Void> result;
+
+        /**
+         * Initializes a {@link PendingMessage}.
+         *
+         * @param frame  provides the content of the message.
+         * @param result completed once the message has been sent.
+         */
+        private PendingMessage(FrameSupplier frame, CompletableFuture<Void> result) {
+            this.frame = frame;
+            this.result = result;
+        }
+    }
+
+    /**
+     * A message that has been transmitted, or whose transmission has started, but which has not been acknowledged yet.
+     */
+    private static class InFlightMessage {
+
+        /**
+         * Sequence number that the message was given.
+         */
+        private final long sequence;
+
+        /**
+         * Completed once the message has been acknowledged.
+         */
+        private final CompletableFuture<Void> result;
+
+        /**
+         * Initializes an {@link InFlightMessage}.
+         *
+         * @param sequence sequence number that the message was given.
+         * @param result   completed once the message has been acknowledged.
+         */
+        private InFlightMessage(long sequence, CompletableFuture<Void> result) {
+            this.sequence = sequence;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Messages that are waiting to be sent to a certain remote user, or to be acknowledged by him. The access to it is
+     * synchronized on its own monitor.
+     */
+    private static class Outbox {
+
+        /**
+         * Name by which the remote user can be identified.
+         */
+        private final String remoteUser;
+
+        /**
+         * The messages, in the order in which they were queued.
+         */
+        private final Queue<PendingMessage> messages = new ArrayDeque<>();
+
+        /**
+         * The messages that have not been acknowledged yet, in the order of their sequence numbers.
+         */
+        private final Queue<InFlightMessage> inFlight = new ArrayDeque<>();
+
+        /**
+         * If the sender of the outbox has already been scheduled, or if it is running.
+         */
+        private boolean senderScheduled;
+
+        /**
+         * If an empty transmission has been scheduled to ask the receiving end for credit.
+         */
+        private boolean probeScheduled;
+
+        /**
+         * If the outbox has been removed from {@link OutgoingMessagesBatcher#outboxes}, so that no more messages may
+         * be queued in it.
+         */
+        private boolean discarded;
+
+        /**
+         * If the messages must stay in the outbox, without being sent, as the tunnel of the remote user has not been
+         * received yet.
+         */
+        private boolean held;
+
+        /**
+         * {@link IRemoteUserTunnel} through which the last messages have been sent, and to which the sequence numbers
+         * belong.
+         */
+        private IRemoteUserTunnel tunnel;
+
+        /**
+         * Sequence number that the next message will be given.
+         */
+        private long nextSequence = 1;
+
+        /**
+         * How many messages the receiving end was able to accept when it sent its last acknowledgement. Until the first
+         * one arrives, its whole inbox is assumed to be empty.
+         */
+        private int credit = ConfigurationParameters.TUNNEL_INBOX_CAPACITY;
+
+        /**
+         * Sequence number covered by the acknowledgement that advertised {@link #credit}.
+         */
+        private long creditSequence = 0;
+
+        /**
+         * Initializes an empty {@link Outbox}.
+         *
+         * @param remoteUser name by which the remote user can be identified.
+         */
+        private Outbox(String remoteUser) {
+            this.remoteUser = remoteUser;
+        }
+
+        /**
+         * Retrieves the lowest sequence number that is still waiting to be acknowledged, or the next one if there is
+         * none.
+         *
+         * @return the sequence number.
+         */
+        private long getWindowBase() {
+            return this.inFlight.isEmpty() ? this.nextSequence : this.inFlight.peek().sequence;
+        }
+
+        /**
+         * Starts sending the messages through the given {@link IRemoteUserTunnel}. A new tunnel has its own sequence
+         * numbers and credit, and the messages sent through the previous one will never be acknowledged.
+         *
+         * @param tunnel the new {@link #tunnel}.
+         */
+        private void replaceTunnel(IRemoteUserTunnel tunnel) {
+
+            failInFlight(this.nextSequence - 1, new TunnelOperationException("The remote tunnel has been replaced " +
+                    "before acknowledging the message"));
+
+            this.tunnel = tunnel;
+            this.nextSequence = 1;
+            this.credit = ConfigurationParameters.TUNNEL_INBOX_CAPACITY;
+            this.creditSequence = 0;
+        }
+
+        /**
+         * Completes exceptionally all the messages up to the given sequence number that have not been acknowledged
+         * yet.
+         *
+         * @param lastSequence sequence number of the last message that will be given up.
+         * @param exception    {@link TunnelOperationException} with which their results will be completed.
+         */
+        private void failInFlight(long lastSequence, TunnelOperationException exception) {
+
+            while (!this.inFlight.isEmpty() && this.inFlight.peek().sequence <= lastSequence) {
+                this.inFlight.poll().result.completeExceptionally(exception);
+            }
+        }
+    }
+}
@@ -3,14 +3,14 @@ package com.goldardieste.javagram.client.unexposed;
 import com.goldardieste.javagram.client.exposed.ClientFacade;
 import com.goldardieste.javagram.common.*;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 import com.goldardieste.javagram.common.datacontainers.UserToken;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
 import com.goldardieste.javagram.common.interfaces.IServer;
 import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
 
-import javax.rmi.ssl.SslRMIClientSocketFactory;
-import javax.rmi.ssl.SslRMIServerSocketFactory;
+import java.io.IOException;
 import java.rmi.NoSuchObjectException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
@@ -76,13 +76,14 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
     public ServerOperationsFacade(String rmiRemoteAddress, int rmiRemotePort, String javagramServerIdentifier,
                                   ClientFacade clientFacade) throws RemoteException, IllegalStateException {
         // TLS connections; port = 0 -> ephemeral port
-        super(0, new SslRMIClientSocketFactory(), new SslRMIServerSocketFactory());
+        super(0, new TunedSslRMIClientSocketFactory(), new TunedSslRMIServerSocketFactory());
         this.clientFacade = clientFacade;
 
         this.rmiRemoteAddress = rmiRemoteAddress;
         this.rmiRemotePort = rmiRemotePort;
         this.javagramServerIdentifier = javagramServerIdentifier;
-        this.javagramServer = retrieveJavagramServer();
+        this.javagramServer = ConfigurationParameters.NIO_SERVER_TRANSPORT ? connectToNioEndpoint() :
+                retrieveJavagramServer();
     }
 
 
@@ -99,7 +100,7 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
         try {
             // TLS connections; host = null -> localhost
             Registry registry = LocateRegistry.getRegistry(this.rmiRemoteAddress, this.rmiRemotePort,
-                    new SslRMIClientSocketFactory());
+                    new TunedSslRMIClientSocketFactory());
 
             return (IServer) registry.lookup(this.javagramServerIdentifier);
 
@@ -109,6 +110,24 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
         }
     }
 
+    /**
+     * Connects to the NIO endpoint of the Javagram server, which is located at the same address as its RMI registry.
+     * The server's callbacks will be received through the same connection.
+     *
+     * @return instance of {@link IServer} that represents a Javagram server.
+     * @throws IllegalStateException if the NIO endpoint of the Javagram server cannot be reached.
+     */
+    private IServer connectToNioEndpoint() throws IllegalStateException {
+
+        try {
+            return new NioServerConnection(this.rmiRemoteAddress, ConfigurationParameters.NIO_SERVER_PORT, this);
+
+        } catch (IOException e) {
+            System.err.println("The NIO endpoint of the Javagram server could not be reached");
+            throw new IllegalStateException("No connection to the Javagram server could be established", e);
+        }
+    }
+
     /**
      * Calls {@link IServer#signUp(String, String, IServerNotificationsListener)}.
      *
@@ -164,13 +183,42 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
     }
 
     /**
-     * Calls {@link IServer#initiateChat(UserToken, IRemoteUserTunnel, PublicKey, String)}.
+     * Calls {@link IServer#initiateChat(UserToken, IRemoteUserTunnel, PublicKey, int, String)}.
      *
      * @throws RemoteException if {@link #javagramServer} cannot complete the requested operation.
      */
     public NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
-                                    String remoteUser) throws RemoteException {
-        return this.javagramServer.initiateChat(token, localTunnel, localPublicKey, remoteUser);
+                                    int localFeatures, String remoteUser) throws RemoteException {
+        return this.javagramServer.initiateChat(token, localTunnel, localPublicKey, localFeatures, remoteUser);
+    }
+
+    /**
+     * Calls {@link IServer#publishPrekeys(UserToken, PrekeyBundle)}.
+     *
+     * @throws RemoteException if {@link #javagramServer} cannot complete the requested operation.
+     */
+    public void publishPrekeys(UserToken token, PrekeyBundle bundle) throws RemoteException {
+        this.javagramServer.publishPrekeys(token, bundle);
+    }
+
+    /**
+     * Calls {@link IServer#retrievePrekeys(UserToken, String)}.
+     *
+     * @throws RemoteException if {@link #javagramServer} cannot complete the requested operation.
+     */
+    public PrekeyBundle retrievePrekeys(UserToken token, String remoteUser) throws RemoteException {
+        return this.javagramServer.retrievePrekeys(token, remoteUser);
+    }
+
+    /**
+     * Calls {@link IServer#requestChat(UserToken, IRemoteUserTunnel, PublicKey, byte[], int, String)}.
+     *
+     * @throws RemoteException if {@link #javagramServer} cannot complete the requested operation.
+     */
+    public void requestChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                            byte[] agreementSalt, int localFeatures, String remoteUser) throws RemoteException {
+        this.javagramServer.requestChat(token, localTunnel, localPublicKey, agreementSalt, localFeatures,
+                remoteUser);
     }
 
     /**
@@ -216,8 +264,27 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
      */
     @Override
     public NewChatData replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
-            remoteUserPublicKey) throws RemoteException {
-        return this.clientFacade.replyChatRequest(remoteUser, remoteUserTunnel, remoteUserPublicKey);
+            remoteUserPublicKey, int remoteUserFeatures) throws RemoteException {
+        return this.clientFacade.replyChatRequest(remoteUser, remoteUserTunnel, remoteUserPublicKey,
+                remoteUserFeatures);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NewChatData acceptChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
+            remoteUserPublicKey, byte[] agreementSalt, int remoteUserFeatures) throws RemoteException {
+        return this.clientFacade.acceptChatRequest(remoteUser, remoteUserTunnel, remoteUserPublicKey, agreementSalt,
+                remoteUserFeatures);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeChatRequest(String remoteUser, NewChatData chatData) throws RemoteException {
+        this.clientFacade.completeChatRequest(remoteUser, chatData);
     }
 
     /**
@@ -229,10 +296,15 @@ public class ServerOperationsFacade extends UnicastRemoteObject implements IServ
     }
 
     /**
-     * Unexports the client's proxy so that it is no longer a remote object.
+     * Unexports the client's proxy so that it is no longer a remote object, and closes the connection to the NIO
+     * endpoint of the Javagram server if it was being used.
      */
     public void haltExecution() {
 
+        if (this.javagramServer instanceof NioServerConnection) {
+            ((NioServerConnection) this.javagramServer).haltExecution();
+        }
+
         try {
             UnicastRemoteObject.unexportObject(this, true);
         } catch (NoSuchObjectException e) {
@@ -12,7 +12,7 @@ public interface CommunicationDecryptionUtility {
     /* ----- Methods ----- */
 
     /**
-     * Decrypts the given {@link String} that was sent by the specified remote user.
+     * Decrypts the given binary frame that was sent by the specified remote user.
      *
      * @param remoteUser name by which the remote user can be identified.
      * @param contents   data that is encrypted.
@@ -20,5 +20,5 @@ public interface CommunicationDecryptionUtility {
      * @throws IllegalArgumentException if no encryption with the remote user has been previously configured.
      * @throws IllegalStateException    if the data cannot be decrypted.
      */
-    String decryptString(String remoteUser, String contents);
+    String decryptMessage(String remoteUser, byte[] contents);
 }
@@ -1,33 +1,61 @@
 package com.goldardieste.javagram.client.unexposed.cryptography;
 
+import com.goldardieste.javagram.common.ConfigurationParameters;
+
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.*;
 import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * The purpose of this class is to provide the client-side with the utilities to encrypt/decrypt the communication with
  * other users.
+ * <p>
+ * The AES key of each chat is either generated by one end and wrapped with the RSA key of the other one, or derived by
+ * both ends through an X25519 key agreement between their device keys and a random salt, using HKDF-SHA256.
  */
-// TODO use Diffie Hellman instead of RSA to obtain private keys for each communication
 public class CryptographicServices implements CommunicationDecryptionUtility {
 
     /* ----- Attributes ----- */
 
     /**
-     * Contains the local user's private and public keys.
+     * Contains the local user's RSA private and public keys. They are only generated once they are needed, as it takes
+     * a while (see {@link #getRsaKeyPair()}).
+     */
+    private KeyPair localUserKeyPair;
+
+    /**
+     * Contains the device's X25519 private and public keys, which are reused by all the sessions in the device.
      */
-    private final KeyPair localUserKeyPair;
+    private final KeyPair deviceKeyPair;
 
     /**
      * Contains, for each stored remote user (that are identified by their usernames), the AES key that is being used
-     * to encrypt the communications with him.
+     * to encrypt the communications with him. It is a concurrent map, so that the messages of different remote users
+     * are encrypted and decrypted in parallel.
      */
     private final Map<String, SecretKey> remoteUsersKeys;
 
@@ -36,6 +64,22 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
      */
     private final static int RSA_KEY_SIZE = 2048;
 
+    /**
+     * Size in bytes of the salt from which each AES key is derived after an X25519 key agreement.
+     */
+    private final static int AGREEMENT_SALT_SIZE = 32;
+
+    /**
+     * Context with which HKDF derives the AES keys from the X25519 shared secrets, so that they cannot be mistaken for
+     * keys derived for other purposes.
+     */
+    private final static byte[] AGREEMENT_INFO = "javagram chat AES key".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The device's X25519 key pair, once it has been loaded or generated by {@link #loadDeviceKeyPair()}.
+     */
+    private static KeyPair cachedDeviceKeyPair;
+
     /**
      * Size in bits for the AES keys.
      */
@@ -51,39 +95,260 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
      */
     private final static int AES_GCM_AUTH_TAG_SIZE = 128;
 
+    /**
+     * Value of the flags byte of an encrypted frame that has no special treatment.
+     */
+    private final static byte FRAME_FLAGS_NONE = 0;
+
+    /**
+     * Flag of an encrypted frame whose contents were compressed before being encrypted.
+     */
+    private final static byte FRAME_FLAG_COMPRESSED = 1;
+
+    /**
+     * Size in bytes from which the contents of a message are compressed, if the remote user allows it. Below it, the
+     * deflate header and the time spent compressing outweigh what is saved when encrypting and transmitting typical
+     * chat text.
+     */
+    private final static int COMPRESSION_THRESHOLD = 512;
+
+    /**
+     * Maximum size in bytes that the contents of a compressed message may have once they are decompressed.
+     */
+    private final static int MAX_DECOMPRESSED_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Size in bytes of the header of each encrypted frame (flags + initialization vector).
+     */
+    private final static int FRAME_HEADER_SIZE = 1 + CryptographicServices.AES_GCM_IV_SIZE / 8;
+
+    /**
+     * Maximum size in bytes of an encrypted frame, as messages bigger than {@link
+     * ConfigurationParameters#MAX_MESSAGE_SIZE} are never encrypted and compression never makes them grow.
+     */
+    public final static int MAX_FRAME_SIZE = CryptographicServices.FRAME_HEADER_SIZE +
+            ConfigurationParameters.MAX_MESSAGE_SIZE + CryptographicServices.AES_GCM_AUTH_TAG_SIZE / 8;
+
+    /**
+     * Size in bytes of the biggest buffer that each thread will keep to be reused.
+     */
+    private final static int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Buffer that each thread reuses to encode the messages that it encrypts.
+     */
+    private final static ThreadLocal<byte[]> ENCODING_BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    /**
+     * Buffer that each thread reuses to hold the messages that it decrypts.
+     */
+    private final static ThreadLocal<byte[]> DECRYPTION_BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    /**
+     * Buffer that each thread reuses to hold the messages that it compresses.
+     */
+    private final static ThreadLocal<byte[]> COMPRESSION_BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    /**
+     * Buffer that each thread reuses to hold the messages that it decompresses.
+     */
+    private final static ThreadLocal<byte[]> DECOMPRESSION_BUFFER = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    /**
+     * {@link Deflater} that each thread reuses. Fast compression is preferred, as messages are sent interactively.
+     */
+    private final static ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+
+    /**
+     * {@link Inflater} that each thread reuses.
+     */
+    private final static ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Buffer that each thread reuses to generate initialization vectors.
+     */
+    private final static ThreadLocal<byte[]> IV_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[CryptographicServices.AES_GCM_IV_SIZE / 8]);
+
+    /**
+     * AES-GCM {@link Cipher} that each thread reuses, as looking up the provider of a new one for each message takes
+     * longer than encrypting a typical message. It is initialized again for each message, with its own key and
+     * initialization vector.
+     */
+    private final static ThreadLocal<Cipher> AES_GCM_CIPHER =
+            ThreadLocal.withInitial(CryptographicServices::newAesGcmCipher);
+
+    /**
+     * {@link SecureRandom} that each thread reuses to generate initialization vectors, salts and keys.
+     */
+    private final static ThreadLocal<SecureRandom> SECURE_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+
+    /**
+     * UTF-8 encoder that each thread reuses.
+     */
+    private final static ThreadLocal<CharsetEncoder> UTF8_ENCODER = ThreadLocal.withInitial(() ->
+            StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
 
     /* ----- Constructor ----- */
 
     /**
-     * Initializes a {@link CryptographicServices} for a local client, that generates a random pair of public and
-     * private keys so that he may encrypt communications with other clients.
+     * Initializes a {@link CryptographicServices} for a local client, that retrieves the device's X25519 keys so that he
+     * may encrypt communications with other clients. The RSA keys are also generated right away if the client initiates
+     * chats through RSA (see {@link ConfigurationParameters#X25519_KEY_AGREEMENT}); otherwise, they are only generated
+     * if they are ever needed.
      *
-     * @throws IllegalStateException if the RSA algorithm is not supported.
+     * @throws IllegalStateException if the RSA or X25519 algorithms are not supported.
      */
     public CryptographicServices() {
 
-        try {
-            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-            keyPairGenerator.initialize(CryptographicServices.RSA_KEY_SIZE);
-            this.localUserKeyPair = keyPairGenerator.generateKeyPair();
+        this.deviceKeyPair = CryptographicServices.loadDeviceKeyPair();
+        this.remoteUsersKeys = new ConcurrentHashMap<>();
 
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println("The system does not support RSA encryption");
-            throw new IllegalStateException(e);
+        if (!ConfigurationParameters.X25519_KEY_AGREEMENT) {
+            getRsaKeyPair();
         }
-
-        this.remoteUsersKeys = new HashMap<>();
     }
 
 
     /* ----- Methods ----- */
 
     /**
-     * Returns the locally generated {@link PublicKey}.
+     * Returns the locally generated RSA {@link PublicKey}, generating it if needed.
      * @return the local {@link PublicKey}.
+     * @throws IllegalStateException if the RSA algorithm is not supported.
      */
     public PublicKey getPublicKey() {
-        return this.localUserKeyPair.getPublic();
+        return getRsaKeyPair().getPublic();
+    }
+
+    /**
+     * Returns the device's X25519 {@link PublicKey}, which the remote users need to agree on AES keys with the client.
+     *
+     * @return the device's X25519 {@link PublicKey}.
+     */
+    public PublicKey getAgreementPublicKey() {
+        return this.deviceKeyPair.getPublic();
+    }
+
+    /**
+     * Retrieves {@link #localUserKeyPair}, generating it if it has not been generated yet.
+     *
+     * @return {@link #localUserKeyPair}.
+     * @throws IllegalStateException if the RSA algorithm is not supported.
+     */
+    private synchronized KeyPair getRsaKeyPair() {
+
+        if (this.localUserKeyPair == null) {
+
+            try {
+                KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+                keyPairGenerator.initialize(CryptographicServices.RSA_KEY_SIZE);
+                this.localUserKeyPair = keyPairGenerator.generateKeyPair();
+
+            } catch (NoSuchAlgorithmException e) {
+                System.err.println("The system does not support RSA encryption");
+                throw new IllegalStateException(e);
+            }
+        }
+
+        return this.localUserKeyPair;
+    }
+
+    /**
+     * Retrieves the device's X25519 key pair. The first time, it is read from {@link
+     * ConfigurationParameters#DEVICE_KEY_FILE}; if it cannot be read, a new one is generated and stored there. If it
+     * cannot be stored either, it is only kept in memory until the client ends its execution.
+     *
+     * @return the device's X25519 key pair.
+     * @throws IllegalStateException if the X25519 algorithm is not supported.
+     */
+    private static synchronized KeyPair loadDeviceKeyPair() {
+
+        if (CryptographicServices.cachedDeviceKeyPair != null) {
+            return CryptographicServices.cachedDeviceKeyPair;
+        }
+
+        Path keyFile = Paths.get(ConfigurationParameters.DEVICE_KEY_FILE);
+        KeyPair keyPair = null;
+
+        // 1. The stored key pair is read, if there is any
+        if (Files.isRegularFile(keyFile)) {
+
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(keyFile))) {
+
+                byte[] publicKey = new byte[in.readUnsignedShort()];
+                in.readFully(publicKey);
+                byte[] privateKey = new byte[in.readUnsignedShort()];
+                in.readFully(privateKey);
+
+                KeyFactory keyFactory = KeyFactory.getInstance("X25519");
+                keyPair = new KeyPair(keyFactory.generatePublic(new X509EncodedKeySpec(publicKey)),
+                        keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateKey)));
+
+            } catch (IOException | NoSuchAlgorithmException | InvalidKeySpecException e) {
+                System.err.println("The device's X25519 keys could not be read, so new ones will be generated");
+                e.printStackTrace();
+            }
+        }
+
+        // 2. Otherwise, a new one is generated and stored for the following sessions
+        if (keyPair == null) {
+
+            try {
+                keyPair = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+
+            } catch (NoSuchAlgorithmException e) {
+                System.err.println("The system does not support X25519 key agreements");
+                throw new IllegalStateException(e);
+            }
+
+            try {
+                storeDeviceKeyPair(keyFile, keyPair);
+
+            } catch (IOException e) {
+                System.err.println("The device's X25519 keys could not be stored");
+                e.printStackTrace();
+            }
+        }
+
+        CryptographicServices.cachedDeviceKeyPair = keyPair;
+        return keyPair;
+    }
+
+    /**
+     * Stores the given X25519 key pair in the specified file, so that only the owner of the file may read it if the
+     * file system allows it. The file is written completely before replacing any previous one.
+     *
+     * @param keyFile where the key pair will be stored.
+     * @param keyPair the key pair.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void storeDeviceKeyPair(Path keyFile, KeyPair keyPair) throws IOException {
+
+        Files.createDirectories(keyFile.toAbsolutePath().getParent());
+        Path temporaryFile = keyFile.resolveSibling(keyFile.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporaryFile))) {
+
+            try {
+                Files.setPosixFilePermissions(temporaryFile, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // The file system does not support POSIX permissions, so the default ones are kept
+            }
+
+            byte[] publicKey = keyPair.getPublic().getEncoded();
+            byte[] privateKey = keyPair.getPrivate().getEncoded();
+
+            out.writeShort(publicKey.length);
+            out.write(publicKey);
+            out.writeShort(privateKey.length);
+            out.write(privateKey);
+        }
+
+        Files.move(temporaryFile, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
@@ -101,8 +366,7 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
 
         // The client is the one that must take care of generating the AES key for the communication
         byte[] aesKeyBytes = new byte[CryptographicServices.AES_KEY_SIZE / 8];
-        SecureRandom secureRandom = new SecureRandom();
-        secureRandom.nextBytes(aesKeyBytes);
+        CryptographicServices.SECURE_RANDOM.get().nextBytes(aesKeyBytes);
         SecretKey aesKey = new SecretKeySpec(aesKeyBytes, "AES");
 
         // Once the key is generated, it is encrypted through RSA so that the remote client can know it
@@ -113,9 +377,7 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
 
             encryptedAesKey = Base64.getMimeEncoder().withoutPadding().encodeToString(encryptedAesKeyBytes);
 
-            synchronized (this.remoteUsersKeys) {
-                this.remoteUsersKeys.put(remoteUser, aesKey);
-            }
+            this.remoteUsersKeys.put(remoteUser, aesKey);
 
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | BadPaddingException |
                 IllegalBlockSizeException e) {
@@ -139,14 +401,12 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
         // The received key is now decoded from Base64 and unencrypted through RSA
         try {
             Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
-            cipher.init(Cipher.DECRYPT_MODE, this.localUserKeyPair.getPrivate());
+            cipher.init(Cipher.DECRYPT_MODE, getRsaKeyPair().getPrivate());
 
             SecretKey aesKey = new SecretKeySpec(cipher.doFinal(Base64.getMimeDecoder().decode(encryptedSecret)),
                     "AES");
 
-            synchronized (this.remoteUsersKeys) {
-                this.remoteUsersKeys.put(remoteUser, aesKey);
-            }
+            this.remoteUsersKeys.put(remoteUser, aesKey);
 
         } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | BadPaddingException |
                 IllegalBlockSizeException e) {
@@ -156,63 +416,160 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
     }
 
     /**
-     * Encrypts the given {@link String} using an already existing AES key for communication with the specified remote
-     * user. It is returned using Base64.
+     * Derives a new AES key that the client may use to communicate with the corresponding remote user, from an X25519
+     * key agreement between the device's key and the remote user's one, and a random salt. The salt is returned so that
+     * the remote user can derive the same key through {@link #storeAgreedSecretForCommunication(String, PublicKey,
+     * byte[])}.
      *
      * @param remoteUser name by which the remote user can be identified.
-     * @param contents   data that will be encrypted.
-     * @return the encrypted data.
-     * @throws IllegalArgumentException if no AES key can be found for the remote user.
-     * @throws IllegalStateException if the data cannot be encrypted using AES.
+     * @param publicKey  X25519 public key of the remote user.
+     * @return the salt from which the AES key has been derived.
+     * @throws IllegalStateException if the key agreement cannot be performed.
+     */
+    public byte[] agreeSecretForCommunication(String remoteUser, PublicKey publicKey) {
+
+        byte[] salt = new byte[CryptographicServices.AGREEMENT_SALT_SIZE];
+        CryptographicServices.SECURE_RANDOM.get().nextBytes(salt);
+
+        storeAgreedSecretForCommunication(remoteUser, publicKey, salt);
+
+        return salt;
+    }
+
+    /**
+     * Derives the AES key that a remote user has agreed on with the client through {@link
+     * #agreeSecretForCommunication(String, PublicKey)}, and stores it to communicate with him.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param publicKey  X25519 public key of the remote user.
+     * @param salt       the salt that the remote user has generated.
+     * @throws IllegalStateException if the key agreement cannot be performed.
      */
-    public String encryptString(String remoteUser, String contents) {
+    public void storeAgreedSecretForCommunication(String remoteUser, PublicKey publicKey, byte[] salt) {
 
-        String encryptedContents = null;
+        try {
+            // 1. Both ends obtain the same shared secret from their own private key and the other end's public key
+            KeyAgreement keyAgreement = KeyAgreement.getInstance("X25519");
+            keyAgreement.init(this.deviceKeyPair.getPrivate());
+            keyAgreement.doPhase(publicKey, true);
+            byte[] sharedSecret = keyAgreement.generateSecret();
+
+            // 2. And the AES key is derived from it through HKDF-SHA256 (RFC 5869), using the salt so that each chat
+            //    gets a new key even if the device keys do not change
+            Mac hmac = Mac.getInstance("HmacSHA256");
+            hmac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            byte[] pseudoRandomKey = hmac.doFinal(sharedSecret);
+
+            hmac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+            hmac.update(CryptographicServices.AGREEMENT_INFO);
+            hmac.update((byte) 1);
+            SecretKey aesKey = new SecretKeySpec(hmac.doFinal(), 0, CryptographicServices.AES_KEY_SIZE / 8, "AES");
+
+            this.remoteUsersKeys.put(remoteUser, aesKey);
+
+        } catch (NoSuchAlgorithmException | InvalidKeyException | IllegalArgumentException e) {
+            System.err.println("Could not agree on an AES key using X25519");
+            throw new IllegalStateException(e);
+        }
+    }
 
-        synchronized (this.remoteUsersKeys) {
+    /**
+     * Discards the AES key that was being used to communicate with the specified remote user, if any. A new one will
+     * have to be agreed on before communicating with him again.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    public void forgetSecretForCommunication(String remoteUser) {
+        this.remoteUsersKeys.remove(remoteUser);
+    }
 
-            SecretKey aesKey = this.remoteUsersKeys.get(remoteUser);
+    /**
+     * Encrypts the given {@link String} using an already existing AES key for communication with the specified remote
+     * user. It is returned as a binary frame that has the following layout, so that no Base64 encoding is needed to
+     * transmit it:
+     * <p>
+     * - 1 byte: flags ({@link #FRAME_FLAG_COMPRESSED} if the contents have been compressed).
+     * - 12 bytes: the AES-GCM initialization vector.
+     * - Remaining bytes: the encrypted contents, followed by the authentication tag.
+     * <p>
+     * If compression is allowed, contents of at least {@link #COMPRESSION_THRESHOLD} bytes are compressed before
+     * being encrypted, as long as that makes them noticeably smaller. In such case, the encrypted contents are the
+     * original size (4 bytes) followed by the compressed data.
+     *
+     * @param remoteUser          name by which the remote user can be identified.
+     * @param contents            data that will be encrypted.
+     * @param compressionAllowed  if the remote user has agreed on receiving compressed contents.
+     * @return the encrypted data.
+     * @throws IllegalArgumentException if no AES key can be found for the remote user, or if the contents exceed {@link
+     *                                  ConfigurationParameters#MAX_MESSAGE_SIZE}.
+     * @throws IllegalStateException if the data cannot be encrypted using AES.
+     */
+    public byte[] encryptMessage(String remoteUser, String contents, boolean compressionAllowed) {
 
-            if (aesKey != null) {
-                // Initialization vectors cannot be reused because the AES key could be trivially calculated
-                // https://crypto.stackexchange.com/questions/2991/why-must-iv-key-pairs-not-be-reused-in-ctr-mode/2993#2993
-                byte[] iv = new byte[CryptographicServices.AES_GCM_IV_SIZE / 8];
-                SecureRandom secureRandom = new SecureRandom();
-                secureRandom.nextBytes(iv);
+        byte[] frame = null;
 
-                try {
-                    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-                    GCMParameterSpec parameterSpec = new GCMParameterSpec(CryptographicServices.AES_GCM_AUTH_TAG_SIZE,
-                            iv);
-                    cipher.init(Cipher.ENCRYPT_MODE, aesKey, parameterSpec);
+        // No lock is needed, so different remote users' messages are encrypted in parallel
+        SecretKey aesKey = this.remoteUsersKeys.get(remoteUser);
 
-                    byte[] encryptedContentsBytes = cipher.doFinal(contents.getBytes(StandardCharsets.UTF_8));
+        if (aesKey != null) {
+            // The contents are encoded into a per-thread buffer instead of allocating a new array each time
+            ByteBuffer plainContents = CryptographicServices.encodeUtf8(contents);
+            byte flags = CryptographicServices.FRAME_FLAGS_NONE;
 
-                    // The authentication tag is automatically added to the contents
-                    ByteBuffer byteBuffer = ByteBuffer.allocate(iv.length + encryptedContentsBytes.length);
-                    byteBuffer.put(iv);
-                    byteBuffer.put(encryptedContentsBytes);
+            // The receiving end would not accept it
+            if (plainContents.remaining() > ConfigurationParameters.MAX_MESSAGE_SIZE) {
+                throw new IllegalArgumentException("The message exceeds the maximum size: " +
+                        plainContents.remaining());
+            }
 
-                    encryptedContents = Base64.getMimeEncoder().withoutPadding().encodeToString(byteBuffer.array());
+            // Small messages are never compressed, as it would just add overhead
+            if (compressionAllowed && plainContents.remaining() >= CryptographicServices.COMPRESSION_THRESHOLD) {
 
-                } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException |
-                        InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
-                    System.err.println("Could not encrypt the given data using AES");
-                    throw new IllegalStateException(e);
+                ByteBuffer compressedContents = CryptographicServices.compress(plainContents);
+
+                if (compressedContents != null) {
+                    plainContents = compressedContents;
+                    flags |= CryptographicServices.FRAME_FLAG_COMPRESSED;
                 }
+            }
 
-            } else {
-                throw new IllegalArgumentException("No communication secret has been generated for the specified " +
-                        "remote user");
+            // Initialization vectors cannot be reused because the AES key could be trivially calculated
+            // https://crypto.stackexchange.com/questions/2991/why-must-iv-key-pairs-not-be-reused-in-ctr-mode/2993#2993
+            byte[] iv = CryptographicServices.IV_BUFFER.get();
+            CryptographicServices.SECURE_RANDOM.get().nextBytes(iv);
+
+            try {
+                Cipher cipher = CryptographicServices.AES_GCM_CIPHER.get();
+                cipher.init(Cipher.ENCRYPT_MODE, aesKey,
+                        new GCMParameterSpec(CryptographicServices.AES_GCM_AUTH_TAG_SIZE, iv));
+
+                // The frame is the only array that gets allocated, as it is the one that will be transmitted
+                ByteBuffer frameBuffer = ByteBuffer.wrap(new byte[CryptographicServices.FRAME_HEADER_SIZE +
+                        cipher.getOutputSize(plainContents.remaining())]);
+                frameBuffer.put(flags).put(iv);
+
+                // The authentication tag is automatically added to the contents
+                cipher.doFinal(plainContents, frameBuffer);
+                frame = frameBuffer.array();
+
+            } catch (InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException |
+                    IllegalBlockSizeException | ShortBufferException e) {
+                System.err.println("Could not encrypt the given data using AES");
+                throw new IllegalStateException(e);
             }
+
+        } else {
+            throw new IllegalArgumentException("No communication secret has been generated for the specified " +
+                    "remote user");
         }
 
-        return encryptedContents;
+        return frame;
     }
 
     /**
-     * Decrypts the given {@link String} in Base64 using an already existing AES key for communication with the
-     * specified remote user.
+     * Decrypts the given binary frame, which must have been generated by {@link #encryptMessage(String, String,
+     * boolean)}, using an already existing AES key for communication with the specified remote user. If the frame is
+     * flagged as compressed, its contents are also decompressed.
      *
      * @param remoteUser name by which the remote user can be identified.
      * @param contents   data that is encrypted.
@@ -221,43 +578,188 @@ public class CryptographicServices implements CommunicationDecryptionUtility {
      * @throws IllegalStateException if the data cannot be decrypted using AES.
      */
     @Override
-    public String decryptString(String remoteUser, String contents) {
+    public String decryptMessage(String remoteUser, byte[] contents) {
 
         String decryptedContents = null;
 
-        synchronized (this.remoteUsersKeys) {
+        // The frame must at least contain its header and an authentication tag
+        if (contents == null || contents.length < CryptographicServices.FRAME_HEADER_SIZE +
+                CryptographicServices.AES_GCM_AUTH_TAG_SIZE / 8) {
+            throw new IllegalStateException("The given data is not a valid encrypted frame");
+        }
 
-            SecretKey aesKey = this.remoteUsersKeys.get(remoteUser);
+        if ((contents[0] & ~CryptographicServices.FRAME_FLAG_COMPRESSED) != 0) {
+            throw new IllegalStateException("The given encrypted frame uses unsupported flags: " + contents[0]);
+        }
 
-            if (aesKey != null) {
+        // No lock is needed, so different remote users' messages are decrypted in parallel
+        SecretKey aesKey = this.remoteUsersKeys.get(remoteUser);
 
-                byte[] contentsBytes = Base64.getMimeDecoder().decode(contents);
+        if (aesKey != null) {
 
-                try {
-                    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-                    AlgorithmParameterSpec gcmIv = new GCMParameterSpec(CryptographicServices.AES_GCM_AUTH_TAG_SIZE,
-                            contentsBytes, 0, CryptographicServices.AES_GCM_IV_SIZE / 8);
-                    cipher.init(Cipher.DECRYPT_MODE, aesKey, gcmIv);
+            try {
+                Cipher cipher = CryptographicServices.AES_GCM_CIPHER.get();
+                // The IV is read directly from the frame, right after the flags
+                AlgorithmParameterSpec gcmIv = new GCMParameterSpec(CryptographicServices.AES_GCM_AUTH_TAG_SIZE,
+                        contents, 1, CryptographicServices.AES_GCM_IV_SIZE / 8);
+                cipher.init(Cipher.DECRYPT_MODE, aesKey, gcmIv);
 
-                    // The first 12 bytes are used for the IV
-                    byte[] decryptedContentsBytes = cipher.doFinal(contentsBytes,
-                            CryptographicServices.AES_GCM_IV_SIZE / 8, contentsBytes.length -
-                            CryptographicServices.AES_GCM_IV_SIZE / 8);
+                int encryptedLength = contents.length - CryptographicServices.FRAME_HEADER_SIZE;
+                byte[] output = CryptographicServices.acquireBuffer(CryptographicServices.DECRYPTION_BUFFER,
+                        cipher.getOutputSize(encryptedLength));
 
-                   decryptedContents = new String(decryptedContentsBytes, StandardCharsets.UTF_8);
+                int decryptedLength = cipher.doFinal(ByteBuffer.wrap(contents, CryptographicServices.FRAME_HEADER_SIZE,
+                        encryptedLength), ByteBuffer.wrap(output));
 
-                } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidAlgorithmParameterException |
-                        InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
-                    System.err.println("Could not encrypt the given data using AES");
-                    throw new IllegalStateException(e);
+                if ((contents[0] & CryptographicServices.FRAME_FLAG_COMPRESSED) != 0) {
+                    decryptedContents = CryptographicServices.decompress(output, decryptedLength);
+                } else {
+                    decryptedContents = new String(output, 0, decryptedLength, StandardCharsets.UTF_8);
                 }
 
-            } else {
-                throw new IllegalArgumentException("No communication secret has been generated for the specified " +
-                        "remote user");
+            } catch (InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException |
+                    IllegalBlockSizeException | ShortBufferException e) {
+                System.err.println("Could not decrypt the given data using AES");
+                throw new IllegalStateException(e);
+
+            } catch (DataFormatException e) {
+                System.err.println("Could not decompress the given data");
+                throw new IllegalStateException(e);
             }
+
+        } else {
+            throw new IllegalArgumentException("No communication secret has been generated for the specified " +
+                    "remote user");
         }
 
         return decryptedContents;
     }
+
+    /**
+     * Creates a new AES-GCM {@link Cipher} for {@link #AES_GCM_CIPHER}.
+     *
+     * @return the {@link Cipher}.
+     * @throws IllegalStateException if the AES-GCM algorithm is not supported.
+     */
+    private static Cipher newAesGcmCipher() {
+
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            System.err.println("The system does not support AES-GCM encryption");
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Encodes the given {@link String} using UTF-8 into the calling thread's {@link #ENCODING_BUFFER}.
+     *
+     * @param contents data that will be encoded.
+     * @return a {@link ByteBuffer} that wraps the thread's buffer, whose first {@link ByteBuffer#remaining()} bytes
+     * contain the encoded data.
+     */
+    private static ByteBuffer encodeUtf8(String contents) {
+
+        CharsetEncoder encoder = CryptographicServices.UTF8_ENCODER.get().reset();
+
+        // UTF-8 never uses more bytes per char than the one reported by the encoder
+        byte[] buffer = CryptographicServices.acquireBuffer(CryptographicServices.ENCODING_BUFFER,
+                (int) Math.ceil(contents.length() * (double) encoder.maxBytesPerChar()));
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        encoder.encode(CharBuffer.wrap(contents), byteBuffer, true);
+        encoder.flush(byteBuffer);
+        byteBuffer.flip();
+
+        return byteBuffer;
+    }
+
+    /**
+     * Compresses the given data into the calling thread's {@link #COMPRESSION_BUFFER}, preceded by its original size.
+     *
+     * @param contents data that will be compressed.
+     * @return a {@link ByteBuffer} that wraps the thread's buffer, whose first {@link ByteBuffer#remaining()} bytes
+     * contain the compressed data; if compressing the data would not save at least 1/8 of its size, returns null.
+     */
+    private static ByteBuffer compress(ByteBuffer contents) {
+
+        int originalLength = contents.remaining();
+        // Anything that does not fit in this size is not worth sending compressed
+        int maxLength = originalLength - originalLength / 8;
+
+        byte[] buffer = CryptographicServices.acquireBuffer(CryptographicServices.COMPRESSION_BUFFER, maxLength);
+        ByteBuffer.wrap(buffer).putInt(originalLength);
+
+        Deflater deflater = CryptographicServices.DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(contents.array(), 0, originalLength);
+        deflater.finish();
+
+        int compressedLength = deflater.deflate(buffer, 4, maxLength - 4);
+
+        return deflater.finished() ? ByteBuffer.wrap(buffer, 0, 4 + compressedLength) : null;
+    }
+
+    /**
+     * Decompresses the given data, which must have been generated by {@link #compress(ByteBuffer)}, and decodes it
+     * using UTF-8.
+     *
+     * @param contents data that will be decompressed.
+     * @param length   how many bytes of the given array contain the data.
+     * @return the decompressed data.
+     * @throws DataFormatException if the data is not valid.
+     */
+    private static String decompress(byte[] contents, int length) throws DataFormatException {
+
+        if (length < 4) {
+            throw new DataFormatException("The compressed data does not contain its original size");
+        }
+
+        int originalLength = ByteBuffer.wrap(contents, 0, 4).getInt();
+
+        // It prevents a malicious peer from making the client allocate huge buffers
+        if (originalLength < 0 || originalLength > CryptographicServices.MAX_DECOMPRESSED_SIZE) {
+            throw new DataFormatException("The compressed data claims an invalid original size: " + originalLength);
+        }
+
+        byte[] buffer = CryptographicServices.acquireBuffer(CryptographicServices.DECOMPRESSION_BUFFER,
+                originalLength);
+
+        Inflater inflater = CryptographicServices.INFLATER.get();
+        inflater.reset();
+        inflater.setInput(contents, 4, length - 4);
+
+        int decompressedLength = inflater.inflate(buffer, 0, originalLength);
+
+        if (decompressedLength != originalLength || !inflater.finished()) {
+            throw new DataFormatException("The compressed data does not match its original size");
+        }
+
+        return new String(buffer, 0, decompressedLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the calling thread's buffer that is stored in the given {@link ThreadLocal}, making sure that it can
+     * hold at least the specified amount of bytes. Buffers that grow beyond {@link #MAX_RETAINED_BUFFER_SIZE} are not
+     * kept, so that an unusually big message does not pin its memory forever.
+     *
+     * @param threadLocal {@link ThreadLocal} that holds the buffer.
+     * @param size        minimum amount of bytes that the buffer must be able to hold.
+     * @return the buffer.
+     */
+    private static byte[] acquireBuffer(ThreadLocal<byte[]> threadLocal, int size) {
+
+        byte[] buffer = threadLocal.get();
+
+        if (buffer.length < size) {
+            buffer = new byte[size];
+
+            if (size <= CryptographicServices.MAX_RETAINED_BUFFER_SIZE) {
+                threadLocal.set(buffer);
+            }
+        }
+
+        return buffer;
+    }
 }
@@ -0,0 +1,63 @@
+package com.goldardieste.javagram.common;
+
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+
+/**
+ * This class contains all the optional features that two clients may agree on when they set up a chat. Each client
+ * advertises the features that it supports as a bit mask, and the chat will only use those that both of them support.
+ */
+public enum ChatFeature {
+
+    /* ----- Enums ----- */
+
+    /**
+     * Big messages may be compressed before being encrypted and sent through an {@link IRemoteUserTunnel}.
+     */
+    PAYLOAD_COMPRESSION,
+
+    /**
+     * The chat's AES key is derived through an X25519 key agreement between the device keys of both ends, instead of
+     * being generated by the receiver of the request and wrapped with the requester's RSA key. The requester only
+     * offers it if the public key that it sends is an X25519 one.
+     */
+    X25519_KEY_AGREEMENT;
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Retrieves the bit that represents this {@link ChatFeature} in a bit mask of features.
+     *
+     * @return the bit mask that only contains this {@link ChatFeature}.
+     */
+    public int getMask() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Checks if this {@link ChatFeature} is present in the given bit mask of features.
+     *
+     * @param features the bit mask of features.
+     * @return if it is present.
+     */
+    public boolean isPresentIn(int features) {
+        return (features & getMask()) != 0;
+    }
+
+    /**
+     * Generates the bit mask that contains all the given {@link ChatFeature}s.
+     *
+     * @param features the {@link ChatFeature}s.
+     * @return the bit mask.
+     */
+    public static int toMask(ChatFeature... features) {
+
+        int mask = 0;
+
+        for (ChatFeature feature : features) {
+            mask |= feature.getMask();
+        }
+
+        return mask;
+    }
+}
@@ -21,6 +21,17 @@ public class ConfigurationParameters {
      */
     public static final String RMI_IDENTIFIER = "javagram_server";
 
+    /**
+     * Port where the Javagram server accepts clients through its NIO endpoint, alongside the RMI registry.
+     */
+    public static final int NIO_SERVER_PORT = 1100;
+
+    /**
+     * If clients must communicate with the Javagram server through its NIO endpoint (one persistent TLS connection
+     * with a binary protocol) instead of RMI.
+     */
+    public static final boolean NIO_SERVER_TRANSPORT = false;
+
     /**
      * Identifier of the driver that will be used to contact the server's database.
      */
@@ -50,4 +61,165 @@ public class ConfigurationParameters {
      * Password to log into an account in the server's database.
      */
     public static final String JDBC_PASSWORD = "javagram_admin";
+
+    /**
+     * Maximum time in milliseconds that establishing a TCP connection to a remote object may take.
+     */
+    public static final int SOCKET_CONNECT_TIMEOUT_MS = 5_000;
+
+    /**
+     * Maximum time in milliseconds that a client may wait for the response to a remote call. It also detects the
+     * connections whose other end has vanished without closing them.
+     */
+    public static final int SOCKET_READ_TIMEOUT_MS = 30_000;
+
+    /**
+     * Maximum time in milliseconds that a client may wait for the response to a call to the Javagram server. Some
+     * calls, such as {@link com.goldardieste.javagram.common.interfaces.IServer#initiateChat}, block while the server
+     * makes a synchronous callback to another client, which may take up to {@link #SOCKET_CONNECT_TIMEOUT_MS} plus
+     * {@link #SOCKET_READ_TIMEOUT_MS}. If the client gave up earlier, it would discard a chat that the other end has
+     * already set up; therefore, the server's own work is given one more {@link #SOCKET_READ_TIMEOUT_MS} on top of the
+     * longest callback.
+     */
+    public static final int SERVER_CALL_READ_TIMEOUT_MS = ConfigurationParameters.SOCKET_CONNECT_TIMEOUT_MS +
+            2 * ConfigurationParameters.SOCKET_READ_TIMEOUT_MS;
+
+    /**
+     * Maximum amount of TLS sessions that will be cached so that they can be resumed instead of performing a full
+     * handshake.
+     */
+    public static final int TLS_SESSION_CACHE_SIZE = 256;
+
+    /**
+     * Time in seconds during which a cached TLS session may be resumed.
+     */
+    public static final int TLS_SESSION_TIMEOUT_S = 12 * 60 * 60;
+
+    /**
+     * If the tunnels through which clients chat with each other must use the NIO transport (non-blocking TLS channels
+     * with length-prefixed frames) instead of RMI remote objects.
+     */
+    public static final boolean NIO_CHAT_TRANSPORT = false;
+
+    /**
+     * Maximum size in bytes of the contents of a chat message, once encoded in UTF-8. It bounds the frames that a
+     * tunnel accepts, so a larger message cannot be sent.
+     */
+    public static final int MAX_MESSAGE_SIZE = 16 * 1024;
+
+    /**
+     * Maximum amount of messages that a client may have sent through a tunnel without having been acknowledged yet.
+     * The receiving end also uses it to bound how many messages it buffers while waiting for a missing one.
+     */
+    public static final int TUNNEL_SEND_WINDOW = 256;
+
+    /**
+     * Amount of times that a failed transmission through a tunnel is retried before giving up its messages.
+     */
+    public static final int TUNNEL_TRANSMISSION_RETRIES = 2;
+
+    /**
+     * Maximum amount of received messages that may be waiting to be delivered for each tunnel. The room that is left
+     * is advertised to the sender as credit, and new transmissions are rejected while it is full.
+     */
+    public static final int TUNNEL_INBOX_CAPACITY = 1024;
+
+    /**
+     * Time in milliseconds that a client waits before retrying a transmission that a congested tunnel has rejected, or
+     * before asking again a tunnel that has no credit left. It is doubled after each consecutive rejection.
+     */
+    public static final int TUNNEL_CONGESTION_BACKOFF_MS = 20;
+
+    /**
+     * Maximum amount of messages that may be waiting to be sent to each remote user; while it is full, new messages to
+     * him are rejected.
+     */
+    public static final int TUNNEL_OUTBOX_CAPACITY = 4096;
+
+    /**
+     * Directory where the desktop app stores the chat histories of each user that logs in from the device.
+     */
+    public static final String CHAT_HISTORY_DIRECTORY = System.getProperty("user.home") + "/.javagram";
+
+    /**
+     * Size in bytes of each segment of a stored chat history; larger messages get a segment of their own.
+     */
+    public static final int CHAT_HISTORY_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Maximum amount of messages that each segment of a stored chat history may index.
+     */
+    public static final int CHAT_HISTORY_SEGMENT_ENTRIES = 64 * 1024;
+
+    /**
+     * Amount of the most recent messages of a stored chat history that are loaded when the conversation is opened.
+     */
+    public static final int CHAT_HISTORY_LOADED_MESSAGES = 200;
+
+    /**
+     * Maximum amount of messages of each conversation that the desktop app keeps in memory; older ones are dropped, as
+     * they remain stored on disk.
+     */
+    public static final int CHAT_HISTORY_MEMORY_MESSAGES = 5_000;
+
+    /**
+     * Amount of threads that run the asynchronous operations of the client's back-end.
+     */
+    public static final int CLIENT_ASYNC_THREADS = 4;
+
+    /**
+     * If the client must initiate in background the chats with its friends as soon as they are found online, so that
+     * the first message to them does not have to wait for the chat to be initiated. It is disabled by default, as it
+     * sets up chats that may never be used.
+     */
+    public static final boolean CHAT_PREWARMING = false;
+
+    /**
+     * Maximum amount of friends whose chats may be pre-warmed at the same time; the most recently active ones are
+     * preferred.
+     */
+    public static final int CHAT_PREWARMING_LIMIT = 5;
+
+    /**
+     * Time in seconds that a chat may stay open without any message being sent or received through it. Afterwards,
+     * its tunnels and its key are discarded, and it is set up again when the next message is sent.
+     */
+    public static final int CHAT_IDLE_TIMEOUT_S = 15 * 60;
+
+    /**
+     * Maximum amount of chats that may stay open at the same time; beyond it, the least recently used ones are closed
+     * as if they had been idle for too long.
+     */
+    public static final int CHAT_OPEN_LIMIT = 64;
+
+    /**
+     * Time in seconds between two consecutive checks for chats that must be closed.
+     */
+    public static final int CHAT_REAPING_PERIOD_S = 60;
+
+    /**
+     * If the client offers an X25519 key agreement when it initiates a chat, so that both ends derive the chat's AES
+     * key from their device keys (see {@link #DEVICE_KEY_FILE}) instead of wrapping it with RSA. Clients always accept
+     * both handshakes when they are asked to set up a chat.
+     */
+    public static final boolean X25519_KEY_AGREEMENT = true;
+
+    /**
+     * File where the client keeps its X25519 key pair, so that it is only generated the first time that the client is
+     * run in the device.
+     */
+    public static final String DEVICE_KEY_FILE = System.getProperty("user.home") + "/.javagram/device.key";
+
+    /**
+     * If the client publishes its X25519 key in the server when it logs in, and requests chats with the ones that its
+     * friends have published, so that it does not wait for them to answer before sending messages. It is only used
+     * along with {@link #X25519_KEY_AGREEMENT}.
+     */
+    public static final boolean PREKEY_CHAT_REQUESTS = true;
+
+    /**
+     * Time in milliseconds that the client waits for a friend to answer a chat request that has been sent with his
+     * published key. Meanwhile, the messages to him are held in his outbox.
+     */
+    public static final int CHAT_REQUEST_TIMEOUT_MS = 2 * ConfigurationParameters.SOCKET_READ_TIMEOUT_MS;
 }
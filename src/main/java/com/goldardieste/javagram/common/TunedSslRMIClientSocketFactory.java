@@ -0,0 +1,103 @@
+package com.goldardieste.javagram.common;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+
+/**
+ * This class creates the TLS sockets through which remote objects are contacted. Unlike {@link
+ * javax.rmi.ssl.SslRMIClientSocketFactory}, it resumes cached TLS sessions, prefers hardware-accelerated cipher suites,
+ * disables Nagle's algorithm and applies the connect and read timeouts that are specified in {@link
+ * ConfigurationParameters}.
+ * <p>
+ * As it is serialized along with the stubs of the remote objects that use it, its only state is the read timeout,
+ * which is chosen by the object that is exported depending on how long its remote methods may legitimately block.
+ */
+public class TunedSslRMIClientSocketFactory implements RMIClientSocketFactory, Serializable {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Version of the class, as instances are serialized along with the stubs.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximum time in milliseconds that a call may wait for its response.
+     */
+    private final int readTimeout;
+
+
+    /* ----- Constructors ----- */
+
+    /**
+     * Initializes a {@link TunedSslRMIClientSocketFactory} whose sockets wait up to {@link
+     * ConfigurationParameters#SOCKET_READ_TIMEOUT_MS} for each response.
+     */
+    public TunedSslRMIClientSocketFactory() {
+        this(ConfigurationParameters.SOCKET_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * Initializes a {@link TunedSslRMIClientSocketFactory}.
+     *
+     * @param readTimeout maximum time in milliseconds that a call may wait for its response.
+     */
+    public TunedSslRMIClientSocketFactory(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+
+        // 1. The TCP connection is established, so that a timeout can be applied to it
+        Socket socket = new Socket();
+
+        try {
+            TunedSslSockets.applySocketOptions(socket);
+            socket.connect(new InetSocketAddress(host, port), ConfigurationParameters.SOCKET_CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(this.readTimeout);
+
+            // 2. The TLS layer is placed over it; as the host and port are provided, a cached session to the same
+            // endpoint will be resumed
+            SSLSocket sslSocket = (SSLSocket) TunedSslSockets.getSslContext().getSocketFactory().createSocket(socket,
+                    host, port, true);
+            sslSocket.setSSLParameters(TunedSslSockets.generateSslParameters());
+
+            return sslSocket;
+
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All instances with the same read timeout are equivalent, so that RMI may reuse connections regardless of which
+     * stub created them.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass() &&
+                this.readTimeout == ((TunedSslRMIClientSocketFactory) o).readTimeout;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * getClass().hashCode() + this.readTimeout;
+    }
+}
@@ -0,0 +1,72 @@
+package com.goldardieste.javagram.common;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * This class creates the server sockets through which remote objects are exported. Each accepted connection is
+ * wrapped in a TLS socket that shares the server's session cache, so that returning clients may resume their sessions,
+ * and that picks hardware-accelerated cipher suites first.
+ */
+public class TunedSslRMIServerSocketFactory implements RMIServerSocketFactory {
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+
+        SSLParameters parameters = TunedSslSockets.generateSslParameters();
+
+        return new ServerSocket(port) {
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public Socket accept() throws IOException {
+
+                Socket socket = super.accept();
+
+                try {
+                    TunedSslSockets.applySocketOptions(socket);
+
+                    SSLSocket sslSocket = (SSLSocket) TunedSslSockets.getSslContext().getSocketFactory()
+                            .createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+                    sslSocket.setUseClientMode(false);
+                    sslSocket.setSSLParameters(parameters);
+
+                    return sslSocket;
+
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All instances are equivalent, so that every remote object that uses them may share the same listening port.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o != null && getClass() == o.getClass();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
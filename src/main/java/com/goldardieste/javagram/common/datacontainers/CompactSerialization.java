@@ -0,0 +1,124 @@
+package com.goldardieste.javagram.common.datacontainers;
+
+import com.goldardieste.javagram.common.StatusType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class groups the primitives that the data containers use to write themselves in a compact binary form when they
+ * are serialized, instead of relying on the default Java serialization (which would also send their fields' names and
+ * types). The binary protocols also rely on them.
+ */
+public final class CompactSerialization {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Value written instead of a {@link StatusType}'s ordinal when it is null.
+     */
+    private final static byte NULL_STATUS = -1;
+
+    /**
+     * Maximum size in bytes that a serialized {@link String} may claim to have.
+     */
+    private final static int MAX_STRING_SIZE = 1024 * 1024;
+
+    /**
+     * All possible {@link StatusType}s, indexed by their ordinal.
+     */
+    private final static StatusType[] STATUS_TYPES = StatusType.values();
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * This class only contains static methods.
+     */
+    private CompactSerialization() {
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Writes the given {@link String} as its length in bytes followed by its UTF-8 representation. Unlike {@link
+     * DataOutput#writeUTF(String)}, it is not limited to 64 KB and supports null values.
+     *
+     * @param out   where the {@link String} will be written.
+     * @param value the {@link String}; it may be null.
+     * @throws IOException if the {@link String} cannot be written.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+
+        if (value == null) {
+            out.writeInt(-1);
+
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a {@link String} that was written by {@link #writeString(DataOutput, String)}.
+     *
+     * @param in where the {@link String} will be read from.
+     * @return the {@link String}; it may be null.
+     * @throws IOException if the {@link String} cannot be read.
+     */
+    public static String readString(DataInput in) throws IOException {
+
+        String value = null;
+        int length = in.readInt();
+
+        if (length > CompactSerialization.MAX_STRING_SIZE || length < -1) {
+            throw new InvalidObjectException("A serialized string claims an invalid length: " + length);
+        }
+
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return value;
+    }
+
+    /**
+     * Writes the given {@link StatusType} as a single byte.
+     *
+     * @param out    where the {@link StatusType} will be written.
+     * @param status the {@link StatusType}; it may be null.
+     * @throws IOException if the {@link StatusType} cannot be written.
+     */
+    public static void writeStatus(DataOutput out, StatusType status) throws IOException {
+        out.writeByte(status == null ? CompactSerialization.NULL_STATUS : status.ordinal());
+    }
+
+    /**
+     * Reads a {@link StatusType} that was written by {@link #writeStatus(DataOutput, StatusType)}.
+     *
+     * @param in where the {@link StatusType} will be read from.
+     * @return the {@link StatusType}; it may be null.
+     * @throws IOException if the {@link StatusType} cannot be read.
+     */
+    public static StatusType readStatus(DataInput in) throws IOException {
+
+        byte ordinal = in.readByte();
+
+        if (ordinal == CompactSerialization.NULL_STATUS) {
+            return null;
+        }
+
+        if (ordinal < 0 || ordinal >= CompactSerialization.STATUS_TYPES.length) {
+            throw new InvalidObjectException("A serialized status has an unknown value: " + ordinal);
+        }
+
+        return CompactSerialization.STATUS_TYPES[ordinal];
+    }
+}
@@ -1,14 +1,21 @@
 package com.goldardieste.javagram.common.datacontainers;
 
+import com.goldardieste.javagram.common.ChatFeature;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.security.PublicKey;
 
 /**
  * Contains all data that is returned when a communication establishment is requested to a remote user, so that the
- * client can communicate with him.
+ * client can communicate with him. It is serialized in a compact form; the {@link IRemoteUserTunnel} is still written
+ * as an object so that RMI replaces it by its stub.
  */
-public class NewChatData implements Serializable {
+public class NewChatData implements Externalizable {
 
     /* ----- Attributes ----- */
 
@@ -16,25 +23,172 @@ public class NewChatData implements Serializable {
      * The {@link IRemoteUserTunnel} that the receiver of the request has created so that the requester may communicate
      * with him.
      */
-    public final IRemoteUserTunnel remoteUserTunnel;
+    private IRemoteUserTunnel remoteUserTunnel;
 
     /**
      * The encrypted AES key that the receiver of the request has created so that the requester may encrypt messages
-     * to communicate with him.
+     * to communicate with him. It is null if the key is agreed on through {@link ChatFeature#X25519_KEY_AGREEMENT}.
      */
-    public final String encryptedCommunicationSecret;
+    private String encryptedCommunicationSecret;
+
+    /**
+     * The X25519 public key of the receiver of the request, if the key is agreed on through {@link
+     * ChatFeature#X25519_KEY_AGREEMENT}; otherwise, it is null.
+     */
+    private PublicKey agreementPublicKey;
+
+    /**
+     * The random salt that the receiver of the request has generated so that both ends derive a new AES key from their
+     * X25519 key agreement, if it is used; otherwise, it is null.
+     */
+    private byte[] agreementSalt;
+
+    /**
+     * Bit mask of the {@link ChatFeature}s that both the requester and the receiver of the request support, and which
+     * will therefore be used in the communication.
+     */
+    private int acceptedFeatures;
 
 
-    /* ----- Constructor ----- */
+    /* ----- Constructors ----- */
+
+    /**
+     * Generates an empty {@link NewChatData}. It is only meant to be used when deserializing an instance.
+     */
+    public NewChatData() {
+    }
 
     /**
      * Generates an {@link NewChatData} that contains the returned data to initializing a communication.
      *
      * @param remoteUserTunnel             the new {@link #remoteUserTunnel}.
      * @param encryptedCommunicationSecret the new {@link #encryptedCommunicationSecret}.
+     * @param acceptedFeatures             the new {@link #acceptedFeatures}.
+     */
+    public NewChatData(IRemoteUserTunnel remoteUserTunnel, String encryptedCommunicationSecret,
+                       int acceptedFeatures) {
+        this(remoteUserTunnel, encryptedCommunicationSecret, null, null, acceptedFeatures);
+    }
+
+    /**
+     * Generates an {@link NewChatData} that contains the returned data to initializing a communication whose AES key is
+     * agreed on through {@link ChatFeature#X25519_KEY_AGREEMENT}.
+     *
+     * @param remoteUserTunnel   the new {@link #remoteUserTunnel}.
+     * @param agreementPublicKey the new {@link #agreementPublicKey}.
+     * @param agreementSalt      the new {@link #agreementSalt}.
+     * @param acceptedFeatures   the new {@link #acceptedFeatures}.
+     */
+    public NewChatData(IRemoteUserTunnel remoteUserTunnel, PublicKey agreementPublicKey, byte[] agreementSalt,
+                       int acceptedFeatures) {
+        this(remoteUserTunnel, null, agreementPublicKey, agreementSalt, acceptedFeatures);
+    }
+
+    /**
+     * Generates an {@link NewChatData} that contains all the given data.
+     *
+     * @param remoteUserTunnel             the new {@link #remoteUserTunnel}.
+     * @param encryptedCommunicationSecret the new {@link #encryptedCommunicationSecret}.
+     * @param agreementPublicKey           the new {@link #agreementPublicKey}.
+     * @param agreementSalt                the new {@link #agreementSalt}.
+     * @param acceptedFeatures             the new {@link #acceptedFeatures}.
      */
-    public NewChatData(IRemoteUserTunnel remoteUserTunnel, String encryptedCommunicationSecret) {
+    public NewChatData(IRemoteUserTunnel remoteUserTunnel, String encryptedCommunicationSecret,
+                       PublicKey agreementPublicKey, byte[] agreementSalt, int acceptedFeatures) {
         this.remoteUserTunnel = remoteUserTunnel;
         this.encryptedCommunicationSecret = encryptedCommunicationSecret;
+        this.agreementPublicKey = agreementPublicKey;
+        this.agreementSalt = agreementSalt;
+        this.acceptedFeatures = acceptedFeatures;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #remoteUserTunnel}.
+     *
+     * @return {@link #remoteUserTunnel}.
+     */
+    public IRemoteUserTunnel getRemoteUserTunnel() {
+        return remoteUserTunnel;
+    }
+
+    /**
+     * Retrieves the current {@link #encryptedCommunicationSecret}.
+     *
+     * @return {@link #encryptedCommunicationSecret}.
+     */
+    public String getEncryptedCommunicationSecret() {
+        return encryptedCommunicationSecret;
+    }
+
+    /**
+     * Retrieves the current {@link #agreementPublicKey}.
+     *
+     * @return {@link #agreementPublicKey}.
+     */
+    public PublicKey getAgreementPublicKey() {
+        return agreementPublicKey;
+    }
+
+    /**
+     * Retrieves the current {@link #agreementSalt}.
+     *
+     * @return {@link #agreementSalt}.
+     */
+    public byte[] getAgreementSalt() {
+        return agreementSalt;
+    }
+
+    /**
+     * Retrieves the current {@link #acceptedFeatures}.
+     *
+     * @return {@link #acceptedFeatures}.
+     */
+    public int getAcceptedFeatures() {
+        return acceptedFeatures;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeObject(this.remoteUserTunnel);
+        CompactSerialization.writeString(out, this.encryptedCommunicationSecret);
+        out.writeObject(this.agreementPublicKey);
+        out.writeObject(this.agreementSalt);
+        out.writeInt(this.acceptedFeatures);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+
+        Object tunnel = in.readObject();
+
+        if (tunnel != null && !(tunnel instanceof IRemoteUserTunnel)) {
+            throw new InvalidObjectException("The serialized tunnel is not an IRemoteUserTunnel");
+        }
+
+        this.remoteUserTunnel = (IRemoteUserTunnel) tunnel;
+        this.encryptedCommunicationSecret = CompactSerialization.readString(in);
+
+        Object publicKey = in.readObject();
+        Object salt = in.readObject();
+
+        if ((publicKey != null && !(publicKey instanceof PublicKey)) || (salt != null && !(salt instanceof byte[]))) {
+            throw new InvalidObjectException("The serialized key agreement data is not valid");
+        }
+
+        this.agreementPublicKey = (PublicKey) publicKey;
+        this.agreementSalt = (byte[]) salt;
+        this.acceptedFeatures = in.readInt();
     }
 }
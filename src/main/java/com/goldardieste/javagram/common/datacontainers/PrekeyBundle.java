@@ -0,0 +1,131 @@
+package com.goldardieste.javagram.common.datacontainers;
+
+import com.goldardieste.javagram.common.ChatFeature;
+import com.goldardieste.javagram.common.interfaces.IServer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * Contains the keys that a client publishes in the Javagram server when its user logs in (see {@link
+ * IServer#publishPrekeys}), so that any friend that wants to chat with him can agree on a key for the chat without
+ * waiting for his client to answer. The server keeps one for each online user, so it only holds the encoded X25519
+ * public key of the client's device, along with the {@link ChatFeature}s that the client supports.
+ */
+public class PrekeyBundle implements Externalizable {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Maximum size in bytes of an encoded public key.
+     */
+    private final static int MAX_ENCODED_KEY_SIZE = 1024;
+
+    /**
+     * X.509 encoding of the X25519 public key of the client's device.
+     */
+    private byte[] encodedKey;
+
+    /**
+     * Bit mask of the {@link ChatFeature}s that the client supports.
+     */
+    private int features;
+
+
+    /* ----- Constructors ----- */
+
+    /**
+     * Creates an empty {@link PrekeyBundle}. It is only meant to be used when deserializing an instance.
+     */
+    public PrekeyBundle() {
+    }
+
+    /**
+     * Creates a new {@link PrekeyBundle} that will contain the specified information.
+     *
+     * @param publicKey X25519 public key of the client's device.
+     * @param features  the new {@link #features}.
+     */
+    public PrekeyBundle(PublicKey publicKey, int features) {
+        this(publicKey.getEncoded(), features);
+    }
+
+    /**
+     * Creates a new {@link PrekeyBundle} that will contain the specified information.
+     *
+     * @param encodedKey the new {@link #encodedKey}.
+     * @param features   the new {@link #features}.
+     */
+    public PrekeyBundle(byte[] encodedKey, int features) {
+        this.encodedKey = encodedKey;
+        this.features = features;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #encodedKey}.
+     *
+     * @return {@link #encodedKey}.
+     */
+    public byte[] getEncodedKey() {
+        return encodedKey;
+    }
+
+    /**
+     * Retrieves the current {@link #features}.
+     *
+     * @return {@link #features}.
+     */
+    public int getFeatures() {
+        return features;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Decodes the X25519 public key of the client's device.
+     *
+     * @return the {@link PublicKey}.
+     * @throws GeneralSecurityException if it cannot be decoded.
+     */
+    public PublicKey getPublicKey() throws GeneralSecurityException {
+        return KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(this.encodedKey));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeShort(this.encodedKey.length);
+        out.write(this.encodedKey);
+        out.writeInt(this.features);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+
+        int length = in.readUnsignedShort();
+
+        if (length > PrekeyBundle.MAX_ENCODED_KEY_SIZE) {
+            throw new InvalidObjectException("An encoded prekey claims an invalid length: " + length);
+        }
+
+        this.encodedKey = new byte[length];
+        in.readFully(this.encodedKey);
+        this.features = in.readInt();
+    }
+}
@@ -2,21 +2,27 @@ package com.goldardieste.javagram.common.datacontainers;
 
 import com.goldardieste.javagram.common.StatusType;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.Objects;
 
 /**
  * This class represents an instance of another user of the service. For instance, a certain client will receive a
  * collection of {@link RemoteUser} as a representation of its friends.
+ * <p>
+ * As it is transmitted in every status notification, it is serialized in a compact form: its username and the ordinal
+ * of its status.
  */
-public class RemoteUser implements Serializable {
+public class RemoteUser implements Externalizable {
 
     /* ----- Attributes ----- */
 
     /**
      * Name by which the user can be identified.
      */
-    private final String username;
+    private String username;
 
     /**
      * State in which the remote user will be seen by the local user.
@@ -24,7 +30,13 @@ public class RemoteUser implements Serializable {
     private StatusType status;
 
 
-    /* ----- Constructor ----- */
+    /* ----- Constructors ----- */
+
+    /**
+     * Initializes an empty {@link RemoteUser}. It is only meant to be used when deserializing an instance.
+     */
+    public RemoteUser() {
+    }
 
     /**
      * Initializes a instance of {@link RemoteUser} using the given data.
@@ -67,6 +79,24 @@ public class RemoteUser implements Serializable {
         this.status = status;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        CompactSerialization.writeString(out, this.username);
+        CompactSerialization.writeStatus(out, this.status);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        this.username = CompactSerialization.readString(in);
+        this.status = CompactSerialization.readStatus(in);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,80 @@
+package com.goldardieste.javagram.common.datacontainers;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * This class is a list of {@link RemoteUser} that is serialized in a compact form: the amount of users followed by the
+ * contents of each one of them, so that no per-element object headers are transmitted. It is meant to be returned
+ * whenever a collection of {@link RemoteUser} is sent to a client.
+ */
+public class RemoteUserList extends ArrayList<RemoteUser> implements Externalizable {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Maximum amount of {@link RemoteUser} that a serialized list may claim to contain.
+     */
+    private final static int MAX_SIZE = 1_000_000;
+
+
+    /* ----- Constructors ----- */
+
+    /**
+     * Initializes an empty {@link RemoteUserList}.
+     */
+    public RemoteUserList() {
+    }
+
+    /**
+     * Initializes a {@link RemoteUserList} that contains all the given {@link RemoteUser}.
+     *
+     * @param remoteUsers the {@link RemoteUser}.
+     */
+    public RemoteUserList(Collection<RemoteUser> remoteUsers) {
+        super(remoteUsers);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+
+        out.writeInt(size());
+
+        for (RemoteUser remoteUser : this) {
+            remoteUser.writeExternal(out);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+
+        int size = in.readInt();
+
+        if (size < 0 || size > RemoteUserList.MAX_SIZE) {
+            throw new InvalidObjectException("A serialized list of remote users claims an invalid size: " + size);
+        }
+
+        clear();
+        ensureCapacity(size);
+
+        for (int i = 0; i < size; i++) {
+            RemoteUser remoteUser = new RemoteUser();
+            remoteUser.readExternal(in);
+            add(remoteUser);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.goldardieste.javagram.common.datacontainers;
+
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Contains the acknowledgement that the receiving end of an {@link IRemoteUserTunnel} returns after each transmission.
+ * It is cumulative: it covers every message up to the given sequence number, including the ones that were sent through
+ * previous transmissions, so a single acknowledgement may confirm several batches at once. It also advertises how many
+ * more messages the receiving end is able to accept, so that the sender does not send more than that.
+ */
+public class TransmissionAck implements Externalizable {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Sequence number of the last message that the receiving end has accepted, such that all the previous ones have
+     * been accepted too. It is 0 if none has been accepted yet. Once accepted, the messages are delivered in order, even
+     * if they have not been delivered yet when the acknowledgement is returned.
+     */
+    private long acceptedSequence;
+
+    /**
+     * How many more messages the receiving end is able to accept right now.
+     */
+    private int credit;
+
+
+    /* ----- Constructors ----- */
+
+    /**
+     * Generates an empty {@link TransmissionAck}. It is only meant to be used when deserializing an instance.
+     */
+    public TransmissionAck() {
+    }
+
+    /**
+     * Generates a {@link TransmissionAck} that covers all the messages up to the given sequence number.
+     *
+     * @param acceptedSequence the new {@link #acceptedSequence}.
+     * @param credit           the new {@link #credit}.
+     */
+    public TransmissionAck(long acceptedSequence, int credit) {
+        this.acceptedSequence = acceptedSequence;
+        this.credit = credit;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #acceptedSequence}.
+     *
+     * @return {@link #acceptedSequence}.
+     */
+    public long getAcceptedSequence() {
+        return acceptedSequence;
+    }
+
+    /**
+     * Retrieves the current {@link #credit}.
+     *
+     * @return {@link #credit}.
+     */
+    public int getCredit() {
+        return credit;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeLong(this.acceptedSequence);
+        out.writeInt(this.credit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        this.acceptedSequence = in.readLong();
+        this.credit = in.readInt();
+    }
+}
@@ -1,21 +1,31 @@
 package com.goldardieste.javagram.common.datacontainers;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
- * This class will store all the information that the server needs to identify the identity of a certain client.
+ * This class will store all the information that the server needs to identify the identity of a certain client. As it
+ * is transmitted in almost every request to the server, it is serialized in a compact form: just its content.
  */
-public class UserToken implements Serializable {
+public class UserToken implements Externalizable {
 
     /* ----- Attributes ----- */
 
     /**
      * As of now, the content of the user token will just be a JSON Web Token.
      */
-    private final String content;
+    private String content;
 
 
-    /* ----- Constructor ----- */
+    /* ----- Constructors ----- */
+
+    /**
+     * Creates an empty {@link UserToken}. It is only meant to be used when deserializing an instance.
+     */
+    public UserToken() {
+    }
 
     /**
      * Creates a new {@link UserToken} that will contain the specified information.
@@ -37,4 +47,23 @@ public class UserToken implements Serializable {
     public String getContent() {
         return content;
     }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        CompactSerialization.writeString(out, this.content);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        this.content = CompactSerialization.readString(in);
+    }
 }
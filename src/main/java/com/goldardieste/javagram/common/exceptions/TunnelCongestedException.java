@@ -0,0 +1,24 @@
+package com.goldardieste.javagram.common.exceptions;
+
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+
+import java.rmi.RemoteException;
+
+/**
+ * Thrown by the receiving end of an {@link IRemoteUserTunnel} when it cannot accept more messages until it has
+ * delivered the ones that it has already queued. None of the transmitted messages have been accepted, so the sender
+ * must try again later.
+ */
+public class TunnelCongestedException extends RemoteException {
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Creates a new {@link TunnelCongestedException} using the specified cause.
+     *
+     * @param message message that details the cause of the exception.
+     */
+    public TunnelCongestedException(String message) {
+        super(message);
+    }
+}
@@ -1,21 +1,35 @@
 package com.goldardieste.javagram.common.interfaces;
 
+import com.goldardieste.javagram.common.datacontainers.TransmissionAck;
+import com.goldardieste.javagram.common.exceptions.TunnelCongestedException;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 
 /**
  * This interface contains all the operations that a Javagram tunnel must support to allow one client to communicate
  * with another one directly. That is, the communication is unidirectional.
+ * <p>
+ * Each message carries a sequence number, which starts at 1 for each tunnel and grows by 1 with each message. Thus, the
+ * sender may have several transmissions in flight, or retry a failed one, as the receiving end delivers the messages
+ * in order and only once, buffering the ones that arrive ahead of a missing message. The receiving end may also reject
+ * a transmission if it is congested, so that the sender slows down.
  */
 public interface IRemoteUserTunnel extends Remote {
 
     /* ----- Methods ----- */
 
     /**
-     * Sends, from one end of the tunnel to the other, the given message.
+     * Sends, from one end of the tunnel to the other, all the given messages using a single remote call. They are
+     * numbered consecutively, starting at the given sequence number.
      *
-     * @param message content of the message that will be sent.
-     * @throws RemoteException error during a remote procedure call.
+     * @param firstSequence sequence number of the first message.
+     * @param windowBase    lowest sequence number that the sender is still waiting to be acknowledged; any missing
+     *                      message below it has been given up by the sender, and it must no longer be waited for.
+     * @param messages      contents of the messages that will be sent, each one as an encrypted binary frame.
+     * @return {@link TransmissionAck} that covers all the messages that have been accepted so far.
+     * @throws TunnelCongestedException if the receiving end cannot accept more messages for now.
+     * @throws RemoteException          error during a remote procedure call.
      */
-    void transmitMessage(String message) throws RemoteException;
+    TransmissionAck transmitMessages(long firstSequence, long windowBase, byte[][] messages) throws RemoteException;
 }
@@ -2,6 +2,7 @@ package com.goldardieste.javagram.common.interfaces;
 
 import com.goldardieste.javagram.common.*;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 import com.goldardieste.javagram.common.datacontainers.UserToken;
 
@@ -90,14 +91,57 @@ public interface IServer extends Remote {
      * @param token          identifies the user on whose behalf the operation will be performed.
      * @param localTunnel    {@link IRemoteUserTunnel} that the client has opened so that the remote user may send him
      *                       messages.
-     * @param localPublicKey the RSA public key of the client.
+     * @param localPublicKey the public key of the client: an X25519 one if it offers {@link
+     *                       ChatFeature#X25519_KEY_AGREEMENT}, or an RSA one otherwise.
+     * @param localFeatures  bit mask of the {@link ChatFeature}s that the client supports.
      * @param remoteUser     name by which the remote user that will be asked can be identified.
      * @return if the remote user accepts the request, a {@link IRemoteUserTunnel} through which the client may send
      * him messages is returned.
      * @throws RemoteException irrecoverable error during a remote procedure call.
      */
-    NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey, String
-            remoteUser) throws RemoteException;
+    NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                             int localFeatures, String remoteUser) throws RemoteException;
+
+    /**
+     * Publishes the {@link PrekeyBundle} of the client, so that its friends may retrieve it through {@link
+     * #retrievePrekeys(UserToken, String)} while the user remains online. Any previously published one is replaced.
+     *
+     * @param token  identifies the user on whose behalf the operation will be performed.
+     * @param bundle the client's {@link PrekeyBundle}.
+     * @throws RemoteException irrecoverable error during a remote procedure call.
+     */
+    void publishPrekeys(UserToken token, PrekeyBundle bundle) throws RemoteException;
+
+    /**
+     * Retrieves the {@link PrekeyBundle} that a friend of the client has published, so that the client may agree on
+     * the key of a chat with him before requesting it through {@link #requestChat}.
+     *
+     * @param token      identifies the user on whose behalf the operation will be performed.
+     * @param remoteUser name by which the remote user can be identified.
+     * @return the remote user's {@link PrekeyBundle}, or null if he has not published any (for example, because he is
+     * offline, or because his client does not support it).
+     * @throws RemoteException irrecoverable error during a remote procedure call.
+     */
+    PrekeyBundle retrievePrekeys(UserToken token, String remoteUser) throws RemoteException;
+
+    /**
+     * The server asks the remote user, in behalf of the client that requests the operation, to initialize a connection
+     * through which they may communicate, as {@link #initiateChat} does. However, as the client has already agreed on
+     * the chat's key with the remote user's {@link PrekeyBundle}, it does not wait for the remote user to answer: his
+     * answer is delivered later through {@link IServerNotificationsListener#completeChatRequest}.
+     *
+     * @param token          identifies the user on whose behalf the operation will be performed.
+     * @param localTunnel    {@link IRemoteUserTunnel} that the client has opened so that the remote user may send him
+     *                       messages.
+     * @param localPublicKey the X25519 public key of the client.
+     * @param agreementSalt  random salt that the client has mixed into the chat's key.
+     * @param localFeatures  bit mask of the {@link ChatFeature}s that the client supports.
+     * @param remoteUser     name by which the remote user that will be asked can be identified.
+     * @throws RemoteException irrecoverable error during a remote procedure call, or if the remote user is not
+     *                         available.
+     */
+    void requestChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey, byte[] agreementSalt,
+                     int localFeatures, String remoteUser) throws RemoteException;
 
     /**
      * A friendship request is sent to the remote user on behalf of the client, as long as it did not already exist. If
@@ -1,6 +1,8 @@
 package com.goldardieste.javagram.common.interfaces;
 
+import com.goldardieste.javagram.common.ChatFeature;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 
 import java.rmi.Remote;
@@ -22,13 +24,44 @@ public interface IServerNotificationsListener extends Remote {
      * @param remoteUser          name by which the remote user that asks to establish the connection can be identified.
      * @param remoteUserTunnel    {@link IRemoteUserTunnel} that the remote user has opened so that the client may
      *                            communicate with him.
-     * @param remoteUserPublicKey the RSA public key of the remote user.
+     * @param remoteUserPublicKey the public key of the remote user: an X25519 one if he offers {@link
+     *                            ChatFeature#X25519_KEY_AGREEMENT}, or an RSA one otherwise.
+     * @param remoteUserFeatures  bit mask of the {@link ChatFeature}s that the remote user supports.
      * @return all the data that the remote user needs to communicate with the client.
      * @throws RemoteException irrecoverable error during a remote procedure call, or the chat request has been
      *                         rejected.
      */
     NewChatData replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
-            remoteUserPublicKey) throws RemoteException;
+            remoteUserPublicKey, int remoteUserFeatures) throws RemoteException;
+
+    /**
+     * The corresponding client is asked to initialize a connection with a remote user, through which they may
+     * communicate, as in {@link #replyChatRequest}. The remote user has already agreed on the chat's key with the
+     * client's {@link PrekeyBundle}, so only the client's tunnel must be returned.
+     *
+     * @param remoteUser          name by which the remote user that asks to establish the connection can be identified.
+     * @param remoteUserTunnel    {@link IRemoteUserTunnel} that the remote user has opened so that the client may
+     *                            communicate with him.
+     * @param remoteUserPublicKey the X25519 public key of the remote user.
+     * @param agreementSalt       random salt that the remote user has mixed into the chat's key.
+     * @param remoteUserFeatures  bit mask of the {@link ChatFeature}s that the remote user supports.
+     * @return all the data that the remote user needs to communicate with the client.
+     * @throws RemoteException irrecoverable error during a remote procedure call, or the chat request has been
+     *                         rejected.
+     */
+    NewChatData acceptChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
+            remoteUserPublicKey, byte[] agreementSalt, int remoteUserFeatures) throws RemoteException;
+
+    /**
+     * Delivers to the corresponding client the answer of a remote user to a chat request that the client sent through
+     * {@link IServer#requestChat}.
+     *
+     * @param remoteUser name by which the remote user that has been asked can be identified.
+     * @param chatData   all the data that the client needs to communicate with the remote user, or null if the remote
+     *                   user could not accept the request.
+     * @throws RemoteException irrecoverable error during a remote procedure call.
+     */
+    void completeChatRequest(String remoteUser, NewChatData chatData) throws RemoteException;
 
     /**
      * 1. If the status of the specified remote user has been already retrieved by the client, it is substituted by the
@@ -0,0 +1,32 @@
+package com.goldardieste.javagram.common.nio;
+
+/**
+ * Classes that implement this interface will be notified by a {@link TlsFrameConnection} about the frames that it
+ * receives and about its closure. All notifications are delivered from the thread of its {@link NioEventLoop}, so they
+ * must not block.
+ */
+public interface FrameListener {
+
+    /**
+     * Processes a frame that has been received through the given {@link TlsFrameConnection}.
+     *
+     * @param connection the {@link TlsFrameConnection}.
+     * @param frame      the contents of the frame, without its length prefix.
+     */
+    void processFrame(TlsFrameConnection connection, byte[] frame);
+
+    /**
+     * Retrieves the maximum size in bytes of the frames that may be received. A {@link TlsFrameConnection} is closed as
+     * soon as the other end claims a bigger frame, before buffering it.
+     *
+     * @return the maximum size.
+     */
+    int getMaxFrameSize();
+
+    /**
+     * Processes the closure of the given {@link TlsFrameConnection}. No more frames will be received through it.
+     *
+     * @param connection the {@link TlsFrameConnection}.
+     */
+    void processClosure(TlsFrameConnection connection);
+}
@@ -0,0 +1,357 @@
+package com.goldardieste.javagram.common.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * This class multiplexes any amount of concurrent requests and responses, in both directions, over a single {@link
+ * TlsFrameConnection}. Each frame begins with its kind (1 byte) and the identifier of the request that it belongs to
+ * (4 bytes), followed by its body.
+ * <p>
+ * Received requests are processed by a {@link RequestHandler} in an {@link Executor}, so that the {@link NioEventLoop}
+ * never blocks; if the channel is ordered, they are processed one at a time in the same order in which they arrived.
+ */
+public class MultiplexedChannel implements FrameListener {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Kind of the frames that contain a request.
+     */
+    private final static byte KIND_REQUEST = 0;
+
+    /**
+     * Kind of the frames that contain a successful response.
+     */
+    private final static byte KIND_RESPONSE = 1;
+
+    /**
+     * Kind of the frames that contain the message of a failed request.
+     */
+    private final static byte KIND_ERROR = 2;
+
+    /**
+     * Size in bytes of the header of each frame: its kind and the identifier of its request.
+     */
+    private final static int HEADER_SIZE = 1 + Integer.BYTES;
+
+    /**
+     * {@link RequestHandler} that processes the received requests; if it is null, all of them fail.
+     */
+    private final RequestHandler requestHandler;
+
+    /**
+     * {@link Executor} where the received requests are processed.
+     */
+    private final Executor executor;
+
+    /**
+     * If the received requests must be processed one at a time, in order.
+     */
+    private final boolean ordered;
+
+    /**
+     * Maximum size in bytes of the body of the frames that the channel accepts from the other end.
+     */
+    private final int maxBodySize;
+
+    /**
+     * Provides the identifier of each request that is sent.
+     */
+    private final AtomicInteger nextRequestId;
+
+    /**
+     * Contains the requests that have been sent and whose response has not been received yet.
+     * <p>
+     * Key -> identifier of the request.
+     * Value -> {@link CompletableFuture} that will be completed with its response.
+     */
+    private final Map<Integer, CompletableFuture<byte[]>> pendingRequests;
+
+    /**
+     * {@link TlsFrameConnection} over which the channel works.
+     */
+    private volatile TlsFrameConnection connection;
+
+    /**
+     * Completes when the last received request has been processed; it is only used if the channel is ordered, and it
+     * is only accessed from the thread of the {@link NioEventLoop}.
+     */
+    private CompletableFuture<Void> lastRequest;
+
+    /**
+     * Any object that the owner of the channel wants to associate with it.
+     */
+    private volatile Object attachment;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link MultiplexedChannel}.
+     *
+     * @param connection     {@link TlsFrameConnection} over which it will work; it may be set later.
+     * @param requestHandler {@link RequestHandler} that will process the received requests.
+     * @param executor       {@link Executor} where the received requests will be processed.
+     * @param ordered        if the received requests must be processed one at a time, in order.
+     * @param maxBodySize    maximum size in bytes of the body of the frames that it will accept.
+     */
+    private MultiplexedChannel(TlsFrameConnection connection, RequestHandler requestHandler, Executor executor,
+                               boolean ordered, int maxBodySize) {
+
+        this.connection = connection;
+        this.requestHandler = requestHandler;
+        this.executor = executor;
+        this.ordered = ordered;
+        this.maxBodySize = maxBodySize;
+        this.nextRequestId = new AtomicInteger();
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.lastRequest = CompletableFuture.completedFuture(null);
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #attachment}.
+     *
+     * @return {@link #attachment}.
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+
+    /* ----- Setters ----- */
+
+    /**
+     * Updates the value of {@link #attachment}.
+     *
+     * @param attachment new {@link #attachment}.
+     */
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Opens a {@link MultiplexedChannel} to the specified address.
+     *
+     * @param eventLoop      {@link NioEventLoop} that will drive the channel.
+     * @param host           address of the other end.
+     * @param port           port of the other end.
+     * @param requestHandler {@link RequestHandler} that will process the requests that the other end sends; it may be
+     *                       null.
+     * @param executor       {@link Executor} where the received requests will be processed.
+     * @param ordered        if the received requests must be processed one at a time, in order.
+     * @param maxBodySize    maximum size in bytes of the requests and responses that the other end may send.
+     * @return {@link CompletableFuture} that will be completed with the {@link MultiplexedChannel}.
+     */
+    public static CompletableFuture<MultiplexedChannel> connect(NioEventLoop eventLoop, String host, int port,
+                                                                RequestHandler requestHandler, Executor executor,
+                                                                boolean ordered, int maxBodySize) {
+
+        MultiplexedChannel channel = new MultiplexedChannel(null, requestHandler, executor, ordered, maxBodySize);
+
+        return eventLoop.connect(host, port, channel).thenApply(connection -> {
+            channel.connection = connection;
+            return channel;
+        });
+    }
+
+    /**
+     * Generates the {@link FrameListener} that each connection accepted by a {@link NioEventLoop} will use, so that it
+     * works as a {@link MultiplexedChannel}.
+     *
+     * @param requestHandler {@link RequestHandler} that will process the requests that the other ends send.
+     * @param executor       {@link Executor} where the received requests will be processed.
+     * @param ordered        if the received requests must be processed one at a time, in order.
+     * @param maxBodySize    maximum size in bytes of the requests and responses that the other ends may send; as
+     *                       any client may connect, it must not exceed what a legitimate request needs.
+     * @return a function that generates a {@link MultiplexedChannel} for each accepted connection.
+     */
+    public static Function<TlsFrameConnection, FrameListener> acceptor(RequestHandler requestHandler,
+                                                                      Executor executor, boolean ordered,
+                                                                      int maxBodySize) {
+        return connection -> new MultiplexedChannel(connection, requestHandler, executor, ordered, maxBodySize);
+    }
+
+    /**
+     * Sends a request through the channel.
+     *
+     * @param request contents of the request.
+     * @return {@link CompletableFuture} that will be completed with the response, or that will be completed
+     * exceptionally with a {@link RemoteException} if the other end cannot process the request or if the channel is
+     * closed.
+     */
+    public CompletableFuture<byte[]> sendRequest(byte[] request) {
+
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        int requestId = this.nextRequestId.incrementAndGet();
+
+        this.pendingRequests.put(requestId, result);
+
+        try {
+            this.connection.sendFrame(generateFrame(MultiplexedChannel.KIND_REQUEST, requestId, request));
+
+        } catch (IOException e) {
+            this.pendingRequests.remove(requestId);
+            result.completeExceptionally(new ConnectIOException("The request could not be sent", e));
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getMaxFrameSize() {
+        return MultiplexedChannel.HEADER_SIZE + this.maxBodySize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void processFrame(TlsFrameConnection connection, byte[] frame) {
+
+        if (frame.length < MultiplexedChannel.HEADER_SIZE) {
+            System.err.println("A frame without header has been received from: " + connection.getRemoteAddress());
+            connection.close();
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        byte kind = buffer.get();
+        int requestId = buffer.getInt();
+
+        if (kind == MultiplexedChannel.KIND_REQUEST) {
+
+            if (this.ordered) {
+                this.lastRequest = this.lastRequest.thenRunAsync(() -> processRequest(requestId, frame),
+                        this.executor);
+            } else {
+                this.executor.execute(() -> processRequest(requestId, frame));
+            }
+
+            return;
+        }
+
+        CompletableFuture<byte[]> pending = this.pendingRequests.remove(requestId);
+
+        if (pending == null) {
+            return;
+        }
+
+        byte[] body = new byte[buffer.remaining()];
+        buffer.get(body);
+
+        if (kind == MultiplexedChannel.KIND_RESPONSE) {
+            pending.complete(body);
+        } else {
+            pending.completeExceptionally(new RemoteException("The other end could not process the request: " +
+                    new String(body, StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * Processes a received request through {@link #requestHandler}, and sends back its response.
+     *
+     * @param requestId identifier of the request.
+     * @param frame     the whole frame that contains the request.
+     */
+    private void processRequest(int requestId, byte[] frame) {
+
+        byte[] request = new byte[frame.length - MultiplexedChannel.HEADER_SIZE];
+        System.arraycopy(frame, MultiplexedChannel.HEADER_SIZE, request, 0, request.length);
+
+        byte[] response;
+
+        try {
+            if (this.requestHandler == null) {
+                throw new UnsupportedOperationException("This end does not accept requests");
+            }
+
+            response = generateFrame(MultiplexedChannel.KIND_RESPONSE, requestId,
+                    this.requestHandler.handleRequest(this, request));
+
+        } catch (Exception e) {
+            String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            response = generateFrame(MultiplexedChannel.KIND_ERROR, requestId,
+                    message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            this.connection.sendFrame(response);
+
+        } catch (IOException e) {
+            System.err.println("A response could not be sent to: " + this.connection.getRemoteAddress());
+        }
+    }
+
+    /**
+     * Generates a frame with the given kind, request identifier and body.
+     *
+     * @param kind      kind of the frame.
+     * @param requestId identifier of the request.
+     * @param body      body of the frame.
+     * @return the frame.
+     */
+    private static byte[] generateFrame(byte kind, int requestId, byte[] body) {
+
+        return ByteBuffer.allocate(MultiplexedChannel.HEADER_SIZE + body.length)
+                .put(kind)
+                .putInt(requestId)
+                .put(body)
+                .array();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void processClosure(TlsFrameConnection connection) {
+
+        ConnectIOException exception = new ConnectIOException("The connection has been closed");
+
+        for (Integer requestId : this.pendingRequests.keySet()) {
+            CompletableFuture<byte[]> pending = this.pendingRequests.remove(requestId);
+
+            if (pending != null) {
+                pending.completeExceptionally(exception);
+            }
+        }
+
+        if (this.requestHandler != null) {
+            this.requestHandler.processClosure(this);
+        }
+    }
+
+    /**
+     * Checks if the channel has been closed.
+     *
+     * @return if it has been closed.
+     */
+    public boolean isClosed() {
+        return this.connection.isClosed();
+    }
+
+    /**
+     * Closes the channel; all pending requests will fail.
+     */
+    public void close() {
+        this.connection.close();
+    }
+}
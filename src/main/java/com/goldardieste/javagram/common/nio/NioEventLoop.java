@@ -0,0 +1,418 @@
+package com.goldardieste.javagram.common.nio;
+
+import com.goldardieste.javagram.common.TunedSslSockets;
+
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
+
+/**
+ * This class drives, from a single thread, any amount of non-blocking {@link TlsFrameConnection}, along with the
+ * server channels that accept them. Therefore, no thread is needed per connection.
+ */
+public class NioEventLoop {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * {@link Selector} in which all channels are registered.
+     */
+    private final Selector selector;
+
+    /**
+     * Tasks that other threads have requested to be executed in the event loop's thread.
+     */
+    private final Queue<Runnable> pendingTasks;
+
+    /**
+     * Thread that runs the event loop.
+     */
+    private final Thread thread;
+
+    /**
+     * If the event loop must keep running.
+     */
+    private volatile boolean running;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioEventLoop} and starts its thread.
+     *
+     * @param name name that will be given to the event loop's thread.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public NioEventLoop(String name) throws IOException {
+
+        this.selector = Selector.open();
+        this.pendingTasks = new ConcurrentLinkedQueue<>();
+        this.running = true;
+
+        this.thread = new Thread(this::run, name);
+        // The event loop must not prevent the application from ending its execution
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Executes the given task in the event loop's thread as soon as possible.
+     *
+     * @param task the task.
+     */
+    public void execute(Runnable task) {
+
+        if (Thread.currentThread() == this.thread) {
+            task.run();
+
+        } else {
+            this.pendingTasks.add(task);
+            this.selector.wakeup();
+        }
+    }
+
+    /**
+     * Starts listening for TLS connections on the given port of all local interfaces.
+     *
+     * @param port             port where the connections will be accepted; 0 -> ephemeral port.
+     * @param listenerSupplier generates the {@link FrameListener} for each accepted connection.
+     * @return the port where the connections will be accepted.
+     * @throws IOException if the port cannot be bound.
+     */
+    public int listen(int port, Function<TlsFrameConnection, FrameListener> listenerSupplier) throws IOException {
+
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+        try {
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(new InetSocketAddress(port));
+
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+
+        execute(() -> {
+            try {
+                serverChannel.register(this.selector, SelectionKey.OP_ACCEPT,
+                        new Acceptor(serverChannel, listenerSupplier));
+
+            } catch (IOException e) {
+                System.err.println("A server channel could not be registered in the event loop");
+                closeQuietly(serverChannel);
+            }
+        });
+
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Opens a TLS connection to the specified address.
+     *
+     * @param host          address of the other end.
+     * @param port          port of the other end.
+     * @param frameListener {@link FrameListener} that will be notified about the frames that are received.
+     * @return {@link CompletableFuture} that is completed with the {@link TlsFrameConnection} once the TCP connection
+     * has been established; frames may already be sent through it, as they will wait for the TLS handshake.
+     */
+    public CompletableFuture<TlsFrameConnection> connect(String host, int port, FrameListener frameListener) {
+
+        CompletableFuture<TlsFrameConnection> result = new CompletableFuture<>();
+
+        execute(() -> {
+
+            SocketChannel channel = null;
+
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                TunedSslSockets.applySocketOptions(channel.socket());
+                channel.connect(new InetSocketAddress(host, port));
+                channel.register(this.selector, SelectionKey.OP_CONNECT,
+                        new Connector(channel, host, port, frameListener, result));
+
+            } catch (IOException e) {
+                closeQuietly(channel);
+                result.completeExceptionally(e);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Registers a connected channel as a new {@link TlsFrameConnection}, and begins its TLS handshake.
+     *
+     * @param channel          the connected channel.
+     * @param key              {@link SelectionKey} with which the channel is already registered; if it is null, the
+     *                         channel will be registered now.
+     * @param engine           {@link SSLEngine} that has been configured for the connection.
+     * @param listenerSupplier generates the {@link FrameListener} for the connection.
+     * @return the new {@link TlsFrameConnection}.
+     * @throws IOException if the channel cannot be registered, or if the handshake cannot begin.
+     */
+    private TlsFrameConnection registerConnection(SocketChannel channel, SelectionKey key, SSLEngine engine,
+                                                  Function<TlsFrameConnection, FrameListener> listenerSupplier)
+            throws IOException {
+
+        TlsFrameConnection connection = new TlsFrameConnection(this, channel, engine);
+        connection.setFrameListener(listenerSupplier.apply(connection));
+
+        if (key == null) {
+            key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+        } else {
+            key.attach(connection);
+        }
+
+        connection.start(key);
+
+        return connection;
+    }
+
+    /**
+     * Body of the event loop's thread: it waits for ready channels and executes the pending tasks until it is halted.
+     */
+    private void run() {
+
+        while (this.running) {
+
+            try {
+                this.selector.select();
+
+            } catch (IOException e) {
+                System.err.println("The event loop could not wait for its channels");
+                break;
+            }
+
+            Runnable task;
+            while ((task = this.pendingTasks.poll()) != null) {
+                try {
+                    task.run();
+
+                } catch (RuntimeException e) {
+                    // A failing task must not stop the event loop
+                    System.err.println("A task failed in the event loop");
+                    e.printStackTrace();
+                }
+            }
+
+            for (SelectionKey key : this.selector.selectedKeys()) {
+
+                SelectionHandler handler = (SelectionHandler) key.attachment();
+
+                try {
+                    if (key.isValid()) {
+                        handler.handleSelection(key);
+                    }
+
+                } catch (IOException | RuntimeException e) {
+                    // Only the failing channel is affected
+                    handler.close();
+                }
+            }
+
+            this.selector.selectedKeys().clear();
+        }
+
+        // All channels are closed once the event loop stops
+        for (SelectionKey key : this.selector.keys()) {
+            ((SelectionHandler) key.attachment()).close();
+        }
+
+        closeQuietly(this.selector);
+    }
+
+    /**
+     * Stops the event loop, closing all of its channels.
+     */
+    public void haltExecution() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Closes the given resource, ignoring any error.
+     *
+     * @param closeable the resource; it may be null.
+     */
+    private static void closeQuietly(AutoCloseable closeable) {
+
+        if (closeable == null) {
+            return;
+        }
+
+        try {
+            closeable.close();
+
+        } catch (Exception e) {
+            System.err.println("A channel could not be closed cleanly");
+        }
+    }
+
+
+    /* ----- Nested classes ----- */
+
+    /**
+     * Accepts the connections that arrive to a server channel.
+     */
+    private class Acceptor implements SelectionHandler {
+
+        /**
+         * The server channel.
+         */
+        private final ServerSocketChannel serverChannel;
+
+        /**
+         * Generates the {@link FrameListener} for each accepted connection.
+         */
+        private final Function<TlsFrameConnection, FrameListener> listenerSupplier;
+
+        /**
+         * Initializes an {@link Acceptor} for the given server channel.
+         *
+         * @param serverChannel    the server channel.
+         * @param listenerSupplier generates the {@link FrameListener} for each accepted connection.
+         */
+        private Acceptor(ServerSocketChannel serverChannel,
+                         Function<TlsFrameConnection, FrameListener> listenerSupplier) {
+            this.serverChannel = serverChannel;
+            this.listenerSupplier = listenerSupplier;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleSelection(SelectionKey key) {
+
+            SocketChannel channel;
+
+            // Several connections may be waiting
+            while (true) {
+
+                try {
+                    channel = this.serverChannel.accept();
+
+                } catch (IOException e) {
+                    System.err.println("A connection could not be accepted");
+                    return;
+                }
+
+                if (channel == null) {
+                    return;
+                }
+
+                try {
+                    channel.configureBlocking(false);
+                    TunedSslSockets.applySocketOptions(channel.socket());
+
+                    SSLEngine engine = TunedSslSockets.getSslContext().createSSLEngine();
+                    engine.setUseClientMode(false);
+                    engine.setSSLParameters(TunedSslSockets.generateSslParameters());
+
+                    registerConnection(channel, null, engine, this.listenerSupplier);
+
+                } catch (IOException e) {
+                    System.err.println("An accepted connection could not be set up");
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            closeQuietly(this.serverChannel);
+        }
+    }
+
+    /**
+     * Completes the establishment of an outgoing connection.
+     */
+    private class Connector implements SelectionHandler {
+
+        /**
+         * The channel that is connecting.
+         */
+        private final SocketChannel channel;
+
+        /**
+         * Address of the other end.
+         */
+        private final String host;
+
+        /**
+         * Port of the other end.
+         */
+        private final int port;
+
+        /**
+         * {@link FrameListener} for the connection.
+         */
+        private final FrameListener frameListener;
+
+        /**
+         * {@link CompletableFuture} that will be completed with the connection.
+         */
+        private final CompletableFuture<TlsFrameConnection> result;
+
+        /**
+         * Initializes a {@link Connector} for the given channel.
+         *
+         * @param channel       the channel that is connecting.
+         * @param host          address of the other end.
+         * @param port          port of the other end.
+         * @param frameListener {@link FrameListener} for the connection.
+         * @param result        {@link CompletableFuture} that will be completed with the connection.
+         */
+        private Connector(SocketChannel channel, String host, int port, FrameListener frameListener,
+                          CompletableFuture<TlsFrameConnection> result) {
+            this.channel = channel;
+            this.host = host;
+            this.port = port;
+            this.frameListener = frameListener;
+            this.result = result;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleSelection(SelectionKey key) throws IOException {
+
+            if (!this.channel.finishConnect()) {
+                return;
+            }
+
+            // Providing the host and port allows the engine to resume a cached TLS session
+            SSLEngine engine = TunedSslSockets.getSslContext().createSSLEngine(this.host, this.port);
+            engine.setUseClientMode(true);
+            engine.setSSLParameters(TunedSslSockets.generateSslParameters());
+
+            // The key is reused by the connection
+            this.result.complete(registerConnection(this.channel, key, engine, connection -> this.frameListener));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            closeQuietly(this.channel);
+            this.result.completeExceptionally(new IOException("The connection could not be established"));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.goldardieste.javagram.common.nio;
+
+/**
+ * Classes that implement this interface process the requests that the other end of a {@link MultiplexedChannel}
+ * sends.
+ */
+public interface RequestHandler {
+
+    /**
+     * Processes the given request and generates its response.
+     *
+     * @param channel {@link MultiplexedChannel} through which the request has been received.
+     * @param request contents of the request.
+     * @return contents of the response.
+     * @throws Exception if the request cannot be processed; its message will be sent back as an error.
+     */
+    byte[] handleRequest(MultiplexedChannel channel, byte[] request) throws Exception;
+
+    /**
+     * Processes the closure of the given {@link MultiplexedChannel}. By default, nothing is done.
+     *
+     * @param channel the {@link MultiplexedChannel}.
+     */
+    default void processClosure(MultiplexedChannel channel) {
+    }
+}
@@ -0,0 +1,24 @@
+package com.goldardieste.javagram.common.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Classes that implement this interface take care of the channels that a {@link NioEventLoop} has registered in its
+ * selector; each {@link SelectionKey} has one of them as its attachment.
+ */
+interface SelectionHandler {
+
+    /**
+     * Processes the operations of the given {@link SelectionKey} that are ready.
+     *
+     * @param key the {@link SelectionKey}.
+     * @throws IOException if the channel fails; it will then be closed.
+     */
+    void handleSelection(SelectionKey key) throws IOException;
+
+    /**
+     * Closes the channel, releasing all its resources.
+     */
+    void close();
+}
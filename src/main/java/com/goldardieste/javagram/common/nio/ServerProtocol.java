@@ -0,0 +1,515 @@
+package com.goldardieste.javagram.common.nio;
+
+import com.goldardieste.javagram.common.datacontainers.CompactSerialization;
+import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
+import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.datacontainers.RemoteUserList;
+import com.goldardieste.javagram.common.datacontainers.UserToken;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+import com.goldardieste.javagram.common.interfaces.IServer;
+import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * This class defines the binary protocol through which clients may use a Javagram server ({@link IServer}) over a
+ * {@link MultiplexedChannel}, as an alternative to RMI. Each request begins with the code of its operation (1 byte),
+ * followed by its arguments; each response just contains the returned value, if any. The server's callbacks ({@link
+ * IServerNotificationsListener}) travel as requests in the opposite direction over the same channel.
+ * <p>
+ * Strings, statuses and users are written with {@link CompactSerialization}; public keys, as their X.509 encoding;
+ * tunnels, which may be RMI stubs, as marshalled objects.
+ */
+public final class ServerProtocol {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Code of {@link IServer#signUp}.
+     */
+    public final static byte SIGN_UP = 1;
+
+    /**
+     * Code of {@link IServer#login}.
+     */
+    public final static byte LOGIN = 2;
+
+    /**
+     * Code of {@link IServer#updatePassword}.
+     */
+    public final static byte UPDATE_PASSWORD = 3;
+
+    /**
+     * Code of {@link IServer#disconnect}.
+     */
+    public final static byte DISCONNECT = 4;
+
+    /**
+     * Code of {@link IServer#retrieveFriends(UserToken)}.
+     */
+    public final static byte RETRIEVE_FRIENDS = 5;
+
+    /**
+     * Code of {@link IServer#retrieveFriends(UserToken, com.goldardieste.javagram.common.StatusType)}.
+     */
+    public final static byte RETRIEVE_FRIENDS_BY_STATUS = 6;
+
+    /**
+     * Code of {@link IServer#initiateChat}.
+     */
+    public final static byte INITIATE_CHAT = 7;
+
+    /**
+     * Code of {@link IServer#requestFriendship}.
+     */
+    public final static byte REQUEST_FRIENDSHIP = 8;
+
+    /**
+     * Code of {@link IServer#acceptFriendship}.
+     */
+    public final static byte ACCEPT_FRIENDSHIP = 9;
+
+    /**
+     * Code of {@link IServer#rejectFriendship}.
+     */
+    public final static byte REJECT_FRIENDSHIP = 10;
+
+    /**
+     * Code of {@link IServer#endFriendship}.
+     */
+    public final static byte END_FRIENDSHIP = 11;
+
+    /**
+     * Code of {@link IServer#publishPrekeys}.
+     */
+    public final static byte PUBLISH_PREKEYS = 12;
+
+    /**
+     * Code of {@link IServer#retrievePrekeys}.
+     */
+    public final static byte RETRIEVE_PREKEYS = 13;
+
+    /**
+     * Code of {@link IServer#requestChat}.
+     */
+    public final static byte REQUEST_CHAT = 14;
+
+    /**
+     * Code of {@link IServerNotificationsListener#replyChatRequest}.
+     */
+    public final static byte REPLY_CHAT_REQUEST = 20;
+
+    /**
+     * Code of {@link IServerNotificationsListener#updateRemoteUserStatus}.
+     */
+    public final static byte UPDATE_REMOTE_USER_STATUS = 21;
+
+    /**
+     * Code of {@link IServerNotificationsListener#acceptChatRequest}.
+     */
+    public final static byte ACCEPT_CHAT_REQUEST = 22;
+
+    /**
+     * Code of {@link IServerNotificationsListener#completeChatRequest}.
+     */
+    public final static byte COMPLETE_CHAT_REQUEST = 23;
+
+    /**
+     * Maximum size in bytes of a request that a client may send to the server, and of a response that it may send back
+     * to a callback. Any client may connect to the server, so it just fits the biggest legitimate request (a chat
+     * request, with a tunnel and a key).
+     */
+    public final static int MAX_REQUEST_SIZE = 16 * 1024;
+
+    /**
+     * Maximum size in bytes of a response or a callback that the server may send to a client. It is bigger than {@link
+     * #MAX_REQUEST_SIZE}, as it may contain many users, but only the server that the client has authenticated can send
+     * it.
+     */
+    public final static int MAX_RESPONSE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * Maximum size in bytes of a marshalled object or of an encoded key.
+     */
+    private final static int MAX_OBJECT_SIZE = 64 * 1024;
+
+    /**
+     * Filter that limits the marshalled objects that may be read, as they come from the other end of the channel.
+     */
+    private final static ObjectInputFilter MARSHALLED_OBJECTS_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=16;maxrefs=1024;maxbytes=" + ServerProtocol.MAX_OBJECT_SIZE);
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * This class only contains static methods.
+     */
+    private ServerProtocol() {
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Generates a message of the protocol.
+     *
+     * @param code code of the operation, or -1 if the message is a response.
+     * @param body writes the body of the message.
+     * @return the message.
+     * @throws IOException if the body cannot be written.
+     */
+    public static byte[] encode(byte code, BodyWriter body) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        if (code >= 0) {
+            out.writeByte(code);
+        }
+
+        body.write(out);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Generates a response of the protocol.
+     *
+     * @param body writes the body of the response.
+     * @return the response.
+     * @throws IOException if the body cannot be written.
+     */
+    public static byte[] encodeResponse(BodyWriter body) throws IOException {
+        return encode((byte) -1, body);
+    }
+
+    /**
+     * Prepares the given message to be read.
+     *
+     * @param message the message.
+     * @return {@link DataInputStream} from which its contents can be read.
+     */
+    public static DataInputStream decode(byte[] message) {
+        return new DataInputStream(new ByteArrayInputStream(message));
+    }
+
+    /**
+     * Writes the given {@link UserToken}.
+     *
+     * @param out   where it will be written.
+     * @param token the {@link UserToken}.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeToken(DataOutput out, UserToken token) throws IOException {
+        CompactSerialization.writeString(out, token == null ? null : token.getContent());
+    }
+
+    /**
+     * Reads a {@link UserToken} that was written by {@link #writeToken(DataOutput, UserToken)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link UserToken}; it may be null.
+     * @throws IOException if it cannot be read.
+     */
+    public static UserToken readToken(DataInput in) throws IOException {
+
+        String content = CompactSerialization.readString(in);
+
+        return content == null ? null : new UserToken(content);
+    }
+
+    /**
+     * Writes the given {@link RemoteUser}.
+     *
+     * @param out        where it will be written.
+     * @param remoteUser the {@link RemoteUser}.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeRemoteUser(DataOutput out, RemoteUser remoteUser) throws IOException {
+        CompactSerialization.writeString(out, remoteUser.getUsername());
+        CompactSerialization.writeStatus(out, remoteUser.getStatus());
+    }
+
+    /**
+     * Reads a {@link RemoteUser} that was written by {@link #writeRemoteUser(DataOutput, RemoteUser)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link RemoteUser}.
+     * @throws IOException if it cannot be read.
+     */
+    public static RemoteUser readRemoteUser(DataInput in) throws IOException {
+        return new RemoteUser(CompactSerialization.readString(in), CompactSerialization.readStatus(in));
+    }
+
+    /**
+     * Writes the given collection of {@link RemoteUser}.
+     *
+     * @param out         where it will be written.
+     * @param remoteUsers the {@link RemoteUser}.
+     * @throws IOException if they cannot be written.
+     */
+    public static void writeRemoteUsers(DataOutput out, Iterable<RemoteUser> remoteUsers) throws IOException {
+
+        int size = 0;
+        for (RemoteUser ignored : remoteUsers) {
+            size++;
+        }
+
+        out.writeInt(size);
+
+        for (RemoteUser remoteUser : remoteUsers) {
+            writeRemoteUser(out, remoteUser);
+        }
+    }
+
+    /**
+     * Reads a collection of {@link RemoteUser} that was written by {@link #writeRemoteUsers(DataOutput, Iterable)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link RemoteUser}.
+     * @throws IOException if they cannot be read.
+     */
+    public static RemoteUserList readRemoteUsers(DataInput in) throws IOException {
+
+        int size = in.readInt();
+
+        // Each user needs, at least, the length of its username and its status
+        if (size < 0 || size > ServerProtocol.MAX_RESPONSE_SIZE / (Integer.BYTES + 1)) {
+            throw new InvalidObjectException("A list of remote users claims an invalid size: " + size);
+        }
+
+        RemoteUserList result = new RemoteUserList();
+        result.ensureCapacity(size);
+
+        for (int i = 0; i < size; i++) {
+            result.add(readRemoteUser(in));
+        }
+
+        return result;
+    }
+
+    /**
+     * Writes the given {@link PublicKey} as its algorithm and its X.509 encoding.
+     *
+     * @param out where it will be written.
+     * @param key the {@link PublicKey}.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writePublicKey(DataOutput out, PublicKey key) throws IOException {
+        CompactSerialization.writeString(out, key.getAlgorithm());
+        writeBytes(out, key.getEncoded());
+    }
+
+    /**
+     * Reads a {@link PublicKey} that was written by {@link #writePublicKey(DataOutput, PublicKey)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link PublicKey}.
+     * @throws IOException if it cannot be read or decoded.
+     */
+    public static PublicKey readPublicKey(DataInput in) throws IOException {
+
+        String algorithm = CompactSerialization.readString(in);
+        byte[] encoded = readBytes(in);
+
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+
+        } catch (GeneralSecurityException | NullPointerException e) {
+            throw new InvalidObjectException("A public key could not be decoded");
+        }
+    }
+
+    /**
+     * Writes the given {@link IRemoteUserTunnel} as a marshalled object, so that RMI stubs keep working once they are
+     * read.
+     *
+     * @param out    where it will be written.
+     * @param tunnel the {@link IRemoteUserTunnel}; it may be null.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeTunnel(DataOutput out, IRemoteUserTunnel tunnel) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+            objectOut.writeObject(tunnel);
+        }
+
+        writeBytes(out, bytes.toByteArray());
+    }
+
+    /**
+     * Reads an {@link IRemoteUserTunnel} that was written by {@link #writeTunnel(DataOutput, IRemoteUserTunnel)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link IRemoteUserTunnel}; it may be null.
+     * @throws IOException if it cannot be read.
+     */
+    public static IRemoteUserTunnel readTunnel(DataInput in) throws IOException {
+
+        byte[] bytes = readBytes(in);
+        Object tunnel;
+
+        try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            objectIn.setObjectInputFilter(ServerProtocol.MARSHALLED_OBJECTS_FILTER);
+            tunnel = objectIn.readObject();
+
+        } catch (ClassNotFoundException e) {
+            throw new InvalidObjectException("A marshalled tunnel has an unknown class");
+        }
+
+        if (tunnel != null && !(tunnel instanceof IRemoteUserTunnel)) {
+            throw new InvalidObjectException("A marshalled object is not an IRemoteUserTunnel");
+        }
+
+        return (IRemoteUserTunnel) tunnel;
+    }
+
+    /**
+     * Writes the given {@link NewChatData}.
+     *
+     * @param out      where it will be written.
+     * @param chatData the {@link NewChatData}.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writeNewChatData(DataOutput out, NewChatData chatData) throws IOException {
+
+        writeTunnel(out, chatData.getRemoteUserTunnel());
+        CompactSerialization.writeString(out, chatData.getEncryptedCommunicationSecret());
+
+        // The key agreement data is only present if it is used
+        boolean keyAgreement = chatData.getAgreementPublicKey() != null && chatData.getAgreementSalt() != null;
+        out.writeBoolean(keyAgreement);
+
+        if (keyAgreement) {
+            writePublicKey(out, chatData.getAgreementPublicKey());
+            writeBytes(out, chatData.getAgreementSalt());
+        }
+
+        out.writeInt(chatData.getAcceptedFeatures());
+    }
+
+    /**
+     * Reads a {@link NewChatData} that was written by {@link #writeNewChatData(DataOutput, NewChatData)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link NewChatData}.
+     * @throws IOException if it cannot be read.
+     */
+    public static NewChatData readNewChatData(DataInput in) throws IOException {
+
+        IRemoteUserTunnel tunnel = readTunnel(in);
+        String encryptedSecret = CompactSerialization.readString(in);
+        PublicKey agreementPublicKey = null;
+        byte[] agreementSalt = null;
+
+        if (in.readBoolean()) {
+            agreementPublicKey = readPublicKey(in);
+            agreementSalt = readBytes(in);
+        }
+
+        return new NewChatData(tunnel, encryptedSecret, agreementPublicKey, agreementSalt, in.readInt());
+    }
+
+    /**
+     * Writes the given {@link PrekeyBundle}.
+     *
+     * @param out    where it will be written.
+     * @param bundle the {@link PrekeyBundle}; it may be null.
+     * @throws IOException if it cannot be written.
+     */
+    public static void writePrekeyBundle(DataOutput out, PrekeyBundle bundle) throws IOException {
+
+        out.writeBoolean(bundle != null);
+
+        if (bundle != null) {
+            writeBytes(out, bundle.getEncodedKey());
+            out.writeInt(bundle.getFeatures());
+        }
+    }
+
+    /**
+     * Reads a {@link PrekeyBundle} that was written by {@link #writePrekeyBundle(DataOutput, PrekeyBundle)}.
+     *
+     * @param in where it will be read from.
+     * @return the {@link PrekeyBundle}; it may be null.
+     * @throws IOException if it cannot be read.
+     */
+    public static PrekeyBundle readPrekeyBundle(DataInput in) throws IOException {
+
+        if (!in.readBoolean()) {
+            return null;
+        }
+
+        return new PrekeyBundle(readBytes(in), in.readInt());
+    }
+
+    /**
+     * Writes the given bytes, preceded by their length.
+     *
+     * @param out   where they will be written.
+     * @param bytes the bytes.
+     * @throws IOException if they cannot be written.
+     */
+    public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads some bytes that were written by {@link #writeBytes(DataOutput, byte[])}.
+     *
+     * @param in where they will be read from.
+     * @return the bytes.
+     * @throws IOException if they cannot be read.
+     */
+    public static byte[] readBytes(DataInput in) throws IOException {
+
+        int length = in.readInt();
+
+        if (length < 0 || length > ServerProtocol.MAX_OBJECT_SIZE) {
+            throw new InvalidObjectException("A serialized object claims an invalid length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+
+        return bytes;
+    }
+
+
+    /* ----- Nested interfaces ----- */
+
+    /**
+     * Writes the body of a message of the protocol.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+
+        /**
+         * Writes the body.
+         *
+         * @param out where the body will be written.
+         * @throws IOException if it cannot be written.
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,489 @@
+package com.goldardieste.javagram.common.nio;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class represents a non-blocking TLS connection, driven by a {@link NioEventLoop}, through which length-prefixed
+ * frames are exchanged: each frame is sent as its length (4 bytes) followed by its contents. The TLS layer is
+ * implemented with an {@link SSLEngine}, so no thread is dedicated to the connection.
+ * <p>
+ * Frames may be sent from any thread; all other operations are performed by the thread of the {@link NioEventLoop}.
+ */
+public class TlsFrameConnection implements SelectionHandler {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Maximum size in bytes of the contents of a frame that may be sent. The frames that are received are bounded by
+     * the {@link FrameListener} instead (see {@link FrameListener#getMaxFrameSize()}), which is usually much stricter.
+     */
+    public final static int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Size in bytes of the prefix that contains the length of each frame.
+     */
+    private final static int LENGTH_PREFIX_SIZE = Integer.BYTES;
+
+    /**
+     * Empty buffer that is wrapped when the handshake requires the {@link #engine} to produce data.
+     */
+    private final static ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
+    /**
+     * {@link NioEventLoop} that drives the connection.
+     */
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Channel through which the encrypted data is sent and received.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * {@link SSLEngine} that encrypts and decrypts all data.
+     */
+    private final SSLEngine engine;
+
+    /**
+     * {@link FrameListener} that will be notified about all received frames.
+     */
+    private FrameListener frameListener;
+
+    /**
+     * Frames that are waiting to be encrypted, already prefixed with their length.
+     */
+    private final Queue<ByteBuffer> outgoingFrames;
+
+    /**
+     * Encrypted data that has been received but not yet decrypted. It is kept in write mode.
+     */
+    private ByteBuffer incomingNetworkData;
+
+    /**
+     * Decrypted data that does not yet form a complete frame. It is kept in write mode.
+     */
+    private ByteBuffer incomingApplicationData;
+
+    /**
+     * Encrypted data that is waiting to be written to {@link #channel}. It is kept in write mode.
+     */
+    private ByteBuffer outgoingNetworkData;
+
+    /**
+     * {@link SelectionKey} with which {@link #channel} has been registered.
+     */
+    private SelectionKey key;
+
+    /**
+     * If the connection has already been closed.
+     */
+    private final AtomicBoolean closed;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link TlsFrameConnection} over an already connected channel. The TLS handshake will begin as soon
+     * as it is registered in the {@link NioEventLoop}.
+     *
+     * @param eventLoop {@link NioEventLoop} that will drive the connection.
+     * @param channel   the connected channel, in non-blocking mode.
+     * @param engine    {@link SSLEngine} that has been configured for the connection.
+     */
+    TlsFrameConnection(NioEventLoop eventLoop, SocketChannel channel, SSLEngine engine) {
+
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.engine = engine;
+        this.outgoingFrames = new ConcurrentLinkedQueue<>();
+        this.closed = new AtomicBoolean(false);
+
+        int packetSize = engine.getSession().getPacketBufferSize();
+        int applicationSize = engine.getSession().getApplicationBufferSize();
+
+        this.incomingNetworkData = ByteBuffer.allocate(packetSize);
+        this.incomingApplicationData = ByteBuffer.allocate(applicationSize);
+        this.outgoingNetworkData = ByteBuffer.allocate(packetSize);
+    }
+
+
+    /* ----- Setters ----- */
+
+    /**
+     * Updates the value of {@link #frameListener}. It must be set before the connection is started.
+     *
+     * @param frameListener new {@link #frameListener}.
+     */
+    void setFrameListener(FrameListener frameListener) {
+        this.frameListener = frameListener;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Binds the connection to its key in the selector of its {@link NioEventLoop} and begins the TLS handshake. It
+     * must be called from the thread of the {@link NioEventLoop}.
+     *
+     * @param key {@link SelectionKey} with which {@link #channel} has been registered.
+     * @throws IOException if the handshake cannot begin.
+     */
+    void start(SelectionKey key) throws IOException {
+
+        this.key = key;
+        this.engine.beginHandshake();
+        process();
+    }
+
+    /**
+     * Queues the given frame so that it is sent through the connection. It may be called from any thread.
+     *
+     * @param frame contents of the frame.
+     * @throws IOException if the connection has been closed, or if the frame is too big.
+     */
+    public void sendFrame(byte[] frame) throws IOException {
+
+        if (frame.length > TlsFrameConnection.MAX_FRAME_SIZE) {
+            throw new IOException("The frame exceeds the maximum size: " + frame.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(TlsFrameConnection.LENGTH_PREFIX_SIZE + frame.length);
+        buffer.putInt(frame.length).put(frame).flip();
+
+        if (this.closed.get()) {
+            throw new IOException("The connection has already been closed");
+        }
+
+        this.outgoingFrames.add(buffer);
+
+        // The event loop will encrypt and write it as soon as possible
+        this.eventLoop.execute(() -> {
+            try {
+                process();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void handleSelection(SelectionKey key) throws IOException {
+
+        if (key.isReadable() && this.channel.read(this.incomingNetworkData) < 0) {
+            // The other end has closed the connection
+            close();
+            return;
+        }
+
+        process();
+    }
+
+    /**
+     * Advances the connection as much as possible without blocking: pending network data is written, the handshake
+     * progresses, received data is decrypted and delivered as frames, and queued frames are encrypted.
+     *
+     * @throws IOException if the channel or the TLS layer fails.
+     */
+    private void process() throws IOException {
+
+        while (!this.closed.get()) {
+
+            // 1. Any encrypted data that is waiting is written first; if the socket is full, nothing else can be done
+            // until it becomes writable again
+            if (!flushNetworkData()) {
+                break;
+            }
+
+            SSLEngineResult.HandshakeStatus status = this.engine.getHandshakeStatus();
+
+            // 2. The handshake is advanced
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = this.engine.getDelegatedTask()) != null) {
+                    task.run();
+                }
+                continue;
+            }
+
+            if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                wrap(TlsFrameConnection.EMPTY_BUFFER);
+                continue;
+            }
+
+            // 3. Received data is decrypted
+            boolean progress = unwrap();
+
+            // 4. Once the handshake has finished, complete frames are delivered and queued ones are encrypted
+            if (this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                deliverFrames();
+                progress |= wrapOutgoingFrame();
+            }
+
+            if (!progress) {
+                break;
+            }
+        }
+
+        updateInterestOps();
+    }
+
+    /**
+     * Writes to {@link #channel} as much of {@link #outgoingNetworkData} as possible.
+     *
+     * @return if all the data has been written.
+     * @throws IOException if the channel fails.
+     */
+    private boolean flushNetworkData() throws IOException {
+
+        this.outgoingNetworkData.flip();
+
+        try {
+            this.channel.write(this.outgoingNetworkData);
+            return !this.outgoingNetworkData.hasRemaining();
+
+        } finally {
+            this.outgoingNetworkData.compact();
+        }
+    }
+
+    /**
+     * Encrypts the given data into {@link #outgoingNetworkData}.
+     *
+     * @param source the data.
+     * @return if any data has been consumed or produced.
+     * @throws SSLException if the data cannot be encrypted.
+     */
+    private boolean wrap(ByteBuffer source) throws SSLException {
+
+        SSLEngineResult result = this.engine.wrap(source, this.outgoingNetworkData);
+
+        switch (result.getStatus()) {
+
+            case BUFFER_OVERFLOW:
+                // As the buffer is flushed before wrapping, it can only overflow if it is too small
+                this.outgoingNetworkData = enlarge(this.outgoingNetworkData,
+                        this.engine.getSession().getPacketBufferSize());
+                return true;
+
+            case CLOSED:
+                close();
+                return false;
+
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    /**
+     * Decrypts the data in {@link #incomingNetworkData} into {@link #incomingApplicationData}.
+     *
+     * @return if any data has been consumed or produced.
+     * @throws IOException if the data cannot be decrypted, or if the frame that is being received is too big.
+     */
+    private boolean unwrap() throws IOException {
+
+        this.incomingNetworkData.flip();
+        SSLEngineResult result;
+
+        try {
+            result = this.engine.unwrap(this.incomingNetworkData, this.incomingApplicationData);
+
+        } finally {
+            this.incomingNetworkData.compact();
+        }
+
+        switch (result.getStatus()) {
+
+            case BUFFER_OVERFLOW:
+                // The buffer only grows while it holds the beginning of a frame whose length is valid, so that the
+                // other end cannot make it grow without bounds
+                checkIncomingFrameLength();
+                this.incomingApplicationData = enlarge(this.incomingApplicationData,
+                        this.engine.getSession().getApplicationBufferSize());
+                return true;
+
+            case BUFFER_UNDERFLOW:
+                // A whole TLS record is needed; if it does not fit, the buffer must grow
+                if (!this.incomingNetworkData.hasRemaining()) {
+                    this.incomingNetworkData = enlarge(this.incomingNetworkData,
+                            this.engine.getSession().getPacketBufferSize());
+                }
+                return false;
+
+            case CLOSED:
+                close();
+                return false;
+
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    /**
+     * Encrypts the first frame in {@link #outgoingFrames}, or as much of it as fits in a TLS record.
+     *
+     * @return if any data has been encrypted.
+     * @throws SSLException if the frame cannot be encrypted.
+     */
+    private boolean wrapOutgoingFrame() throws SSLException {
+
+        ByteBuffer frame = this.outgoingFrames.peek();
+
+        if (frame == null) {
+            return false;
+        }
+
+        boolean progress = wrap(frame);
+
+        if (!frame.hasRemaining()) {
+            this.outgoingFrames.poll();
+        }
+
+        return progress;
+    }
+
+    /**
+     * Extracts all complete frames from {@link #incomingApplicationData} and delivers them to {@link #frameListener}.
+     *
+     * @throws IOException if a frame claims an invalid length.
+     */
+    private void deliverFrames() throws IOException {
+
+        this.incomingApplicationData.flip();
+
+        try {
+            while (this.incomingApplicationData.remaining() >= TlsFrameConnection.LENGTH_PREFIX_SIZE) {
+
+                int length = this.incomingApplicationData.getInt(this.incomingApplicationData.position());
+                checkFrameLength(length);
+
+                if (this.incomingApplicationData.remaining() < TlsFrameConnection.LENGTH_PREFIX_SIZE + length) {
+                    break;
+                }
+
+                byte[] frame = new byte[length];
+                this.incomingApplicationData.position(this.incomingApplicationData.position() +
+                        TlsFrameConnection.LENGTH_PREFIX_SIZE);
+                this.incomingApplicationData.get(frame);
+
+                this.frameListener.processFrame(this, frame);
+            }
+
+        } finally {
+            this.incomingApplicationData.compact();
+        }
+    }
+
+    /**
+     * Checks the length that the frame at the beginning of {@link #incomingApplicationData}, which is in write mode,
+     * claims, if it has already been received.
+     *
+     * @throws IOException if the length is not valid.
+     */
+    private void checkIncomingFrameLength() throws IOException {
+
+        if (this.incomingApplicationData.position() >= TlsFrameConnection.LENGTH_PREFIX_SIZE) {
+            checkFrameLength(this.incomingApplicationData.getInt(0));
+        }
+    }
+
+    /**
+     * Checks if the given length of a received frame is valid: it must not exceed the maximum size that {@link
+     * #frameListener} accepts.
+     *
+     * @param length the length.
+     * @throws IOException if the length is not valid.
+     */
+    private void checkFrameLength(int length) throws IOException {
+
+        if (length < 0 || length > this.frameListener.getMaxFrameSize()) {
+            throw new IOException("A received frame claims an invalid length: " + length);
+        }
+    }
+
+    /**
+     * Only listens for write readiness while there is encrypted data waiting, so that the selector does not spin.
+     */
+    private void updateInterestOps() {
+
+        if (this.key != null && this.key.isValid()) {
+            this.key.interestOps(this.outgoingNetworkData.position() > 0 ?
+                    SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Generates a bigger copy of the given buffer, which is in write mode.
+     *
+     * @param buffer  the buffer.
+     * @param minimum minimum amount of free space that the new buffer must have.
+     * @return the new buffer, in write mode.
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minimum) {
+
+        ByteBuffer result = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minimum));
+        buffer.flip();
+        result.put(buffer);
+
+        return result;
+    }
+
+    /**
+     * Retrieves the address of the other end of the connection.
+     *
+     * @return the address, or an empty {@link String} if it is not known.
+     */
+    public String getRemoteAddress() {
+
+        try {
+            return String.valueOf(this.channel.getRemoteAddress());
+
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Checks if the connection has been closed.
+     *
+     * @return if it has been closed.
+     */
+    public boolean isClosed() {
+        return this.closed.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+
+        // It may be closed concurrently by the event loop and by any other thread
+        if (!this.closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        this.outgoingFrames.clear();
+
+        try {
+            this.channel.close();
+
+        } catch (IOException e) {
+            System.err.println("A TLS connection could not be closed cleanly");
+        }
+
+        this.frameListener.processClosure(this);
+    }
+}
@@ -51,18 +51,75 @@ public class AbstractController {
      * @throws IOException if the FXML file cannot be loaded.
      */
     public AbstractController loadNewScene(String fxmlFile) throws IOException {
+        return showScene(prepareScene(fxmlFile));
+    }
+
+    /**
+     * Loads the specified scene without showing it, and applies its stylesheets. As the scene is not attached to any
+     * window yet, it may be called from any thread, so that the scene is ready by the time it is needed.
+     *
+     * @param fxmlFile filename where the scene is defined.
+     * @return the {@link PreparedScene}.
+     * @throws IOException if the FXML file cannot be loaded.
+     */
+    public PreparedScene prepareScene(String fxmlFile) throws IOException {
 
         FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlFile));
         Parent root = loader.load();
-        AbstractController controller = loader.getController();
 
         Scene scene = new Scene(root);
-        this.stage.setScene(scene);
+
+        // The stylesheets are parsed and their styles are resolved now, instead of when the scene gets shown
+        root.applyCss();
+
+        return new PreparedScene(scene, loader.getController());
+    }
+
+    /**
+     * Loads into the Javagram window the given scene, which has been prepared previously. It must be called from the
+     * JavaFX thread.
+     *
+     * @param preparedScene the {@link PreparedScene}.
+     * @return the controller of the new scene.
+     */
+    public AbstractController showScene(PreparedScene preparedScene) {
+
+        this.stage.setScene(preparedScene.scene);
         this.stage.show();
 
         // The next scene's controller may require to modify the current scene
-        controller.setStage(this.stage);
+        preparedScene.controller.setStage(this.stage);
 
-        return controller;
+        return preparedScene.controller;
+    }
+
+
+    /* ----- Nested classes ----- */
+
+    /**
+     * A scene that has been loaded, but that has not been shown yet.
+     */
+    public static class PreparedScene {
+
+        /**
+         * The scene.
+         */
+        private final Scene scene;
+
+        /**
+         * The scene's controller.
+         */
+        private final AbstractController controller;
+
+        /**
+         * Initializes a {@link PreparedScene}.
+         *
+         * @param scene      the scene.
+         * @param controller the scene's controller.
+         */
+        private PreparedScene(Scene scene, AbstractController controller) {
+            this.scene = scene;
+            this.controller = controller;
+        }
     }
 }
@@ -0,0 +1,141 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import javafx.geometry.NodeOrientation;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.OverrunStyle;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.TextFlow;
+
+/**
+ * This class builds the views of the cells that are shown in the main window, that is, messages and user entries.
+ * They used to be defined in FXML files, but each load parses the XML file again and wires the controller through
+ * reflection, which is far more expensive than building the same nodes in code. Therefore, their layout is now defined
+ * here, and their style is still taken from the main window's stylesheet.
+ */
+final class CellViewFactory {
+
+    /* ----- Constructor ----- */
+
+    /**
+     * The class only contains static methods.
+     */
+    private CellViewFactory() {
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Builds the view of a message.
+     *
+     * @param outgoing if the message will be one sent by the client, rather than received.
+     * @return the {@link MessageController} of the new view.
+     */
+    static MessageController createMessageView(boolean outgoing) {
+
+        // 1. The message's contents, inside a bubble
+        Label content = new Label();
+        content.setMaxWidth(400.0);
+        content.setWrapText(true);
+        content.setTextOverrun(OverrunStyle.CLIP);
+        content.getStyleClass().add("messageText");
+
+        TextFlow bubble = new TextFlow(content);
+        bubble.setMinSize(80.0, 30.0);
+        bubble.setNodeOrientation(NodeOrientation.LEFT_TO_RIGHT);
+        bubble.getStyleClass().add(outgoing ? "outgoingMessage" : "incomingMessage");
+
+        HBox contentContainer = new HBox(bubble);
+        contentContainer.setMinHeight(Region.USE_PREF_SIZE);
+        contentContainer.setPrefHeight(30.0);
+
+        // 2. When it was sent or received, below the bubble
+        Label time = new Label();
+        time.getStyleClass().add("dateText");
+
+        HBox timeContainer = new HBox(time);
+        timeContainer.setAlignment(Pos.CENTER_RIGHT);
+        timeContainer.setMinHeight(Region.USE_PREF_SIZE);
+        timeContainer.setMaxHeight(Region.USE_PREF_SIZE);
+        timeContainer.setPrefHeight(30.0);
+
+        VBox messageContainer = new VBox(contentContainer, timeContainer);
+        messageContainer.setMinHeight(Region.USE_PREF_SIZE);
+        messageContainer.setPrefHeight(60.0);
+
+        // 3. And the whole message, aligned depending on who sent it
+        HBox root = new HBox(messageContainer);
+        root.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        root.setMaxWidth(Region.USE_PREF_SIZE);
+        root.setPrefSize(842.0, 60.0);
+        root.getStyleClass().add("message");
+
+        if (outgoing) {
+            root.setAlignment(Pos.TOP_RIGHT);
+        }
+
+        return new MessageController(root, content, time);
+    }
+
+    /**
+     * Builds the view of an user entry.
+     *
+     * @param mainWindowController {@link MainWindowController} that will handle the clicks in the entry.
+     * @return the {@link UserEntryController} of the new view.
+     */
+    static UserEntryController createUserEntryView(MainWindowController mainWindowController) {
+
+        // 1. The header and the description, one above the other
+        Label header = new Label();
+        header.getStyleClass().add("headerText");
+
+        HBox headerContainer = new HBox(header);
+        headerContainer.setAlignment(Pos.CENTER_LEFT);
+        headerContainer.setPrefSize(280.0, 30.0);
+
+        Label description = new Label();
+        description.getStyleClass().add("descriptionText");
+
+        HBox descriptionContainer = new HBox(description);
+        descriptionContainer.setAlignment(Pos.CENTER_LEFT);
+        descriptionContainer.setPrefSize(280.0, 30.0);
+
+        VBox textContainer = new VBox(headerContainer, descriptionContainer);
+        textContainer.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        textContainer.setPrefSize(250.0, 60.0);
+
+        HBox leftContainer = new HBox(textContainer);
+        leftContainer.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        leftContainer.setPrefSize(280.0, 60.0);
+        leftContainer.getStyleClass().add("leftContainer");
+
+        // 2. The unread messages' counter, at the right
+        Label counter = new Label();
+        counter.getStyleClass().add("counter");
+
+        VBox rightContainer = new VBox(counter);
+        rightContainer.setAlignment(Pos.CENTER);
+        rightContainer.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        rightContainer.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        rightContainer.setPrefSize(50.0, 60.0);
+        rightContainer.getStyleClass().add("rightContainer");
+
+        // 3. And the whole entry, which forwards the user's clicks
+        HBox entryContainer = new HBox(leftContainer, rightContainer);
+        entryContainer.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        entryContainer.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        entryContainer.setPrefSize(320.0, 60.0);
+        entryContainer.getStyleClass().add("sidebarItem");
+
+        UserEntryController controller = new UserEntryController(entryContainer, header, description, counter);
+        controller.setMainWindowController(mainWindowController);
+
+        entryContainer.setOnMouseClicked(controller::handleClick);
+        entryContainer.setOnContextMenuRequested(controller::handleRightClick);
+
+        return controller;
+    }
+}
@@ -1,70 +1,333 @@
 package com.goldardieste.javagram.desktopapp.identifieduser;
 
+import com.goldardieste.javagram.common.ConfigurationParameters;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This class acts as a wrapper for a sent or received Javagram message, so that the desktop app may regenerate any
  * chat history on demand. The access to this class' values is not thread-safe by default.
+ * <p>
+ * Each message is addressed by its sequence number, which starts at 0 and increases with every stored message. In
+ * order to keep long chat histories compact, messages are not kept as objects: their directions and timestamps are
+ * held in primitive arrays, and their contents are appended as UTF-8 bytes to chunks of memory, which get larger as
+ * the history grows. Only the most recent messages are kept in memory (see {@link
+ * ConfigurationParameters#CHAT_HISTORY_MEMORY_MESSAGES}); the older ones are dropped, as they remain available in the
+ * {@link ChatHistoryStore}.
  */
 public class ChatHistory {
 
     /* ----- Attributes ----- */
 
     /**
-     * Contains all the received or sent messages in the chat history in chronological order.
+     * Size in bytes of the first chunk where the contents of the messages are stored; each new chunk doubles the
+     * previous one, up to {@link #MAXIMUM_CHUNK_SIZE}, so that short chats do not reserve a large chunk.
      */
-    private final List<String> messages;
+    private final static int INITIAL_CHUNK_SIZE = 256;
 
     /**
-     * Contains one entry for each message in {@link #messages}, in the same order, to determine if the message was
-     * sent by the client or if it was received from a remote user.
+     * Maximum size in bytes of the chunks where the contents of the messages are stored, unless a single message
+     * needs a bigger one.
      */
-    private final List<Boolean> outgoing;
+    private final static int MAXIMUM_CHUNK_SIZE = 64 * 1024;
 
+    /**
+     * Initial amount of messages for which room is reserved.
+     */
+    private final static int INITIAL_CAPACITY = 16;
 
-    /* ----- Constructor ----- */
+    /**
+     * Maximum amount of messages that will be kept in memory.
+     */
+    private final int maximumMessages;
 
     /**
-     * Initializes an empty {@link ChatHistory}.
+     * Sequence number of the oldest message that is kept in memory.
+     */
+    private long firstSequence;
+
+    /**
+     * Amount of messages that are kept in memory.
+     */
+    private int size;
+
+    /**
+     * Position in the arrays of the oldest message that is kept in memory; they are used as circular buffers.
+     */
+    private int head;
+
+    /**
+     * For each message, if it was sent by the client or if it was received from a remote user.
+     */
+    private boolean[] outgoing;
+
+    /**
+     * For each message, when it was sent or received, in milliseconds since the epoch.
+     */
+    private long[] timestamps;
+
+    /**
+     * For each message, number of the chunk where its contents are stored.
+     */
+    private int[] chunkNumbers;
+
+    /**
+     * For each message, offset of its contents within its chunk.
+     */
+    private int[] offsets;
+
+    /**
+     * For each message, length in bytes of its contents.
+     */
+    private int[] lengths;
+
+    /**
+     * Chunks where the contents of the messages that are kept in memory are stored, from the oldest to the newest.
+     */
+    private final List<byte[]> chunks;
+
+    /**
+     * Number of the oldest chunk in {@link #chunks}.
+     */
+    private int firstChunkNumber;
+
+    /**
+     * Offset where the next contents will be written in the newest chunk.
+     */
+    private int chunkPosition;
+
+    /**
+     * Size in bytes of the next chunk that will be allocated.
+     */
+    private int nextChunkSize;
+
+
+    /* ----- Constructor(s) ----- */
+
+    /**
+     * Initializes an empty {@link ChatHistory} that keeps in memory up to {@link
+     * ConfigurationParameters#CHAT_HISTORY_MEMORY_MESSAGES} messages.
      */
     public ChatHistory() {
-        this.messages = new ArrayList<>();
-        this.outgoing = new ArrayList<>();
+        this(ConfigurationParameters.CHAT_HISTORY_MEMORY_MESSAGES);
+    }
+
+    /**
+     * Initializes an empty {@link ChatHistory}.
+     *
+     * @param maximumMessages maximum amount of messages that will be kept in memory.
+     */
+    public ChatHistory(int maximumMessages) {
+
+        if (maximumMessages < 1) {
+            throw new IllegalArgumentException("At least one message must be kept in memory");
+        }
+
+        this.maximumMessages = maximumMessages;
+
+        int capacity = Math.min(ChatHistory.INITIAL_CAPACITY, maximumMessages);
+        this.outgoing = new boolean[capacity];
+        this.timestamps = new long[capacity];
+        this.chunkNumbers = new int[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+
+        this.chunks = new ArrayList<>();
+        // No chunk exists yet, so the first message will create one
+        this.chunkPosition = 0;
+        this.firstChunkNumber = 0;
+        this.nextChunkSize = ChatHistory.INITIAL_CHUNK_SIZE;
     }
 
 
     /* ----- Getters ----- */
 
     /**
-     * Retrieves the current {@link #messages}.
+     * Retrieves the sequence number of the oldest message that is kept in memory.
+     *
+     * @return the sequence number.
+     */
+    public long getFirstSequence() {
+        return this.firstSequence;
+    }
+
+    /**
+     * Retrieves the sequence number that the next message will get.
      *
-     * @return {@link #messages}.
+     * @return the sequence number.
      */
-    public List<String> getMessages() {
-        return messages;
+    public long getNextSequence() {
+        return this.firstSequence + this.size;
     }
 
     /**
-     * Retrieves the current {@link #outgoing}.
+     * Retrieves the amount of messages that are kept in memory.
      *
-     * @return {@link #outgoing}.
+     * @return the amount of messages.
      */
-    public List<Boolean> getOutgoing() {
-        return outgoing;
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Retrieves the contents of the specified message.
+     *
+     * @param sequence sequence number of the message.
+     * @return the message's contents.
+     * @throws IndexOutOfBoundsException if the message is not kept in memory.
+     */
+    public String getMessage(long sequence) {
+
+        int position = toPosition(sequence);
+
+        byte[] chunk = this.chunks.get(this.chunkNumbers[position] - this.firstChunkNumber);
+
+        return new String(chunk, this.offsets[position], this.lengths[position], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks if the specified message was sent by the client.
+     *
+     * @param sequence sequence number of the message.
+     * @return if the message was sent by the client.
+     * @throws IndexOutOfBoundsException if the message is not kept in memory.
+     */
+    public boolean isOutgoing(long sequence) {
+        return this.outgoing[toPosition(sequence)];
+    }
+
+    /**
+     * Retrieves when the specified message was sent or received.
+     *
+     * @param sequence sequence number of the message.
+     * @return milliseconds since the epoch.
+     * @throws IndexOutOfBoundsException if the message is not kept in memory.
+     */
+    public long getTimestamp(long sequence) {
+        return this.timestamps[toPosition(sequence)];
     }
 
 
     /* ----- Methods ----- */
 
     /**
-     * Stores the given message.
+     * Stores the given message, which has just been sent or received.
      *
      * @param message  contents of the message
      * @param outgoing if the message was sent by the client.
      */
     public void addMessage(String message, boolean outgoing) {
-        this.messages.add(message);
-        this.outgoing.add(outgoing);
+        addMessage(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), outgoing, System.currentTimeMillis());
+    }
+
+    /**
+     * Stores the given message.
+     *
+     * @param contents  remaining bytes of the buffer, which contain the message's contents encoded in UTF-8.
+     * @param outgoing  if the message was sent by the client.
+     * @param timestamp when the message was sent or received, in milliseconds since the epoch.
+     */
+    void addMessage(ByteBuffer contents, boolean outgoing, long timestamp) {
+
+        // 1. The oldest message is dropped if the history is full; otherwise, there must be room for one more
+        if (this.size == this.maximumMessages) {
+            dropOldestMessage();
+        } else if (this.size == this.outgoing.length) {
+            grow();
+        }
+
+        // 2. Its contents are appended to the newest chunk, unless they do not fit, in which case a new chunk is
+        //    allocated; large messages get a chunk of their own, and even an empty one needs a chunk to refer to
+        int length = contents.remaining();
+
+        if (this.chunks.isEmpty() || length > this.chunks.get(this.chunks.size() - 1).length - this.chunkPosition) {
+            this.chunks.add(new byte[Math.max(this.nextChunkSize, length)]);
+            this.chunkPosition = 0;
+            this.nextChunkSize = Math.min(this.nextChunkSize * 2, ChatHistory.MAXIMUM_CHUNK_SIZE);
+        }
+
+        contents.get(this.chunks.get(this.chunks.size() - 1), this.chunkPosition, length);
+
+        // 3. And it is registered
+        int position = (this.head + this.size) % this.outgoing.length;
+
+        this.outgoing[position] = outgoing;
+        this.timestamps[position] = timestamp;
+        this.chunkNumbers[position] = this.firstChunkNumber + this.chunks.size() - 1;
+        this.offsets[position] = this.chunkPosition;
+        this.lengths[position] = length;
+
+        this.chunkPosition += length;
+        this.size++;
+    }
+
+    /**
+     * Removes the oldest message from memory, along with the chunks that only it was using.
+     */
+    private void dropOldestMessage() {
+
+        this.head = (this.head + 1) % this.outgoing.length;
+        this.size--;
+        this.firstSequence++;
+
+        // Chunks are always released from the oldest one
+        int oldestUsedChunk = this.size > 0 ? this.chunkNumbers[this.head] :
+                this.firstChunkNumber + this.chunks.size() - 1;
+
+        if (this.firstChunkNumber < oldestUsedChunk) {
+            this.chunks.subList(0, oldestUsedChunk - this.firstChunkNumber).clear();
+            this.firstChunkNumber = oldestUsedChunk;
+        }
+    }
+
+    /**
+     * Doubles the room that is reserved for messages, without exceeding {@link #maximumMessages}.
+     */
+    private void grow() {
+
+        int capacity = (int) Math.min((long) this.outgoing.length * 2, this.maximumMessages);
+
+        boolean[] newOutgoing = new boolean[capacity];
+        long[] newTimestamps = new long[capacity];
+        int[] newChunkNumbers = new int[capacity];
+        int[] newOffsets = new int[capacity];
+        int[] newLengths = new int[capacity];
+
+        // The circular buffers are unrolled so that the oldest message ends up at the beginning
+        for (int i = 0; i < this.size; i++) {
+            int position = (this.head + i) % this.outgoing.length;
+
+            newOutgoing[i] = this.outgoing[position];
+            newTimestamps[i] = this.timestamps[position];
+            newChunkNumbers[i] = this.chunkNumbers[position];
+            newOffsets[i] = this.offsets[position];
+            newLengths[i] = this.lengths[position];
+        }
+
+        this.outgoing = newOutgoing;
+        this.timestamps = newTimestamps;
+        this.chunkNumbers = newChunkNumbers;
+        this.offsets = newOffsets;
+        this.lengths = newLengths;
+        this.head = 0;
+    }
+
+    /**
+     * Translates a sequence number into the position of the message in the circular buffers.
+     *
+     * @param sequence sequence number of the message.
+     * @return its position.
+     * @throws IndexOutOfBoundsException if the message is not kept in memory.
+     */
+    private int toPosition(long sequence) {
+
+        if (sequence < this.firstSequence || sequence >= getNextSequence()) {
+            throw new IndexOutOfBoundsException("The message " + sequence + " is not kept in memory");
+        }
+
+        return (int) ((this.head + (sequence - this.firstSequence)) % this.outgoing.length);
     }
 }
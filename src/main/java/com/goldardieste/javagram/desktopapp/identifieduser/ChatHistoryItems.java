@@ -0,0 +1,149 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class exposes a {@link ChatHistory} to the messages' {@link javafx.scene.control.ListView} without copying it:
+ * each item is the sequence number of a message that is kept in memory, and the {@link MessageCell}s read its contents
+ * only when they become visible. Therefore, showing a chat costs the same no matter how many messages it contains.
+ * <p>
+ * The items only change, on the JavaFX thread, when {@link #synchronize()} is called; then, the messages that have been
+ * added to or dropped from the {@link ChatHistory} are notified as incremental changes. The access to the {@link
+ * ChatHistory} is synchronized on its own monitor, as other threads may keep adding messages to it.
+ */
+public class ChatHistoryItems extends ObservableListBase<Long> {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * The {@link ChatHistory} that is being shown.
+     */
+    private final ChatHistory chatHistory;
+
+    /**
+     * Sequence number of the first item.
+     */
+    private long firstSequence;
+
+    /**
+     * Sequence number that follows the last item.
+     */
+    private long nextSequence;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link ChatHistoryItems} that contains all the messages that the given {@link ChatHistory} keeps in
+     * memory.
+     *
+     * @param chatHistory the {@link ChatHistory}.
+     */
+    public ChatHistoryItems(ChatHistory chatHistory) {
+
+        this.chatHistory = chatHistory;
+
+        synchronized (chatHistory) {
+            this.firstSequence = chatHistory.getFirstSequence();
+            this.nextSequence = chatHistory.getNextSequence();
+        }
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #chatHistory}.
+     *
+     * @return {@link #chatHistory}.
+     */
+    public ChatHistory getChatHistory() {
+        return chatHistory;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Long get(int index) {
+
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        return this.firstSequence + index;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return (int) (this.nextSequence - this.firstSequence);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Updates the items so that they match the messages that {@link #chatHistory} currently keeps in memory. Only the
+     * differences are notified to the listeners, so the cost depends on how many messages have changed rather than on
+     * the size of the chat. It must be called from the JavaFX thread.
+     *
+     * @return if any item has changed.
+     */
+    public boolean synchronize() {
+
+        long newFirstSequence;
+        long newNextSequence;
+
+        synchronized (this.chatHistory) {
+            newFirstSequence = this.chatHistory.getFirstSequence();
+            newNextSequence = this.chatHistory.getNextSequence();
+        }
+
+        if (newFirstSequence == this.firstSequence && newNextSequence == this.nextSequence) {
+            return false;
+        }
+
+        beginChange();
+
+        try {
+            // 1. The oldest messages that have been dropped are removed from the beginning
+            long droppedUntil = Math.min(newFirstSequence, this.nextSequence);
+
+            if (droppedUntil > this.firstSequence) {
+
+                List<Long> removed = new ArrayList<>((int) (droppedUntil - this.firstSequence));
+                for (long sequence = this.firstSequence; sequence < droppedUntil; sequence++) {
+                    removed.add(sequence);
+                }
+
+                this.firstSequence = droppedUntil;
+                nextRemove(0, removed);
+            }
+
+            // 2. And the new ones are appended at the end; if all the previous items were dropped, the remaining ones
+            //    start right at the new first message
+            if (this.firstSequence == this.nextSequence) {
+                this.firstSequence = newFirstSequence;
+                this.nextSequence = newFirstSequence;
+            }
+
+            int from = size();
+            this.nextSequence = newNextSequence;
+
+            if (size() > from) {
+                nextAdd(from, size());
+            }
+
+        } finally {
+            endChange();
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,182 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import com.goldardieste.javagram.common.ConfigurationParameters;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class keeps on disk the chat histories of the user that has logged in, so that they survive the session and do
+ * not need to be held entirely in memory. Each conversation is stored in its own {@link ConversationLog}, under
+ * "{@link ConfigurationParameters#CHAT_HISTORY_DIRECTORY}/[user]/[remote user]".
+ */
+public class ChatHistoryStore {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Directory where the conversations of the identified user are stored.
+     */
+    private final Path directory;
+
+    /**
+     * Contains the conversations that have been opened.
+     * <p>
+     * Key -> name by which the remote user can be identified.
+     * Value -> the {@link ConversationLog}.
+     */
+    private final Map<String, ConversationLog> conversations;
+
+    /**
+     * This lock must be acquired to access {@link #conversations}, along with any {@link ConversationLog}.
+     */
+    private final ReentrantLock conversationsLock;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link ChatHistoryStore} for the given user, creating its directory if needed.
+     *
+     * @param identifiedUser name by which the user that has logged in can be identified.
+     * @throws IOException if the directory cannot be created.
+     */
+    public ChatHistoryStore(String identifiedUser) throws IOException {
+
+        this.directory = Paths.get(ConfigurationParameters.CHAT_HISTORY_DIRECTORY, toFileName(identifiedUser));
+        this.conversations = new HashMap<>();
+        this.conversationsLock = new ReentrantLock();
+
+        // Only the user may read his chat history
+        ConversationLog.createPrivateDirectories(this.directory);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Appends the given messages to the conversation with the specified remote user.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param messages   contents of the messages, in chronological order.
+     * @param outgoing   if the messages have been sent by the client.
+     * @throws IOException if the messages cannot be stored.
+     */
+    public void append(String remoteUser, List<String> messages, boolean outgoing) throws IOException {
+
+        long timestamp = System.currentTimeMillis();
+
+        this.conversationsLock.lock();
+
+        try {
+            ConversationLog conversation = retrieveConversation(remoteUser, true);
+
+            for (String message : messages) {
+                conversation.append(message, outgoing, timestamp);
+            }
+
+        } finally {
+            // The lock must always be released
+            this.conversationsLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the last messages of the conversation with the specified remote user into the given {@link ChatHistory}.
+     * Only the requested messages are read, no matter how long the conversation is.
+     *
+     * @param remoteUser  name by which the remote user can be identified.
+     * @param amount      how many messages will be read at most.
+     * @param chatHistory {@link ChatHistory} where the messages will be added, in chronological order.
+     * @throws IOException if the messages cannot be read.
+     */
+    public void loadLast(String remoteUser, int amount, ChatHistory chatHistory) throws IOException {
+
+        this.conversationsLock.lock();
+
+        try {
+            ConversationLog conversation = retrieveConversation(remoteUser, false);
+
+            if (conversation != null) {
+                conversation.readLast(amount, chatHistory);
+            }
+
+        } finally {
+            // The lock must always be released
+            this.conversationsLock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the {@link ConversationLog} with the specified remote user, opening it if needed. The lock {@link
+     * #conversationsLock} must be held.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param create     if the conversation must be created when it has not been stored yet.
+     * @return the {@link ConversationLog}; null if it has not been stored yet and it must not be created.
+     * @throws IOException if the conversation cannot be opened.
+     */
+    private ConversationLog retrieveConversation(String remoteUser, boolean create) throws IOException {
+
+        ConversationLog conversation = this.conversations.get(remoteUser);
+
+        if (conversation == null) {
+
+            Path conversationDirectory = this.directory.resolve(toFileName(remoteUser));
+
+            if (!create && !Files.isDirectory(conversationDirectory)) {
+                return null;
+            }
+
+            conversation = new ConversationLog(conversationDirectory);
+            this.conversations.put(remoteUser, conversation);
+        }
+
+        return conversation;
+    }
+
+    /**
+     * Flushes all the opened conversations to disk and releases them.
+     */
+    public void close() {
+
+        this.conversationsLock.lock();
+
+        try {
+            for (ConversationLog conversation : this.conversations.values()) {
+                conversation.close();
+            }
+
+            this.conversations.clear();
+
+        } finally {
+            // The lock must always be released
+            this.conversationsLock.unlock();
+        }
+    }
+
+    /**
+     * Generates a file name that safely represents the given username in any file system, as usernames may contain
+     * characters that are not allowed in paths or that differ only in their case.
+     *
+     * @param username the username.
+     * @return its UTF-8 bytes in hexadecimal.
+     */
+    private static String toFileName(String username) {
+
+        StringBuilder name = new StringBuilder();
+
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            name.append(String.format("%02x", b));
+        }
+
+        return name.toString();
+    }
+}
@@ -0,0 +1,558 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import com.goldardieste.javagram.common.ConfigurationParameters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class stores on disk the messages of a single conversation as an append-only log. The log is split into
+ * segments, each of them made of two memory-mapped files:
+ * <p>
+ * - "[first sequence number].log": the records, one after another: [length (4 bytes)][outgoing (1 byte)][timestamp
+ * (8 bytes)][UTF-8 contents].
+ * - "[first sequence number].idx": for each record, the offset (4 bytes) where it ends in the ".log" file.
+ * <p>
+ * Each message is thus addressed by its sequence number, and any of them can be located without reading the previous
+ * ones. Only the last segment stays mapped, so the pages of the older ones can be released once they are flushed.
+ * The access to this class is not thread-safe.
+ */
+class ConversationLog {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Extension of the files that contain the records of each segment.
+     */
+    private final static String DATA_EXTENSION = ".log";
+
+    /**
+     * Extension of the files that contain the index of each segment.
+     */
+    private final static String INDEX_EXTENSION = ".idx";
+
+    /**
+     * Size in bytes of the fields that precede the contents of each record.
+     */
+    private final static int RECORD_HEADER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+
+    /**
+     * Size in bytes with which the ".log" file of a new segment starts; it is doubled whenever it gets full, up to
+     * {@link ConfigurationParameters#CHAT_HISTORY_SEGMENT_SIZE}, so that short conversations take little disk.
+     */
+    private final static int INITIAL_SEGMENT_SIZE = 16 * 1024;
+
+    /**
+     * Amount of messages that the ".idx" file of a new segment can index at first; it is doubled whenever it gets
+     * full, up to {@link ConfigurationParameters#CHAT_HISTORY_SEGMENT_ENTRIES}.
+     */
+    private final static int INITIAL_SEGMENT_ENTRIES = 256;
+
+    /**
+     * Maximum amount of older segments whose mappings are kept to be read again.
+     */
+    private final static int CACHED_SEGMENTS = 4;
+
+    /**
+     * Permissions of the directories of the chat history, so that only their owner may access them.
+     */
+    private final static Set<PosixFilePermission> DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+    /**
+     * Permissions of the files of the chat history, so that only their owner may read them.
+     */
+    private final static Set<PosixFilePermission> FILE_PERMISSIONS = PosixFilePermissions.fromString("rw-------");
+
+    /**
+     * Directory where the segments are stored.
+     */
+    private final Path directory;
+
+    /**
+     * Sequence number of the first message of each segment, in ascending order.
+     */
+    private final List<Long> segments;
+
+    /**
+     * The last segment, where new messages are appended.
+     */
+    private Segment activeSegment;
+
+    /**
+     * Read-only segments that have been read most recently, other than {@link #activeSegment}, so that paging back
+     * through a long conversation does not map them again on each read. Only {@link #CACHED_SEGMENTS} are kept; the
+     * mappings of the evicted ones are released once they are no longer referenced.
+     * <p>
+     * Key -> sequence number of the segment's first message.
+     * Value -> the {@link Segment}.
+     */
+    private final Map<Long, Segment> cachedSegments;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link ConversationLog} that stores its segments in the given directory, creating it if needed.
+     *
+     * @param directory the directory.
+     * @throws IOException if the directory or its segments cannot be opened.
+     */
+    ConversationLog(Path directory) throws IOException {
+
+        this.directory = directory;
+        this.segments = new ArrayList<>();
+        this.cachedSegments = new LinkedHashMap<>(ConversationLog.CACHED_SEGMENTS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Segment> eldest) {
+                return size() > ConversationLog.CACHED_SEGMENTS;
+            }
+        };
+
+        ConversationLog.createPrivateDirectories(directory);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                "*" + ConversationLog.DATA_EXTENSION)) {
+
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+
+                try {
+                    this.segments.add(Long.parseLong(name.substring(0,
+                            name.length() - ConversationLog.DATA_EXTENSION.length())));
+
+                } catch (NumberFormatException e) {
+                    System.err.println("An unknown file has been found in the chat history: " + file);
+                }
+            }
+        }
+
+        Collections.sort(this.segments);
+
+        if (this.segments.isEmpty()) {
+            this.segments.add(0L);
+        }
+
+        this.activeSegment = Segment.open(directory, this.segments.get(this.segments.size() - 1), 0, true);
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves how many messages have been stored, which is also the sequence number that the next one will get.
+     *
+     * @return the amount of messages.
+     */
+    long getMessagesCount() {
+        return this.activeSegment.baseSequence + this.activeSegment.count;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Appends the given message to the log.
+     *
+     * @param message   contents of the message.
+     * @param outgoing  if the message was sent by the client.
+     * @param timestamp when the message was sent or received, in milliseconds since the epoch.
+     * @throws IOException if the message cannot be stored.
+     */
+    void append(String message, boolean outgoing, long timestamp) throws IOException {
+
+        byte[] contents = message.getBytes(StandardCharsets.UTF_8);
+
+        if (!this.activeSegment.append(contents, outgoing, timestamp)) {
+
+            // The active segment is full, so its pages are flushed and a new one is started; if it is still empty,
+            // the message is too large for it, and it gets enlarged instead
+            this.activeSegment.flush();
+
+            long baseSequence = getMessagesCount();
+
+            if (baseSequence != this.activeSegment.baseSequence) {
+                this.segments.add(baseSequence);
+            }
+
+            this.activeSegment = Segment.open(this.directory, baseSequence,
+                    ConversationLog.RECORD_HEADER_SIZE + contents.length, true);
+
+            if (!this.activeSegment.append(contents, outgoing, timestamp)) {
+                throw new IOException("The message does not fit in a new segment");
+            }
+        }
+    }
+
+    /**
+     * Reads the specified messages, in chronological order, into the given {@link ChatHistory}.
+     *
+     * @param firstSequence sequence number of the first message that will be read.
+     * @param amount        how many messages will be read at most.
+     * @param chatHistory   {@link ChatHistory} where the messages will be added.
+     * @throws IOException if the messages cannot be read.
+     */
+    void read(long firstSequence, int amount, ChatHistory chatHistory) throws IOException {
+
+        long sequence = Math.max(firstSequence, 0);
+        long end = Math.min(sequence + amount, getMessagesCount());
+
+        // 1. The segment that contains the first message is located
+        int position = Collections.binarySearch(this.segments, sequence);
+        if (position < 0) {
+            position = -position - 2;
+        }
+
+        // 2. Its messages are read, continuing with the following segments if needed
+        while (sequence < end) {
+
+            long baseSequence = this.segments.get(position);
+            Segment segment = baseSequence == this.activeSegment.baseSequence ? this.activeSegment :
+                    retrieveOlderSegment(baseSequence);
+
+            for (; sequence < end && sequence < baseSequence + segment.count; sequence++) {
+                segment.read((int) (sequence - baseSequence), chatHistory);
+            }
+
+            position++;
+        }
+    }
+
+    /**
+     * Retrieves a read-only mapping of the older segment that begins with the given sequence number, from {@link
+     * #cachedSegments} if it has been read recently.
+     *
+     * @param baseSequence sequence number of the segment's first message.
+     * @return the {@link Segment}.
+     * @throws IOException if the segment's files cannot be mapped.
+     */
+    private Segment retrieveOlderSegment(long baseSequence) throws IOException {
+
+        Segment segment = this.cachedSegments.get(baseSequence);
+
+        if (segment == null) {
+            segment = Segment.open(this.directory, baseSequence, 0, false);
+            this.cachedSegments.put(baseSequence, segment);
+        }
+
+        return segment;
+    }
+
+    /**
+     * Reads the last messages, in chronological order, into the given {@link ChatHistory}.
+     *
+     * @param amount      how many messages will be read at most.
+     * @param chatHistory {@link ChatHistory} where the messages will be added.
+     * @throws IOException if the messages cannot be read.
+     */
+    void readLast(int amount, ChatHistory chatHistory) throws IOException {
+        read(getMessagesCount() - amount, amount, chatHistory);
+    }
+
+    /**
+     * Flushes the messages to disk and releases the log.
+     */
+    void close() {
+        this.activeSegment.flush();
+        this.cachedSegments.clear();
+    }
+
+    /**
+     * Creates the given directory, along with any missing parent, so that only its owner may access it if the file
+     * system allows it. If the directory already exists, its permissions are restricted as well.
+     *
+     * @param directory the directory.
+     * @throws IOException if the directory cannot be created.
+     */
+    static void createPrivateDirectories(Path directory) throws IOException {
+
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(directory,
+                    PosixFilePermissions.asFileAttribute(ConversationLog.DIRECTORY_PERMISSIONS));
+            Files.setPosixFilePermissions(directory, ConversationLog.DIRECTORY_PERMISSIONS);
+
+        } else {
+            // The file system does not support POSIX permissions, so the default ones are kept
+            Files.createDirectories(directory);
+        }
+    }
+
+
+    /* ----- Nested classes ----- */
+
+    /**
+     * A segment of the log, whose files are mapped into memory.
+     */
+    private static class Segment {
+
+        /**
+         * Sequence number of the segment's first message.
+         */
+        private final long baseSequence;
+
+        /**
+         * The ".log" file.
+         */
+        private final Path dataFile;
+
+        /**
+         * The ".idx" file.
+         */
+        private final Path indexFile;
+
+        /**
+         * Mapping of {@link #dataFile}; it is replaced by a bigger one whenever the segment grows.
+         */
+        private MappedByteBuffer data;
+
+        /**
+         * Mapping of {@link #indexFile}; it is replaced by a bigger one whenever the segment grows.
+         */
+        private MappedByteBuffer index;
+
+        /**
+         * Amount of messages stored in the segment.
+         */
+        private int count;
+
+        /**
+         * Offset where the next record will be written.
+         */
+        private int dataPosition;
+
+        /**
+         * Initializes a {@link Segment} from its mapped files.
+         *
+         * @param baseSequence sequence number of the segment's first message.
+         * @param dataFile     the ".log" file.
+         * @param indexFile    the ".idx" file.
+         * @param data         mapping of the ".log" file.
+         * @param index        mapping of the ".idx" file.
+         */
+        private Segment(long baseSequence, Path dataFile, Path indexFile, MappedByteBuffer data,
+                        MappedByteBuffer index) {
+
+            this.baseSequence = baseSequence;
+            this.dataFile = dataFile;
+            this.indexFile = indexFile;
+            this.data = data;
+            this.index = index;
+
+            // The index only contains increasing offsets followed by zeros, so the amount of stored messages is found
+            // with a binary search instead of scanning the whole segment
+            int low = 0;
+            int high = index.capacity() / Integer.BYTES;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (index.getInt(middle * Integer.BYTES) != 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            this.count = low;
+            this.dataPosition = low == 0 ? 0 : index.getInt((low - 1) * Integer.BYTES);
+
+            // An index that points beyond the records can only come from a corrupted file
+            if (this.dataPosition < 0 || this.dataPosition > data.capacity()) {
+                System.err.println("A segment of the chat history is corrupted, so its messages will be ignored");
+                this.count = 0;
+                this.dataPosition = 0;
+            }
+        }
+
+        /**
+         * Opens the segment that begins with the given sequence number, creating its files if needed. The files of a
+         * new segment start small (see {@link #INITIAL_SEGMENT_SIZE}), and they grow as messages are appended.
+         *
+         * @param directory       directory where the segment is stored.
+         * @param baseSequence    sequence number of the segment's first message.
+         * @param minimumCapacity minimum size in bytes of the ".log" file, if the segment is writable.
+         * @param writable        if messages will be appended to the segment.
+         * @return the {@link Segment}.
+         * @throws IOException if the segment's files cannot be mapped.
+         */
+        private static Segment open(Path directory, long baseSequence, int minimumCapacity, boolean writable)
+                throws IOException {
+
+            String name = String.format("%020d", baseSequence);
+            Path dataFile = directory.resolve(name + ConversationLog.DATA_EXTENSION);
+            Path indexFile = directory.resolve(name + ConversationLog.INDEX_EXTENSION);
+
+            MappedByteBuffer data = map(dataFile, Math.max(ConversationLog.INITIAL_SEGMENT_SIZE, minimumCapacity),
+                    writable);
+            MappedByteBuffer index = map(indexFile, ConversationLog.INITIAL_SEGMENT_ENTRIES * Integer.BYTES,
+                    writable);
+
+            return new Segment(baseSequence, dataFile, indexFile, data, index);
+        }
+
+        /**
+         * Maps the given file into memory. The mapping remains valid once the file's channel is closed.
+         *
+         * @param file     the file.
+         * @param capacity size in bytes that a writable file will have at least.
+         * @param writable if the file will be modified.
+         * @return the mapping.
+         * @throws IOException if the file cannot be mapped.
+         */
+        private static MappedByteBuffer map(Path file, int capacity, boolean writable) throws IOException {
+
+            if (writable) {
+                try (FileChannel channel = FileChannel.open(file, Set.of(StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE), Segment.fileAttributes(file))) {
+                    // Mapping beyond the end of the file enlarges it
+                    return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), capacity));
+                }
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        /**
+         * Retrieves the attributes with which a file of the chat history must be created, so that only its owner may
+         * read it if the file system allows it.
+         *
+         * @param file the file.
+         * @return the attributes.
+         */
+        private static FileAttribute<?>[] fileAttributes(Path file) {
+
+            if (file.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(ConversationLog.FILE_PERMISSIONS)};
+            }
+
+            // The file system does not support POSIX permissions, so the default ones are kept
+            return new FileAttribute<?>[0];
+        }
+
+        /**
+         * Appends a record to the segment.
+         *
+         * @param contents  the message's contents, encoded in UTF-8.
+         * @param outgoing  if the message was sent by the client.
+         * @param timestamp when the message was sent or received.
+         * @return false if the segment has no room for the record, and it cannot grow any more.
+         * @throws IOException if the segment cannot grow.
+         */
+        private boolean append(byte[] contents, boolean outgoing, long timestamp) throws IOException {
+
+            int recordSize = ConversationLog.RECORD_HEADER_SIZE + contents.length;
+
+            if (!ensureRoom(recordSize)) {
+                return false;
+            }
+
+            // The record is written before it is indexed, so that an interrupted append is simply overwritten later
+            ByteBuffer record = this.data.duplicate();
+            record.position(this.dataPosition);
+            record.putInt(contents.length).put(outgoing ? (byte) 1 : (byte) 0).putLong(timestamp).put(contents);
+
+            this.dataPosition += recordSize;
+            this.index.putInt(this.count * Integer.BYTES, this.dataPosition);
+            this.count++;
+
+            return true;
+        }
+
+        /**
+         * Makes sure that the segment has room for one more record of the given size, doubling the files that are
+         * full, up to {@link ConfigurationParameters#CHAT_HISTORY_SEGMENT_SIZE} and {@link
+         * ConfigurationParameters#CHAT_HISTORY_SEGMENT_ENTRIES}.
+         *
+         * @param recordSize size in bytes of the record.
+         * @return false if the record does not fit even if the segment grows as much as it may.
+         * @throws IOException if the files cannot be mapped again.
+         */
+        private boolean ensureRoom(int recordSize) throws IOException {
+
+            int entries = this.index.capacity() / Integer.BYTES;
+            int neededSize = this.dataPosition + recordSize;
+
+            boolean indexFull = this.count == entries;
+            boolean dataFull = neededSize > this.data.capacity();
+
+            if (!indexFull && !dataFull) {
+                return true;
+            }
+
+            // A full segment is never enlarged, so a new one will be started instead
+            if ((indexFull && entries >= ConfigurationParameters.CHAT_HISTORY_SEGMENT_ENTRIES) ||
+                    (dataFull && neededSize > ConfigurationParameters.CHAT_HISTORY_SEGMENT_SIZE)) {
+                return false;
+            }
+
+            // The new mappings share the files with the old ones, which are released once they are no longer
+            // referenced
+            if (indexFull) {
+                this.index = map(this.indexFile, Math.min(2 * entries,
+                        ConfigurationParameters.CHAT_HISTORY_SEGMENT_ENTRIES) * Integer.BYTES, true);
+            }
+
+            if (dataFull) {
+                this.data = map(this.dataFile, Math.max(neededSize, Math.min(2 * this.data.capacity(),
+                        ConfigurationParameters.CHAT_HISTORY_SEGMENT_SIZE)), true);
+            }
+
+            return true;
+        }
+
+        /**
+         * Reads a record of the segment into the given {@link ChatHistory}.
+         *
+         * @param position    position of the record within the segment.
+         * @param chatHistory {@link ChatHistory} where the message will be added.
+         * @throws IOException if the record is corrupted.
+         */
+        private void read(int position, ChatHistory chatHistory) throws IOException {
+
+            int start = position == 0 ? 0 : this.index.getInt((position - 1) * Integer.BYTES);
+            int end = this.index.getInt(position * Integer.BYTES);
+            int length = this.data.getInt(start);
+
+            if (length < 0 || start + ConversationLog.RECORD_HEADER_SIZE + length != end) {
+                throw new IOException("A record of the chat history is corrupted");
+            }
+
+            boolean outgoing = this.data.get(start + Integer.BYTES) != 0;
+            long timestamp = this.data.getLong(start + Integer.BYTES + 1);
+
+            // The contents are copied straight from the mapping, without being decoded
+            ByteBuffer contents = this.data.duplicate();
+            contents.position(start + ConversationLog.RECORD_HEADER_SIZE).limit(end);
+
+            chatHistory.addMessage(contents, outgoing, timestamp);
+        }
+
+        /**
+         * Writes the segment's modified pages to disk, so that the operating system may release them.
+         */
+        private void flush() {
+
+            if (!this.data.isReadOnly()) {
+                this.data.force();
+                this.index.force();
+            }
+        }
+    }
+}
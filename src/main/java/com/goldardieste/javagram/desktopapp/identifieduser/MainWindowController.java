@@ -4,11 +4,13 @@ import com.goldardieste.javagram.client.exposed.ClientFacade;
 import com.goldardieste.javagram.client.exposed.ClientOperationFailedException;
 import com.goldardieste.javagram.client.exposed.LocalTunnelsListener;
 import com.goldardieste.javagram.client.exposed.RemoteUsersListener;
+import com.goldardieste.javagram.common.ConfigurationParameters;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 import com.goldardieste.javagram.common.StatusType;
 import com.goldardieste.javagram.desktopapp.*;
-import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.event.Event;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -21,10 +23,12 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 // TODO coded in a bit of a rush, so the best choices have not been definitely made
 // TODO message input should grow to comfortably type long messages
@@ -39,6 +43,11 @@ public class MainWindowController extends AbstractController implements LocalTun
 
     /* ----- Attributes ----- */
 
+    /**
+     * Order in which the user entries are kept in {@link #userEntries}.
+     */
+    private final static Comparator<UserEntry> USER_ENTRIES_ORDER = Comparator.comparing(UserEntry::getUsername);
+
     /**
      * Provides all the back-end functionality to the desktop app.
      * <p>
@@ -54,44 +63,62 @@ public class MainWindowController extends AbstractController implements LocalTun
     private UserEntriesFilter userEntriesFilter;
 
     /**
-     * Contains all the retrieved remote users related to the one that has logged in.
+     * Contains all the retrieved remote users related to the one that has logged in, that is, their presence.
+     * <p>
+     * It is concurrent, as it is updated by the back-end threads and read by the JavaFX thread, and no lock is needed
+     * to access it.
      */
     private final Map<String, RemoteUser> retrievedRemoteUsers;
 
     /**
      * Stores every current conversation with a remote user.
+     * <p>
+     * It is concurrent, so that a chat can be retrieved without blocking the other ones; the access to each {@link
+     * ChatHistory} is synchronized on its own monitor.
      */
     private final Map<String, ChatHistory> initiatedChats;
 
     /**
-     * {@link UserEntryController} that corresponds the currently selected user entry. It is needed to:
-     * - 1: remove its highlighting when another entry gets selected.
-     * - 2: highlight it again when the entries are regenerated.
-     * - 3: know to whom the user is sending messages.
+     * Keeps on disk every conversation of the user that has logged in, so that its most recent messages can be shown
+     * again in later sessions. It will be null if it could not be opened, in which case chats are only kept in memory.
+     */
+    private volatile ChatHistoryStore chatHistoryStore;
+
+    /**
+     * Name of the remote user whose entry is currently selected, if any. It is needed to know to whom the user is
+     * sending messages.
+     * <p>
+     * It is only modified by the JavaFX thread; other threads may read it at any time.
+     */
+    private volatile String currentSelectedUser;
+
+    /**
+     * Model of the sidebar: one {@link UserEntry} for each retrieved remote user, sorted by {@link
+     * #USER_ENTRIES_ORDER}, so that any entry can be located with a binary search. When an entry changes, it is
+     * replaced by itself (see {@link #refreshUserEntry(UserEntry)}), so that only its own cell is updated.
      * <p>
      * It is only accessed by the JavaFX thread.
      */
-    private UserEntryController currentSelectedEntry;
+    private final ObservableList<UserEntry> userEntries;
 
     /**
-     * Contains, for each remote user, how many messages he has send and that have not been read yet by the client.
+     * Contains the same {@link UserEntry}s as {@link #userEntries}, so that they can be found by their remote user.
+     * <p>
+     * It is only accessed by the JavaFX thread.
      */
-    private final Map<String, Integer> unreadMessagesCount;
+    private final Map<String, UserEntry> userEntriesByUsername;
 
     /**
-     * If it is set to true, the user's entries will not be rendered no matter what, as their place is being taken by
-     * the input where the user may send a new friendship request, or where the user may change his current password.
+     * View of {@link #userEntries} that only contains the entries that {@link #userEntriesFilter} allows.
      * <p>
-     * It is only modified by the JavaFX thread; other threads may read it.
+     * It is only accessed by the JavaFX thread.
      */
-    private boolean overlappedInputActive;
+    private final FilteredList<UserEntry> filteredUserEntries;
 
     /**
-     * This lock must be acquired to read/modify {@link #overlappedInputActive}. Even though all events from JavaFX
-     * are dispatched using a single thread, as the notifications about remote users can be received and displayed at
-     * any time due to {@link RemoteUsersListener}, there could be race conditions if it where not for this lock.
+     * Forwards to the JavaFX thread, in batches, the updates that the back-end threads notify.
      */
-    private final ReentrantLock overlappingInputLock;
+    private final UiUpdateBridge uiUpdateBridge;
 
 
     /* ----- FXML attributes ----- */
@@ -127,34 +154,37 @@ public class MainWindowController extends AbstractController implements LocalTun
     private HBox menuOptionUpdatePassword;
 
     /**
-     * Where each possible user entry resides.
+     * Where the user entries that the current filter allows are shown; only the visible ones get a {@link
+     * UserEntryCell}.
      */
     @FXML
-    private VBox sidebarItems;
+    private ListView<UserEntry> sidebarList;
 
     /**
-     * Where the user may type in a message to send it.
+     * Shown over {@link #sidebarList} when the user is sending a new friendship request, or when the user is changing
+     * his current password.
      */
     @FXML
-    private TextArea textAreaMessage;
+    private VBox sidebarOverlay;
 
     /**
-     * Button that sends the currently typed message to the selected remote user.
+     * Where the user may type in a message to send it.
      */
     @FXML
-    private Button btnSend;
+    private TextArea textAreaMessage;
 
     /**
-     * Contains {@link #messagesContainer}.
+     * Button that sends the currently typed message to the selected remote user.
      */
     @FXML
-    private ScrollPane messagesScrollPane;
+    private Button btnSend;
 
     /**
-     * Where all messages for a certain chat are contained.
+     * Where all messages for a certain chat are shown. Its items are provided by a {@link ChatHistoryItems}, and only
+     * the visible ones get a {@link MessageCell}.
      */
     @FXML
-    private VBox messagesContainer;
+    private ListView<Long> messagesList;
 
     /**
      * Warning that is shown when no messages related to the requested chat history can be found.
@@ -169,11 +199,13 @@ public class MainWindowController extends AbstractController implements LocalTun
      * Initializes an empty {@link MainWindowController}.
      */
     public MainWindowController() {
-        this.retrievedRemoteUsers = new HashMap<>();
-        this.initiatedChats = new HashMap<>();
-        this.unreadMessagesCount = new HashMap<>();
-        this.overlappedInputActive = false;
-        this.overlappingInputLock = new ReentrantLock();
+        this.retrievedRemoteUsers = new ConcurrentHashMap<>();
+        this.initiatedChats = new ConcurrentHashMap<>();
+
+        this.userEntries = FXCollections.observableArrayList();
+        this.userEntriesByUsername = new HashMap<>();
+        this.filteredUserEntries = new FilteredList<>(this.userEntries);
+        this.uiUpdateBridge = new UiUpdateBridge(this);
 
         this.userEntriesFilter = UserEntriesFilter.NONE;
     }
@@ -190,17 +222,26 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         this.clientFacade = clientFacade;
 
+        // The stored chat histories of the user that has logged in are opened, before any message can arrive
+        try {
+            this.chatHistoryStore = new ChatHistoryStore(this.clientFacade.getIdentifiedUser());
+        } catch (ClientOperationFailedException | IOException exception) {
+            System.err.println("The stored chat histories could not be opened, so they will only be kept in memory");
+            exception.printStackTrace();
+        }
+
         // As the controller has now the client back-end's instance, it also registers itself in it as a listener of
         // both incoming messages and incoming updates about remote users
         this.clientFacade.setLocalTunnelsListener(this);
         this.clientFacade.setRemoteUsersListener(this);
 
-        // And retrieves the remote users related to the one that has logged in
-        try {
-            this.clientFacade.retrieveFriends();
-        } catch (ClientOperationFailedException exception) {
+        // And retrieves in background the remote users related to the one that has logged in, while the window is
+        // being shown; they will be notified through the listener
+        this.clientFacade.retrieveFriendsAsync().exceptionally(exception -> {
+            System.err.println("The remote users related to the client could not be retrieved");
             exception.printStackTrace();
-        }
+            return null;
+        });
     }
 
 
@@ -219,6 +260,19 @@ public class MainWindowController extends AbstractController implements LocalTun
     private void initialize() {
         // By default, no chat history is shown
         this.emptyChatWarning.setVisible(true);
+
+        // Messages are rendered on demand, as they become visible
+        this.messagesList.setCellFactory(list -> new MessageCell());
+        this.messagesList.setFocusTraversable(false);
+
+        // And so are user entries
+        this.sidebarList.setItems(this.filteredUserEntries);
+        this.sidebarList.setCellFactory(list -> new UserEntryCell(this));
+        this.sidebarList.setFocusTraversable(false);
+        applyUserEntriesFilter();
+
+        // No user is selected yet, so no message can be typed in
+        updateMessageArea();
     }
 
     /**
@@ -231,13 +285,8 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         this.userEntriesFilter = UserEntriesFilter.NONE;
 
-        this.overlappingInputLock.lock();
-        this.overlappedInputActive = false;
-        this.overlappingInputLock.unlock();
-
-        synchronized (this.retrievedRemoteUsers) {
-            regenerateUserEntries();
-        }
+        hideOverlappedInput();
+        applyUserEntriesFilter();
 
         updateMenuOptionsHighlighting(0);
     }
@@ -252,13 +301,8 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         this.userEntriesFilter = UserEntriesFilter.CURRENT_FRIENDS;
 
-        this.overlappingInputLock.lock();
-        this.overlappedInputActive = false;
-        this.overlappingInputLock.unlock();
-
-        synchronized (this.retrievedRemoteUsers) {
-            regenerateUserEntries();
-        }
+        hideOverlappedInput();
+        applyUserEntriesFilter();
 
         updateMenuOptionsHighlighting(1);
     }
@@ -273,13 +317,8 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         this.userEntriesFilter = UserEntriesFilter.REQUESTS;
 
-        this.overlappingInputLock.lock();
-        this.overlappedInputActive = false;
-        this.overlappingInputLock.unlock();
-
-        synchronized (this.retrievedRemoteUsers) {
-            regenerateUserEntries();
-        }
+        hideOverlappedInput();
+        applyUserEntriesFilter();
 
         updateMenuOptionsHighlighting(2);
     }
@@ -304,30 +343,13 @@ public class MainWindowController extends AbstractController implements LocalTun
     @FXML
     public void showNewFriendshipInput(Event e) {
 
-        ObservableList<Node> entries = this.sidebarItems.getChildren();
-
-        this.overlappingInputLock.lock();
-
-        try {
-            // So that the user entries do not override
-            this.overlappedInputActive = true;
-
-            entries.clear();
-
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("../fxml/input_new_friendship.fxml"));
-
-            // The field where the remote user's username will be typed is shown where the user entries usually
-            // are, along with the button to send the request
-            entries.add(loader.load());
+        // The field where the remote user's username will be typed is shown where the user entries usually are, along
+        // with the button to send the request
+        FXMLLoader loader = showOverlappedInput("../fxml/input_new_friendship.fxml");
 
+        if (loader != null) {
             InputNewFriendController controller = loader.getController();
             controller.setMainWindowController(this);
-
-        } catch (IOException exception) {
-            exception.printStackTrace();
-
-        } finally {
-            this.overlappingInputLock.unlock();
         }
 
         updateMenuOptionsHighlighting(3);
@@ -343,20 +365,12 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         boolean successful = false;
 
-        this.overlappingInputLock.lock();
-
         try {
             this.clientFacade.requestFriendship(remoteUser);
-
-            // If the request is successfully sent, the user entries are shown again
-            this.overlappedInputActive = false;
             successful = true;
 
         } catch (ClientOperationFailedException exception) {
             exception.printStackTrace();
-
-        } finally {
-            this.overlappingInputLock.unlock();
         }
 
         // So that the user sees instantly that the request has been sent
@@ -375,31 +389,48 @@ public class MainWindowController extends AbstractController implements LocalTun
     @FXML
     public void showChangePasswordInput(Event e) {
 
-        ObservableList<Node> entries = this.sidebarItems.getChildren();
-
-        this.overlappingInputLock.lock();
+        FXMLLoader loader = showOverlappedInput("../fxml/input_change_password.fxml");
 
-        try {
-            // So that the user entries do not override
-            this.overlappedInputActive = true;
+        if (loader != null) {
+            InputChangePasswordController controller = loader.getController();
+            controller.setMainWindowController(this);
+        }
 
-            entries.clear();
+        updateMenuOptionsHighlighting(4);
+    }
 
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("../fxml/input_change_password.fxml"));
+    /**
+     * Shows the given view in {@link #sidebarOverlay}, over the user entries.
+     *
+     * @param fxml location of the view, relative to this class.
+     * @return the {@link FXMLLoader} that has loaded the view; null if it could not be loaded.
+     */
+    private FXMLLoader showOverlappedInput(String fxml) {
 
-            entries.add(loader.load());
+        FXMLLoader loader = new FXMLLoader(getClass().getResource(fxml));
 
-            InputChangePasswordController controller = loader.getController();
-            controller.setMainWindowController(this);
+        try {
+            this.sidebarOverlay.getChildren().setAll((Node) loader.load());
 
         } catch (IOException exception) {
             exception.printStackTrace();
-
-        } finally {
-            this.overlappingInputLock.unlock();
+            return null;
         }
 
-        updateMenuOptionsHighlighting(4);
+        // The user entries are kept up to date while they are hidden
+        this.sidebarOverlay.setVisible(true);
+        this.sidebarList.setVisible(false);
+
+        return loader;
+    }
+
+    /**
+     * Hides {@link #sidebarOverlay}, so that the user entries are shown again.
+     */
+    private void hideOverlappedInput() {
+        this.sidebarOverlay.getChildren().clear();
+        this.sidebarOverlay.setVisible(false);
+        this.sidebarList.setVisible(true);
     }
 
     /**
@@ -413,20 +444,12 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         boolean successful = false;
 
-        this.overlappingInputLock.lock();
-
         try {
             this.clientFacade.updatePassword(currentPassword, newPassword);
-
-            // If the password has been successfully changed, the user entries are shown again
-            this.overlappedInputActive = false;
             successful = true;
 
         } catch (ClientOperationFailedException exception) {
             exception.printStackTrace();
-
-        } finally {
-            this.overlappingInputLock.unlock();
         }
 
         // All users will be now shown
@@ -539,6 +562,11 @@ public class MainWindowController extends AbstractController implements LocalTun
             System.err.println("Execution of the Javagram client could not be successfully stopped");
             exception.printStackTrace();
         }
+
+        // All stored messages are flushed to disk
+        if (this.chatHistoryStore != null) {
+            this.chatHistoryStore.close();
+        }
     }
 
     /**
@@ -552,25 +580,15 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         String remoteUser = userEntryController.getUsername();
 
-        synchronized (this.retrievedRemoteUsers) {
+        // The highlighting is moved to the clicked entry, and its not-read-messages counter gets reset as the
+        // corresponding message history will be rendered
+        selectUserEntry(remoteUser);
 
-            // Shows the chat history with the selected user, if any
-            initiateAndShowChat(remoteUser);
+        // Shows the chat history with the selected user, if any
+        initiateAndShowChat(remoteUser);
 
-            // If the current selected entry had any not-read-messages counter, it gets reset as the corresponding
-            // message history will be rendered
-            Integer counter = this.unreadMessagesCount.get(remoteUser);
-
-            if(counter != null) {
-                this.unreadMessagesCount.put(remoteUser, 0);
-            }
-
-            this.currentSelectedEntry = userEntryController;
-
-            // This method updates the message input area and puts highlighting to the appropriate entry
-            // TODO highly inefficient
-            regenerateUserEntries();
-        }
+        // The message input area is updated accordingly to the selected user's status
+        updateMessageArea();
     }
 
     /**
@@ -582,10 +600,10 @@ public class MainWindowController extends AbstractController implements LocalTun
     private void initiateAndShowChat(String remoteUser) {
 
         // When the user clicks on an user entry of a current online friend, a communication with him is
-        // established
-        boolean isOnline = this.retrievedRemoteUsers.get(remoteUser).getStatus().equals(StatusType.ONLINE);
+        // established; no lock is held meanwhile, so that the back-end threads are not blocked
+        RemoteUser user = this.retrievedRemoteUsers.get(remoteUser);
 
-        if (isOnline) {
+        if (user != null && user.getStatus().equals(StatusType.ONLINE)) {
             try {
                 if (!this.clientFacade.isChatInitiated(remoteUser)) {
                     this.clientFacade.initiateChat(remoteUser);
@@ -596,9 +614,8 @@ public class MainWindowController extends AbstractController implements LocalTun
             }
         }
 
-        // The chat history is redrawn even if the selected user is not online, to show the "no messages" warning
-        // Thread-safe access is guaranteed through this.retrievedRemoteUsers
-        regenerateChatHistory(this.initiatedChats.get(remoteUser));
+        // The chat history is shown even if the selected user is not online, to show the "no messages" warning
+        showChatHistory(retrieveChatHistory(remoteUser));
     }
 
     /**
@@ -634,59 +651,60 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         ContextMenu menu = null;
 
-        synchronized (this.retrievedRemoteUsers) {
+        // The resulting contextual menu depends on which the relation exists between the remote user and the
+        // client; he may have just been deleted
+        RemoteUser user = this.retrievedRemoteUsers.get(remoteUser);
 
-            // The resulting contextual menu depends on which the relation exists between the remote user and the
-            // client
-            RemoteUser user = this.retrievedRemoteUsers.get(remoteUser);
+        if (user == null) {
+            return null;
+        }
 
-            switch (user.getStatus()) {
+        switch (user.getStatus()) {
 
-                case ONLINE:
-                case DISCONNECTED:
-                    menu = new ContextMenu();
+            case ONLINE:
+            case DISCONNECTED:
+                menu = new ContextMenu();
 
-                    MenuItem itemEndFriendship = new MenuItem("End friendship");
-                    itemEndFriendship.setOnAction(e -> {
-                        try {
-                            this.clientFacade.endFriendship(remoteUser);
-                        } catch (ClientOperationFailedException exception) {
-                            exception.printStackTrace();
-                        }
-                    });
+                MenuItem itemEndFriendship = new MenuItem("End friendship");
+                itemEndFriendship.setOnAction(e -> {
+                    try {
+                        this.clientFacade.endFriendship(remoteUser);
+                    } catch (ClientOperationFailedException exception) {
+                        exception.printStackTrace();
+                    }
+                });
 
-                    menu.getItems().add(itemEndFriendship);
+                menu.getItems().add(itemEndFriendship);
 
-                    break;
+                break;
 
-                case FRIENDSHIP_RECEIVED:
-                    menu = new ContextMenu();
+            case FRIENDSHIP_RECEIVED:
+                menu = new ContextMenu();
 
-                    MenuItem itemAccept = new MenuItem("Accept");
-                    itemAccept.setOnAction(e -> {
-                        try {
-                            this.clientFacade.acceptFriendship(remoteUser);
-                        } catch (ClientOperationFailedException exception) {
-                            exception.printStackTrace();
-                        }
-                    });
+                MenuItem itemAccept = new MenuItem("Accept");
+                itemAccept.setOnAction(e -> {
+                    try {
+                        this.clientFacade.acceptFriendship(remoteUser);
+                    } catch (ClientOperationFailedException exception) {
+                        exception.printStackTrace();
+                    }
+                });
 
-                    MenuItem itemReject = new MenuItem("Reject");
-                    itemReject.setOnAction(e -> {
-                        try {
-                            this.clientFacade.rejectFriendship(remoteUser);
-                        } catch (ClientOperationFailedException exception) {
-                            exception.printStackTrace();
-                        }
-                    });
+                MenuItem itemReject = new MenuItem("Reject");
+                itemReject.setOnAction(e -> {
+                    try {
+                        this.clientFacade.rejectFriendship(remoteUser);
+                    } catch (ClientOperationFailedException exception) {
+                        exception.printStackTrace();
+                    }
+                });
 
-                    menu.getItems().addAll(itemAccept, itemReject);
+                menu.getItems().addAll(itemAccept, itemReject);
 
-                    break;
+                break;
 
-                default:
-                    break;
-            }
+            default:
+                break;
         }
 
         return menu;
@@ -704,21 +722,23 @@ public class MainWindowController extends AbstractController implements LocalTun
 
         if (!message.isBlank()) {
 
-            synchronized (this.retrievedRemoteUsers) {
+            // An user entry must be selected, and it must belong to an online friend
+            String remoteUser = this.currentSelectedUser;
+            RemoteUser user = remoteUser != null ? this.retrievedRemoteUsers.get(remoteUser) : null;
 
-                // An user entry must be selected, and it must belong to an online friend
-                if (this.currentSelectedEntry != null && this.retrievedRemoteUsers.get(
-                        this.currentSelectedEntry.getUsername()).getStatus().equals(StatusType.ONLINE)) {
+            if (user != null && user.getStatus().equals(StatusType.ONLINE)) {
 
-                    try {
-                        this.clientFacade.sendMessage(this.currentSelectedEntry.getUsername(), message);
-                        registerMessageInChatHistory(this.currentSelectedEntry.getUsername(), message, true);
-                        this.textAreaMessage.clear();
-
-                    } catch (ClientOperationFailedException exception) {
+                // The JavaFX thread does not wait for the message to be sent; it is registered once it has been
+                // transmitted, in the same order in which the messages were typed in
+                this.clientFacade.sendMessageAsync(remoteUser, message).whenComplete((sent, exception) -> {
+                    if (exception == null) {
+                        registerMessageInChatHistory(remoteUser, message, true);
+                    } else {
                         exception.printStackTrace();
                     }
-                }
+                });
+
+                this.textAreaMessage.clear();
             }
         }
     }
@@ -753,22 +773,38 @@ public class MainWindowController extends AbstractController implements LocalTun
      */
     @Override
     public void forwardIncomingMessage(String remoteUser, String message) {
+        forwardIncomingMessages(remoteUser, List.of(message));
+    }
 
-        // TODO enhance
-        registerMessageInChatHistory(remoteUser, message, false);
+    /**
+     * Appends all the incoming messages to the chat that corresponds the specified remote user, rendering it just once.
+     *
+     * @param remoteUser name by which the remote user that sent the messages can be identified.
+     * @param messages   the messages.
+     */
+    @Override
+    public void forwardIncomingMessages(String remoteUser, List<String> messages) {
 
-        synchronized (this.retrievedRemoteUsers) {
+        registerMessagesInChatHistory(remoteUser, messages, false);
 
-            // The remote user's counter is also incremented if his entry is not currently selected
-            if(this.currentSelectedEntry == null || !this.currentSelectedEntry.getUsername().equals(remoteUser)) {
+        // The remote user's counter is also incremented, along with any other pending update
+        this.uiUpdateBridge.notifyIncomingMessages(remoteUser, messages.size());
+    }
 
-                Integer counter = this.unreadMessagesCount.get(remoteUser);
+    /**
+     * Increments the not-read-messages counter of the given remote user, unless his entry is currently selected; only
+     * his entry is updated. It must be called from the JavaFX thread.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param amount     how many messages he has sent.
+     */
+    void increaseUnreadMessages(String remoteUser, int amount) {
 
-                int newValue = (counter != null ? counter : 0) + 1;
-                this.unreadMessagesCount.put(remoteUser, newValue);
+        UserEntry userEntry = this.userEntriesByUsername.get(remoteUser);
 
-                regenerateUserEntries();
-            }
+        if (userEntry != null && !userEntry.isSelected()) {
+            userEntry.setUnreadMessages(userEntry.getUnreadMessages() + amount);
+            refreshUserEntry(userEntry);
         }
     }
 
@@ -781,78 +817,129 @@ public class MainWindowController extends AbstractController implements LocalTun
      * @param outgoing   if the message has been sent by the client.
      */
     private void registerMessageInChatHistory(String remoteUser, String message, boolean outgoing) {
+        registerMessagesInChatHistory(remoteUser, List.of(message), outgoing);
+    }
 
-        synchronized (this.retrievedRemoteUsers) {
+    /**
+     * Registers the given messages in the specified user's {@link ChatHistory}, and stores them on disk. If the
+     * history does not already exist, it creates one.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     * @param messages   contents of the messages, in chronological order.
+     * @param outgoing   if the messages have been sent by the client.
+     */
+    private void registerMessagesInChatHistory(String remoteUser, List<String> messages, boolean outgoing) {
 
-            ChatHistory chatHistory = this.initiatedChats.get(remoteUser);
+        ChatHistory chatHistory = retrieveChatHistory(remoteUser);
 
-            // A new chat history for the remote user is created if it did not exist yet
-            if (chatHistory == null) {
-                chatHistory = new ChatHistory();
-                this.initiatedChats.put(remoteUser, chatHistory);
-            }
+        // Only this chat is locked, so the other ones may keep receiving messages meanwhile; the history is also read
+        // by the JavaFX thread when rendering it
+        synchronized (chatHistory) {
 
-            // The given message is registered
-            chatHistory.addMessage(message, outgoing);
+            // The given messages are registered
+            for (String message : messages) {
+                chatHistory.addMessage(message, outgoing);
+            }
 
-            if (this.currentSelectedEntry != null && this.currentSelectedEntry.getUsername().equals(remoteUser)) {
-                regenerateChatHistory(chatHistory);
+            // And they are also stored on disk, in the same order
+            if (this.chatHistoryStore != null) {
+                try {
+                    this.chatHistoryStore.append(remoteUser, messages, outgoing);
+                } catch (IOException exception) {
+                    System.err.println("The messages could not be stored in the chat history");
+                    exception.printStackTrace();
+                }
             }
         }
+
+        // The shown chat is rendered again in the next frame, along with any other new messages
+        if (remoteUser.equals(this.currentSelectedUser)) {
+            this.uiUpdateBridge.notifyShownChatChange();
+        }
     }
 
     /**
-     * Updates the chatting section so that the shown messages correspond to the given {@link ChatHistory}. If no
-     * messages have been stored in the history, or if it is null, an "empty chat" message is shown.
+     * Retrieves the {@link ChatHistory} with the specified remote user. If it does not already exist, it creates one
+     * that contains the most recent messages that were stored on disk, if any. It is created atomically, so that
+     * concurrent calls get the same {@link ChatHistory}.
      *
-     * @param chatHistory {@link ChatHistory} that contains the messages that will be shown.
+     * @param remoteUser name by which the remote user can be identified.
+     * @return the {@link ChatHistory}.
      */
-    private void regenerateChatHistory(ChatHistory chatHistory) {
+    private ChatHistory retrieveChatHistory(String remoteUser) {
 
-        // Just in case another thread updates the current chat via LocalTunnelsListener
-        Platform.runLater(() -> {
+        ChatHistory chatHistory = this.initiatedChats.get(remoteUser);
 
-            ObservableList<Node> entries = this.messagesContainer.getChildren();
-            entries.clear();
+        if (chatHistory == null) {
+            chatHistory = this.initiatedChats.computeIfAbsent(remoteUser, user -> {
 
-            if (chatHistory != null && chatHistory.getMessages().size() > 0) {
+                ChatHistory newChatHistory = new ChatHistory();
 
-                List<String> messages = chatHistory.getMessages();
-                List<Boolean> outgoing = chatHistory.getOutgoing();
+                // Only the last messages are read, no matter how long the conversation is
+                if (this.chatHistoryStore != null) {
+                    try {
+                        this.chatHistoryStore.loadLast(user, ConfigurationParameters.CHAT_HISTORY_LOADED_MESSAGES,
+                                newChatHistory);
+                    } catch (IOException exception) {
+                        System.err.println("The stored chat history could not be read");
+                        exception.printStackTrace();
+                    }
+                }
 
-                this.emptyChatWarning.setVisible(false);
+                return newChatHistory;
+            });
+        }
 
-                // They are supposed to have the same size
-                for (int i = 0; i < messages.size(); i++) {
+        return chatHistory;
+    }
 
-                    String message = messages.get(i);
-                    boolean out = outgoing.get(i);
+    /**
+     * Updates the chatting section so that the shown messages correspond to the given {@link ChatHistory}. If it is
+     * already being shown, only the messages that have been added or dropped since the last update are rendered. If no
+     * messages have been stored in the history, or if it is null, an "empty chat" message is shown. It must be called
+     * from the JavaFX thread.
+     *
+     * @param chatHistory {@link ChatHistory} that contains the messages that will be shown.
+     */
+    private void showChatHistory(ChatHistory chatHistory) {
 
-                    FXMLLoader loader;
+        ObservableList<Long> items = this.messagesList.getItems();
 
-                    try {
+        if (chatHistory == null) {
+            this.messagesList.setItems(FXCollections.emptyObservableList());
 
-                        if (out) {
-                            loader = new FXMLLoader(getClass().getResource("../fxml/message_outgoing.fxml"));
-                        } else {
-                            loader = new FXMLLoader(getClass().getResource("../fxml/message_incoming.fxml"));
-                        }
+        } else if (items instanceof ChatHistoryItems && ((ChatHistoryItems) items).getChatHistory() == chatHistory) {
+            // The same chat is being shown, so only its new messages are appended
+            if (!((ChatHistoryItems) items).synchronize()) {
+                return;
+            }
 
-                        // The message is appended to the currently shown messages
-                        entries.add(loader.load());
+        } else {
+            // Switching chats does not depend on their length, as messages are only read once they are visible
+            this.messagesList.setItems(new ChatHistoryItems(chatHistory));
+        }
 
-                        // And its contents are set to the received data
-                        MessageController controller = loader.getController();
-                        controller.updateContents(message);
+        int size = this.messagesList.getItems().size();
 
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                this.emptyChatWarning.setVisible(true);
-            }
-        });
+        this.emptyChatWarning.setVisible(size == 0);
+
+        // The last message is shown
+        if (size > 0) {
+            this.messagesList.scrollTo(size - 1);
+        }
+    }
+
+    /**
+     * Renders the messages that have been added to the chat that is being shown since it was last rendered, if any. It
+     * must be called from the JavaFX thread.
+     */
+    void refreshShownChat() {
+
+        ObservableList<Long> items = this.messagesList.getItems();
+
+        if (items instanceof ChatHistoryItems) {
+            showChatHistory(((ChatHistoryItems) items).getChatHistory());
+        }
     }
 
     /**
@@ -863,18 +950,12 @@ public class MainWindowController extends AbstractController implements LocalTun
     @Override
     public void forwardRemoteUserChange(RemoteUser remoteUser) {
 
-        synchronized (this.retrievedRemoteUsers) {
-
-            // If the remote user was already being shown
-            if (this.retrievedRemoteUsers.containsKey(remoteUser.getUsername())) {
-                updateUserEntry(remoteUser);
-            }
-
-            // Otherwise
-            else {
-                addUserEntry(remoteUser);
-            }
-        }
+        // His entry will be added or updated in the next frame, along with any other pending update; both are done
+        // atomically, so that the updates about the same user reach the UI in the same order
+        this.retrievedRemoteUsers.compute(remoteUser.getUsername(), (username, previousRemoteUser) -> {
+            this.uiUpdateBridge.notifyRemoteUserChange(remoteUser);
+            return remoteUser;
+        });
     }
 
     /**
@@ -885,134 +966,166 @@ public class MainWindowController extends AbstractController implements LocalTun
     @Override
     public void forwardRemoteUserDeletion(RemoteUser remoteUser) {
 
-        synchronized (this.retrievedRemoteUsers) {
-            removeUserEntry(remoteUser);
-        }
+        // His entry will be removed in the next frame, along with any other pending update
+        this.retrievedRemoteUsers.compute(remoteUser.getUsername(), (username, previousRemoteUser) -> {
+            this.uiUpdateBridge.notifyRemoteUserDeletion(username);
+            return null;
+        });
     }
 
     /**
-     * If the currently selected filter in the sidebar menu allows the given remote user's state, it creates a new
-     * entry for him.
+     * Creates a new entry in the sidebar for the given {@link RemoteUser}, or updates only his entry if it already
+     * exists; the currently selected filter determines if it remains visible. It must be called from the JavaFX
+     * thread.
      *
      * @param remoteUser the {@link RemoteUser}.
      */
-    private void addUserEntry(RemoteUser remoteUser) {
+    void showUserEntry(RemoteUser remoteUser) {
+
+        if (!this.userEntriesByUsername.containsKey(remoteUser.getUsername())) {
+            UserEntry userEntry = new UserEntry(remoteUser.getUsername(), remoteUser.getStatus());
+            this.userEntriesByUsername.put(remoteUser.getUsername(), userEntry);
+
+            // It is inserted where it keeps the entries sorted
+            int index = Collections.binarySearch(this.userEntries, userEntry, MainWindowController.USER_ENTRIES_ORDER);
+            this.userEntries.add(-index - 1, userEntry);
 
-        // TODO enhance
-        this.retrievedRemoteUsers.put(remoteUser.getUsername(), remoteUser);
-        regenerateUserEntries();
+        } else {
+            updateUserEntryStatus(remoteUser);
+        }
     }
 
     /**
-     * - If the currently selected filter in the sidebar menu allows the new remote user's state, it creates a new
-     * entry for him if it does not already exist.
-     * - If the currently selected filter in the sidebar menu does not allow the new remoter user's state, it removes
-     * any existing entry for him.
+     * Removes the entry of the specified remote user from the sidebar, if it exists. It must be called from the JavaFX
+     * thread.
      *
-     * @param remoteUser the {@link RemoteUser}.
+     * @param remoteUser name by which the remote user can be identified.
      */
-    private void updateUserEntry(RemoteUser remoteUser) {
+    void hideUserEntry(String remoteUser) {
+
+        UserEntry userEntry = this.userEntriesByUsername.remove(remoteUser);
+
+        if (userEntry != null) {
+            this.userEntries.remove(Collections.binarySearch(this.userEntries, userEntry,
+                    MainWindowController.USER_ENTRIES_ORDER));
 
-        // TODO enhance
-        this.retrievedRemoteUsers.put(remoteUser.getUsername(), remoteUser);
-        regenerateUserEntries();
+            if (userEntry.isSelected()) {
+                deselectUserEntry();
+            }
+        }
     }
 
     /**
-     * If the currently selected filter in the sidebar menu allows the given remote user's state, it removes any
-     * existing entry for him.
+     * Updates the status shown in the entry of the given {@link RemoteUser}. If the entry is the selected one, and the
+     * user is now online, the communication with him is established, as he could previously have been a pending friend.
+     * It must be called from the JavaFX thread.
      *
      * @param remoteUser the {@link RemoteUser}.
      */
-    private void removeUserEntry(RemoteUser remoteUser) {
+    private void updateUserEntryStatus(RemoteUser remoteUser) {
 
-        // TODO enhance
-        this.retrievedRemoteUsers.remove(remoteUser.getUsername());
-        regenerateUserEntries();
-    }
+        UserEntry userEntry = this.userEntriesByUsername.get(remoteUser.getUsername());
 
-    /**
-     * Removes the currently shown user entries and generates new ones accordingly to the selected filter in the
-     * sidebar menu.
-     */
-    private void regenerateUserEntries() {
+        if (userEntry == null) {
+            return;
+        }
 
-        // Just in case another thread updates the current users via RemoteUsersListener
-        Platform.runLater(() -> {
+        // The filtered list re-evaluates the entry, and its cell is rendered again
+        userEntry.setStatus(remoteUser.getStatus());
+        refreshUserEntry(userEntry);
 
-            ObservableList<Node> entries = this.sidebarItems.getChildren();
+        if (userEntry.isSelected()) {
 
-            this.overlappingInputLock.lock();
+            if (!this.userEntriesFilter.isStatusTypeAllowed(userEntry.getStatus())) {
+                deselectUserEntry();
 
-            try {
-                if (!this.overlappedInputActive) {
+            } else {
+                if (userEntry.getStatus().equals(StatusType.ONLINE)) {
+                    initiateAndShowChat(userEntry.getUsername());
+                }
+
+                updateMessageArea();
+            }
+        }
+    }
 
-                    entries.clear();
+    /**
+     * Shows only the user entries that the currently selected filter in the sidebar menu allows. If the selected entry
+     * is no longer shown, it gets deselected. It must be called from the JavaFX thread.
+     */
+    private void applyUserEntriesFilter() {
 
-                    // If the previously selected entry has been found again or not
-                    boolean previousEntryFound = false;
+        UserEntriesFilter filter = this.userEntriesFilter;
+        this.filteredUserEntries.setPredicate(userEntry -> filter.isStatusTypeAllowed(userEntry.getStatus()));
 
-                    for (RemoteUser remoteUser : this.retrievedRemoteUsers.values()) {
+        UserEntry selectedEntry = this.currentSelectedUser != null ?
+                this.userEntriesByUsername.get(this.currentSelectedUser) : null;
 
-                        if (this.userEntriesFilter.isStatusTypeAllowed(remoteUser.getStatus())) {
+        if (selectedEntry != null && !filter.isStatusTypeAllowed(selectedEntry.getStatus())) {
+            deselectUserEntry();
+        }
+    }
 
-                            FXMLLoader loader = new FXMLLoader(getClass().getResource("../fxml/sidebar_item.fxml"));
+    /**
+     * Highlights the entry of the specified remote user, removing the highlighting from the previously selected one,
+     * and resets its not-read-messages counter. It must be called from the JavaFX thread.
+     *
+     * @param remoteUser name by which the remote user can be identified.
+     */
+    private void selectUserEntry(String remoteUser) {
+
+        UserEntry previousEntry = this.currentSelectedUser != null ?
+                this.userEntriesByUsername.get(this.currentSelectedUser) : null;
 
-                            try {
-                                // The user's entry is appended to the currently shown ones
-                                entries.add(loader.load());
+        if (previousEntry != null) {
+            previousEntry.setSelected(false);
+            refreshUserEntry(previousEntry);
+        }
 
-                                UserEntryController controller = loader.getController();
+        UserEntry userEntry = this.userEntriesByUsername.get(remoteUser);
 
-                                // If the corresponding user has any not-read-messages counter, it also gets shown
-                                Integer counter = this.unreadMessagesCount.get(remoteUser.getUsername());
+        if (userEntry != null) {
+            userEntry.setSelected(true);
+            userEntry.setUnreadMessages(0);
+            refreshUserEntry(userEntry);
+        }
 
-                                controller.updateContents(remoteUser.getUsername(), remoteUser.getUsername(),
-                                        remoteUser.getStatus().toString(), counter != null ? counter : 0);
-                                controller.setMainWindowController(this);
+        this.currentSelectedUser = remoteUser;
+    }
 
-                                // Due to removing all entries to generate them again in every minor change, the one
-                                // that is equal to the previously selected one must be set as the selected one
-                                if (this.currentSelectedEntry != null &&
-                                        this.currentSelectedEntry.getUsername().equals(controller.getUsername())) {
+    /**
+     * Notifies the sidebar that the given {@link UserEntry} has been modified, by replacing it by itself. Therefore,
+     * the filter only re-evaluates that entry, and only its cell is rendered again. It must be called from the JavaFX
+     * thread.
+     *
+     * @param userEntry the {@link UserEntry}.
+     */
+    private void refreshUserEntry(UserEntry userEntry) {
 
-                                    previousEntryFound = true;
+        int index = Collections.binarySearch(this.userEntries, userEntry, MainWindowController.USER_ENTRIES_ORDER);
 
-                                    this.currentSelectedEntry = controller;
-                                    this.currentSelectedEntry.addHighlighting();
+        if (index >= 0) {
+            this.userEntries.set(index, userEntry);
+        }
+    }
 
-                                    // And, if the user is now online, it could be that he was previously a pending
-                                    // friend, so the communication with him must be established
-                                    if (this.retrievedRemoteUsers.get(this.currentSelectedEntry.getUsername())
-                                            .getStatus().equals(StatusType.ONLINE)) {
-                                        initiateAndShowChat(this.currentSelectedEntry.getUsername());
-                                    }
-                                }
+    /**
+     * Removes the highlighting from the currently selected entry, so that no user is selected. It must be called from
+     * the JavaFX thread.
+     */
+    private void deselectUserEntry() {
 
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
+        UserEntry userEntry = this.currentSelectedUser != null ?
+                this.userEntriesByUsername.get(this.currentSelectedUser) : null;
 
-                    // If the previously selected entry has not been found, the currently selected one is set to null
-                    if (!previousEntryFound) {
-                        this.currentSelectedEntry = null;
-                    }
+        if (userEntry != null) {
+            userEntry.setSelected(false);
+            refreshUserEntry(userEntry);
+        }
 
-                    // The scroll of the container of all messages is set to the maximum, so that the new message is
-                    // shown
-                    // https://stackoverflow.com/questions/26152642/get-the-height-of-a-node-in-javafx-generate-a-layout-pass
-                    this.messagesScrollPane.applyCss();
-                    this.messagesScrollPane.layout();
-                    this.messagesScrollPane.setVvalue(1.0);
-                }
-            } finally {
-                this.overlappingInputLock.unlock();
-            }
+        this.currentSelectedUser = null;
 
-            updateMessageArea();
-        });
+        updateMessageArea();
     }
 
     /**
@@ -1024,9 +1137,11 @@ public class MainWindowController extends AbstractController implements LocalTun
      */
     private void updateMessageArea() {
 
-        boolean entryIsSelected = this.currentSelectedEntry != null;
-        StatusType status = entryIsSelected ?
-                this.retrievedRemoteUsers.get(this.currentSelectedEntry.getUsername()).getStatus() : null;
+        UserEntry selectedEntry = this.currentSelectedUser != null ?
+                this.userEntriesByUsername.get(this.currentSelectedUser) : null;
+
+        boolean entryIsSelected = selectedEntry != null;
+        StatusType status = entryIsSelected ? selectedEntry.getStatus() : null;
 
         // If no user has been selected or if the selected one is not online
         if (!entryIsSelected || !status.equals(StatusType.ONLINE)) {
@@ -0,0 +1,84 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import javafx.scene.control.ListCell;
+
+/**
+ * This class renders the messages of the chat that is being shown. As the {@link javafx.scene.control.ListView} only
+ * creates enough cells to fill its viewport and reuses them while scrolling, only the visible messages have nodes.
+ * Each cell holds both the incoming and the outgoing views, and shows the one that corresponds to its current message.
+ */
+public class MessageCell extends ListCell<Long> {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Controller of the view for received messages.
+     */
+    private final MessageController incomingController;
+
+    /**
+     * Controller of the view for sent messages.
+     */
+    private final MessageController outgoingController;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link MessageCell}, building both of its views.
+     */
+    public MessageCell() {
+
+        this.incomingController = CellViewFactory.createMessageView(false);
+        this.outgoingController = CellViewFactory.createMessageView(true);
+
+        setText(null);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Shows the message with the given sequence number.
+     *
+     * @param sequence sequence number of the message in the {@link ChatHistory} that is being shown.
+     * @param empty    if the cell does not represent any message.
+     */
+    @Override
+    protected void updateItem(Long sequence, boolean empty) {
+
+        super.updateItem(sequence, empty);
+
+        if (empty || sequence == null || !(getListView().getItems() instanceof ChatHistoryItems)) {
+            setGraphic(null);
+            return;
+        }
+
+        ChatHistory chatHistory = ((ChatHistoryItems) getListView().getItems()).getChatHistory();
+
+        String message;
+        boolean outgoing;
+        long timestamp;
+
+        synchronized (chatHistory) {
+
+            // The message may have just been dropped by another thread; the items will be synchronized shortly
+            if (sequence < chatHistory.getFirstSequence() || sequence >= chatHistory.getNextSequence()) {
+                setGraphic(null);
+                return;
+            }
+
+            message = chatHistory.getMessage(sequence);
+            outgoing = chatHistory.isOutgoing(sequence);
+            timestamp = chatHistory.getTimestamp(sequence);
+        }
+
+        if (outgoing) {
+            this.outgoingController.updateContents(message, timestamp);
+            setGraphic(this.outgoingController.getView());
+        } else {
+            this.incomingController.updateContents(message, timestamp);
+            setGraphic(this.incomingController.getView());
+        }
+    }
+}
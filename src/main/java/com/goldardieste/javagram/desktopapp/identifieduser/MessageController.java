@@ -1,26 +1,72 @@
 package com.goldardieste.javagram.desktopapp.identifieduser;
 
-import javafx.fxml.FXML;
+import javafx.scene.Node;
 import javafx.scene.control.Label;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+
 /**
- * This class is needed to generate the visual representation of a message, be it outgoing or incoming.
+ * This class is needed to generate the visual representation of a message, be it outgoing or incoming. Its view is
+ * built by {@link CellViewFactory}.
  */
 public class MessageController {
 
-    /* ----- FXML attributes ----- */
+    /* ----- Attributes ----- */
+
+    /**
+     * Formats the time at which each message was sent or received.
+     */
+    private final static DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofLocalizedTime(FormatStyle.SHORT)
+            .withZone(ZoneId.systemDefault());
+
+
+    /* ----- View attributes ----- */
+
+    /**
+     * Root node of the message's view.
+     */
+    private final Node view;
 
     /**
      * The message's content.
      */
-    @FXML
-    private Label content;
+    private final Label content;
 
     /**
      * The message's reception/sent time.
      */
-    @FXML
-    private Label time;
+    private final Label time;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link MessageController} that manages the given view.
+     *
+     * @param view    root node of the message's view.
+     * @param content the message's content.
+     * @param time    the message's reception/sent time.
+     */
+    MessageController(Node view, Label content, Label time) {
+        this.view = view;
+        this.content = content;
+        this.time = time;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #view}.
+     *
+     * @return {@link #view}.
+     */
+    public Node getView() {
+        return view;
+    }
 
 
     /* ----- Methods ----- */
@@ -31,8 +77,19 @@ public class MessageController {
      * @param content the new message's contents.
      */
     public void updateContents(String content) {
+        updateContents(content, System.currentTimeMillis());
+    }
+
+    /**
+     * Updates the view's contents using the given data.
+     *
+     * @param content   the new message's contents.
+     * @param timestamp when the message was sent or received, in milliseconds since the epoch.
+     */
+    public void updateContents(String content, long timestamp) {
 
         this.content.setText(/*adaptText(*/content/*)*/);
+        this.time.setText(MessageController.TIME_FORMATTER.format(Instant.ofEpochMilli(timestamp)));
     }
 
     /**
@@ -0,0 +1,233 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class forwards to the JavaFX thread the updates that the back-end threads notify to the {@link
+ * MainWindowController}. Instead of posting a task for each of them, they are kept as pending, collapsed by remote user:
+ * only the last known state of each user is kept, and the incoming messages are just counted. Then, the JavaFX thread
+ * applies all of them as a single batch when the next frame is rendered.
+ * <p>
+ * Therefore, no matter how many updates arrive in a burst, at most one batch is applied per frame, and its cost only
+ * depends on how many remote users have changed. The timer that applies the batches only runs while there are pending
+ * updates.
+ */
+class UiUpdateBridge {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * {@link MainWindowController} where the updates are applied.
+     */
+    private final MainWindowController mainWindowController;
+
+    /**
+     * {@link ReentrantLock} that a thread must acquire to access any of the pending updates.
+     */
+    private final ReentrantLock pendingLock;
+
+    /**
+     * Last known state of each remote user that has changed, in the order in which they first changed. If a remote
+     * user has been deleted, his value is null.
+     */
+    private Map<String, RemoteUser> pendingRemoteUsers;
+
+    /**
+     * How many messages each remote user has sent since the last batch.
+     */
+    private Map<String, Integer> pendingIncomingMessages;
+
+    /**
+     * If the chat that is being shown has new messages since the last batch.
+     */
+    private boolean pendingShownChatChange;
+
+    /**
+     * If {@link #timer} has been requested to run, and it has not stopped since then.
+     */
+    private boolean scheduled;
+
+    /**
+     * Applies the pending updates, as a single batch, every time that a frame is rendered.
+     */
+    private final AnimationTimer timer;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link UiUpdateBridge} with no pending updates. It may be called from any thread, as the timer is
+     * only started from the JavaFX thread.
+     *
+     * @param mainWindowController {@link MainWindowController} where the updates will be applied.
+     */
+    UiUpdateBridge(MainWindowController mainWindowController) {
+
+        this.mainWindowController = mainWindowController;
+        this.pendingLock = new ReentrantLock();
+        this.pendingRemoteUsers = new LinkedHashMap<>();
+        this.pendingIncomingMessages = new LinkedHashMap<>();
+        this.pendingShownChatChange = false;
+        this.scheduled = false;
+
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                applyPendingUpdates();
+            }
+        };
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Notifies that the given remote user has been added or that his status has changed. Any previous pending update
+     * about him is discarded.
+     *
+     * @param remoteUser the {@link RemoteUser}.
+     */
+    void notifyRemoteUserChange(RemoteUser remoteUser) {
+
+        this.pendingLock.lock();
+
+        // The lock must always be released
+        try {
+            this.pendingRemoteUsers.put(remoteUser.getUsername(), remoteUser);
+            schedule();
+
+        } finally {
+            this.pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Notifies that the given remote user has been deleted. Any previous pending update about him is discarded.
+     *
+     * @param username name by which the remote user can be identified.
+     */
+    void notifyRemoteUserDeletion(String username) {
+
+        this.pendingLock.lock();
+
+        // The lock must always be released
+        try {
+            this.pendingRemoteUsers.put(username, null);
+            schedule();
+
+        } finally {
+            this.pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Notifies that the given remote user has sent new messages, which are added to the ones that are still pending.
+     *
+     * @param username name by which the remote user can be identified.
+     * @param amount   how many messages he has sent.
+     */
+    void notifyIncomingMessages(String username, int amount) {
+
+        this.pendingLock.lock();
+
+        // The lock must always be released
+        try {
+            this.pendingIncomingMessages.merge(username, amount, Integer::sum);
+            schedule();
+
+        } finally {
+            this.pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Notifies that the chat that is being shown has new messages.
+     */
+    void notifyShownChatChange() {
+
+        this.pendingLock.lock();
+
+        // The lock must always be released
+        try {
+            this.pendingShownChatChange = true;
+            schedule();
+
+        } finally {
+            this.pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Requests {@link #timer} to start running, if it is not already doing so. As it can only be started from the
+     * JavaFX thread, at most one task is posted until the timer stops again. The lock of {@link #pendingLock} must be
+     * held.
+     */
+    private void schedule() {
+
+        if (!this.scheduled) {
+            this.scheduled = true;
+            Platform.runLater(this.timer::start);
+        }
+    }
+
+    /**
+     * Applies all the pending updates to {@link #mainWindowController} as a single batch. If there are none, {@link
+     * #timer} is stopped until a new update arrives. It must be called from the JavaFX thread.
+     */
+    private void applyPendingUpdates() {
+
+        Map<String, RemoteUser> remoteUsers;
+        Map<String, Integer> incomingMessages;
+        boolean shownChatChange;
+
+        // 1. The pending updates are taken, so that the back-end threads can keep adding new ones while they are
+        //    being applied
+        this.pendingLock.lock();
+
+        // The lock must always be released
+        try {
+            if (this.pendingRemoteUsers.isEmpty() && this.pendingIncomingMessages.isEmpty() &&
+                    !this.pendingShownChatChange) {
+                this.timer.stop();
+                this.scheduled = false;
+                return;
+            }
+
+            remoteUsers = this.pendingRemoteUsers;
+            incomingMessages = this.pendingIncomingMessages;
+            shownChatChange = this.pendingShownChatChange;
+
+            this.pendingRemoteUsers = new LinkedHashMap<>();
+            this.pendingIncomingMessages = new LinkedHashMap<>();
+            this.pendingShownChatChange = false;
+
+        } finally {
+            this.pendingLock.unlock();
+        }
+
+        // 2. The entries of the remote users are updated first, as the new messages may belong to new users
+        for (Map.Entry<String, RemoteUser> entry : remoteUsers.entrySet()) {
+            if (entry.getValue() != null) {
+                this.mainWindowController.showUserEntry(entry.getValue());
+            } else {
+                this.mainWindowController.hideUserEntry(entry.getKey());
+            }
+        }
+
+        // 3. Then, the unread messages' counters
+        for (Map.Entry<String, Integer> entry : incomingMessages.entrySet()) {
+            this.mainWindowController.increaseUnreadMessages(entry.getKey(), entry.getValue());
+        }
+
+        // 4. And the chat that is being shown
+        if (shownChatChange) {
+            this.mainWindowController.refreshShownChat();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import com.goldardieste.javagram.common.StatusType;
+
+/**
+ * This class represents, in the sidebar's model, the entry of a remote user that is related to the client. After
+ * modifying it, it must be replaced in the sidebar's list by itself, so that only the entry's own cell is updated. It
+ * must only be accessed from the JavaFX thread.
+ */
+public class UserEntry {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Name by which the remote user can be identified.
+     */
+    private final String username;
+
+    /**
+     * Current relation between the remote user and the client.
+     */
+    private StatusType status;
+
+    /**
+     * How many messages the remote user has sent that have not been read yet by the client.
+     */
+    private int unreadMessages;
+
+    /**
+     * If the entry is the one that the client has selected.
+     */
+    private boolean selected;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link UserEntry} with no unread messages, which is not selected.
+     *
+     * @param username name by which the remote user can be identified.
+     * @param status   current relation between the remote user and the client.
+     */
+    public UserEntry(String username, StatusType status) {
+        this.username = username;
+        this.status = status;
+        this.unreadMessages = 0;
+        this.selected = false;
+    }
+
+
+    /* ----- Getters ----- */
+
+    /**
+     * Retrieves the current {@link #username}.
+     *
+     * @return {@link #username}.
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Retrieves the current {@link #status}.
+     *
+     * @return {@link #status}.
+     */
+    public StatusType getStatus() {
+        return status;
+    }
+
+    /**
+     * Retrieves the current {@link #unreadMessages}.
+     *
+     * @return {@link #unreadMessages}.
+     */
+    public int getUnreadMessages() {
+        return unreadMessages;
+    }
+
+    /**
+     * Retrieves the current {@link #selected}.
+     *
+     * @return {@link #selected}.
+     */
+    public boolean isSelected() {
+        return selected;
+    }
+
+
+    /* ----- Setters ----- */
+
+    /**
+     * Updates the value of {@link #status}.
+     *
+     * @param status new {@link #status}.
+     */
+    public void setStatus(StatusType status) {
+        this.status = status;
+    }
+
+    /**
+     * Updates the value of {@link #unreadMessages}.
+     *
+     * @param unreadMessages new {@link #unreadMessages}.
+     */
+    public void setUnreadMessages(int unreadMessages) {
+        this.unreadMessages = unreadMessages;
+    }
+
+    /**
+     * Updates the value of {@link #selected}.
+     *
+     * @param selected new {@link #selected}.
+     */
+    public void setSelected(boolean selected) {
+        this.selected = selected;
+    }
+}
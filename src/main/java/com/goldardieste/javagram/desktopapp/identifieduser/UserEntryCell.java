@@ -0,0 +1,64 @@
+package com.goldardieste.javagram.desktopapp.identifieduser;
+
+import javafx.scene.control.ListCell;
+
+/**
+ * This class renders the user entries of the sidebar. As the {@link javafx.scene.control.ListView} only creates enough
+ * cells to fill its viewport and reuses them while scrolling, only the visible entries have nodes, no matter how many
+ * remote users are related to the client.
+ */
+public class UserEntryCell extends ListCell<UserEntry> {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * Controller of the entry's view, which also forwards the user's clicks to the {@link MainWindowController}.
+     */
+    private final UserEntryController controller;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link UserEntryCell}, building its view.
+     *
+     * @param mainWindowController {@link MainWindowController} that will handle the clicks in the entries.
+     */
+    public UserEntryCell(MainWindowController mainWindowController) {
+
+        this.controller = CellViewFactory.createUserEntryView(mainWindowController);
+
+        setText(null);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * Shows the given {@link UserEntry}.
+     *
+     * @param userEntry the {@link UserEntry}.
+     * @param empty     if the cell does not represent any entry.
+     */
+    @Override
+    protected void updateItem(UserEntry userEntry, boolean empty) {
+
+        super.updateItem(userEntry, empty);
+
+        if (empty || userEntry == null) {
+            setGraphic(null);
+            return;
+        }
+
+        this.controller.updateContents(userEntry.getUsername(), userEntry.getUsername(),
+                userEntry.getStatus().toString(), userEntry.getUnreadMessages());
+
+        if (userEntry.isSelected()) {
+            this.controller.addHighlighting();
+        } else {
+            this.controller.removeHighlighting();
+        }
+
+        setGraphic(this.controller.getEntryContainer());
+    }
+}
@@ -2,14 +2,14 @@ package com.goldardieste.javagram.desktopapp.identifieduser;
 
 import javafx.collections.ObservableList;
 import javafx.event.Event;
-import javafx.fxml.FXML;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.Label;
 import javafx.scene.input.ContextMenuEvent;
 import javafx.scene.layout.HBox;
 
 /**
- * This class is needed to generate custom user entries that are shown in the main window's sidebar.
+ * This class is needed to generate custom user entries that are shown in the main window's sidebar. Its view is built
+ * by {@link CellViewFactory}.
  */
 public class UserEntryController {
 
@@ -26,45 +26,58 @@ public class UserEntryController {
     private MainWindowController mainWindowController;
 
 
-    /* ----- FXML attributes ----- */
+    /* ----- View attributes ----- */
 
     /**
      * Root container of the entry's elements.
      */
-    @FXML
-    private HBox entryContainer;
+    private final HBox entryContainer;
 
     /**
      * Text shown at the top-left.
      */
-    @FXML
-    private Label header;
+    private final Label header;
 
     /**
      * Text shown at the bottom-left.
      */
-    @FXML
-    private Label description;
+    private final Label description;
 
     /**
      * Text shown at the top-right.
      */
-    @FXML
-    private Label counter;
-
+    private final Label counter;
 
 
     /* ----- Constructor ----- */
 
     /**
-     * Generates a default {@link UserEntryController} to represent an user entry.
+     * Generates an {@link UserEntryController} that manages the given view of an user entry.
+     *
+     * @param entryContainer root container of the entry's elements.
+     * @param header         text shown at the top-left.
+     * @param description    text shown at the bottom-left.
+     * @param counter        text shown at the top-right.
      */
-    public UserEntryController() {
+    UserEntryController(HBox entryContainer, Label header, Label description, Label counter) {
+        this.entryContainer = entryContainer;
+        this.header = header;
+        this.description = description;
+        this.counter = counter;
     }
 
 
     /* ----- Getters & setters ----- */
 
+    /**
+     * Retrieves the current {@link #entryContainer}.
+     *
+     * @return {@link #entryContainer}.
+     */
+    public HBox getEntryContainer() {
+        return entryContainer;
+    }
+
     /**
      * Retrieves the current {@link #username}.
      *
@@ -100,8 +113,10 @@ public class UserEntryController {
         this.header.setText(header);
         this.description.setText(description);
 
+        // The view may be reused for another entry, so the counter's visibility is always updated
         if(counter > 0) {
             this.counter.setText(String.valueOf(counter));
+            this.counter.setVisible(true);
         }
         else {
             this.counter.setVisible(false);
@@ -113,7 +128,6 @@ public class UserEntryController {
      *
      * @param e associated {@link Event}.
      */
-    @FXML
     public void handleClick(Event e) {
 
         if (this.mainWindowController != null) {
@@ -145,7 +159,6 @@ public class UserEntryController {
      *
      * @param e associated {@link ContextMenuEvent}.
      */
-    @FXML
     public void handleRightClick(ContextMenuEvent e) {
 
         if (this.mainWindowController != null) {
@@ -1,18 +1,23 @@
 package com.goldardieste.javagram.desktopapp.unidentifieduser;
 
 import com.goldardieste.javagram.client.exposed.ClientFacade;
-import com.goldardieste.javagram.client.exposed.ClientOperationFailedException;
 import com.goldardieste.javagram.common.ConfigurationParameters;
 import com.goldardieste.javagram.desktopapp.AbstractController;
 import com.goldardieste.javagram.desktopapp.identifieduser.MainWindowController;
+import javafx.application.Platform;
 import javafx.collections.ObservableList;
 import javafx.event.Event;
 import javafx.fxml.FXML;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * This class represents the FXML controller for the window where the user types in an username and password to log in
@@ -22,15 +27,45 @@ public class SessionDataWindowController extends AbstractController {
 
     /* ----- Attributes ----- */
 
+    /**
+     * Runs the tasks that prepare the session in background; each of them gets its own thread, as there are only a
+     * few of them.
+     */
+    private final static Executor BACKGROUND_TASKS = runnable -> {
+        Thread thread = new Thread(runnable, "javagram-session-preparation");
+        // The tasks must not prevent the desktop app from ending its execution
+        thread.setDaemon(true);
+        thread.start();
+    };
+
     /**
      * If the user is going to create a new Javagram account or not.
      */
     private boolean signUpMode;
 
     /**
-     * Provides all the back-end functionality to the desktop app.
+     * Provides all the back-end functionality to the desktop app. It is created in background as soon as the window
+     * is shown, as it connects to the server and generates the user's keys, so that it is ready by the time the user
+     * has typed in his credentials.
+     * <p>
+     * It is only accessed by the JavaFX thread.
+     */
+    private CompletableFuture<ClientFacade> clientFacade;
+
+    /**
+     * The main window, which is also loaded in background as soon as this window is shown. It will be completed with
+     * null if it could not be loaded, in which case it is loaded again once the session is initiated.
+     * <p>
+     * It is only accessed by the JavaFX thread.
+     */
+    private CompletableFuture<PreparedScene> mainWindow;
+
+    /**
+     * If a session is being initiated, so that the user cannot request it again meanwhile.
+     * <p>
+     * It is only accessed by the JavaFX thread.
      */
-    private ClientFacade clientFacade;
+    private boolean sessionInProgress;
 
 
     /* ----- FXML attributes ----- */
@@ -53,6 +88,18 @@ public class SessionDataWindowController extends AbstractController {
     @FXML
     private Label labelWarning;
 
+    /**
+     * Button that initiates the session.
+     */
+    @FXML
+    private Button buttonGoOn;
+
+    /**
+     * Shown while the session is being initiated.
+     */
+    @FXML
+    private ProgressIndicator progressIndicator;
+
 
     /* ----- Setters ----- */
 
@@ -68,6 +115,15 @@ public class SessionDataWindowController extends AbstractController {
 
     /* ----- Methods ----- */
 
+    /**
+     * Starts preparing in background everything that the session will need, while the user types in his credentials.
+     */
+    @FXML
+    private void initialize() {
+        prepareClientBackEnd();
+        prepareMainWindow();
+    }
+
     /**
      * Switches back to the window where the user chooses to sign up or to log in.
      *
@@ -76,7 +132,12 @@ public class SessionDataWindowController extends AbstractController {
      */
     @FXML
     public void goSessionModeWindow(Event e) throws IOException {
-        loadNewScene("../fxml/session_mode_window.fxml");
+
+        // The back-end that was being prepared is no longer needed, as the next window will prepare its own one
+        if (!this.sessionInProgress) {
+            handleClosing();
+            loadNewScene("../fxml/session_mode_window.fxml");
+        }
     }
 
     /**
@@ -154,11 +215,16 @@ public class SessionDataWindowController extends AbstractController {
     }
 
     /**
-     * Initiates a session in the Javagram network using the given data by the user.
+     * Initiates a session in the Javagram network using the given data by the user. The request is made in background,
+     * while a progress indicator is shown, and the main window is shown once it succeeds.
      *
      * @param e associated {@link Event}.
      */
-    public void initiateSession(Event e) throws IOException {
+    public void initiateSession(Event e) {
+
+        if (this.sessionInProgress) {
+            return;
+        }
 
         // The previous warning is hidden while the request is handled
         this.labelWarning.setVisible(false);
@@ -170,52 +236,138 @@ public class SessionDataWindowController extends AbstractController {
         // Both expressions are evaluated even if the first one is false
         if (checkUsername(null) & checkPassword(null)) {
 
-            // The Javagram client back-end is set up if it is not yet
-            prepareClientBackEnd();
+            showProgress(true);
 
-            try {
-                // If the user is going to sign up
-                if (this.signUpMode) {
-                    clientFacade.signUp(username, password);
+            boolean signUp = this.signUpMode;
+            CompletableFuture<ClientFacade> clientFacade = prepareClientBackEnd();
+            CompletableFuture<PreparedScene> mainWindow = prepareMainWindow();
 
-                } else {
-                    clientFacade.login(username, password);
-                }
+            // 1. Once the Javagram client back-end is ready, the user signs up or logs in
+            clientFacade.thenCompose(facade -> signUp ? facade.signUpAsync(username, password) :
+                    facade.loginAsync(username, password))
 
-                // If everything goes well, the main window is loaded
-                MainWindowController controller = (MainWindowController) loadNewScene("../fxml/main_window.fxml");
-                controller.setClientFacade(this.clientFacade);
+                    // 2. And, when the main window is also ready, it gets shown
+                    .thenCombine(mainWindow, (successful, preparedScene) -> preparedScene)
+                    .whenComplete((preparedScene, exception) -> Platform.runLater(() -> {
 
-                // So that all resources are properly freed when the application ends its execution
-                getStage().setOnCloseRequest(event -> controller.handleClosing());
+                        if (exception == null) {
+                            showMainWindow(clientFacade.join(), preparedScene);
 
-            } catch (ClientOperationFailedException exception) {
-                exception.printStackTrace();
+                        } else {
+                            exception.printStackTrace();
+                            showFailure(signUp);
+                        }
+                    }));
+        }
+    }
 
-                // If the user was going to sign up
-                if (this.signUpMode) {
-                    this.labelWarning.setText("Could not sign up. The Javagram server could not be\nreachable, or " +
-                            "the username may already be taken.");
-                }
-                else {
-                    this.labelWarning.setText("Could not log in. The Javagram server could not be \nreachable, or " +
-                            "the credentials could be wrong.");
-                }
+    /**
+     * Shows the main window, which will use the given {@link ClientFacade}. It must be called from the JavaFX thread.
+     *
+     * @param clientFacade  {@link ClientFacade} through which the session has been initiated.
+     * @param preparedScene the main window, if it could be loaded in background; otherwise, null.
+     */
+    private void showMainWindow(ClientFacade clientFacade, PreparedScene preparedScene) {
 
-                this.labelWarning.setVisible(true);
-            }
+        MainWindowController controller;
+
+        try {
+            controller = (MainWindowController) (preparedScene != null ? showScene(preparedScene) :
+                    loadNewScene("../fxml/main_window.fxml"));
+
+        } catch (IOException exception) {
+            System.err.println("The main window could not be loaded");
+            exception.printStackTrace();
+            showProgress(false);
+            return;
         }
+
+        controller.setClientFacade(clientFacade);
+
+        // So that all resources are properly freed when the application ends its execution
+        getStage().setOnCloseRequest(event -> controller.handleClosing());
+    }
+
+    /**
+     * Warns the user that the session could not be initiated, so that he may try again. It must be called from the
+     * JavaFX thread.
+     *
+     * @param signUp if the user was going to sign up.
+     */
+    private void showFailure(boolean signUp) {
+
+        // If the user was going to sign up
+        if (signUp) {
+            this.labelWarning.setText("Could not sign up. The Javagram server could not be\nreachable, or " +
+                    "the username may already be taken.");
+        }
+        else {
+            this.labelWarning.setText("Could not log in. The Javagram server could not be \nreachable, or " +
+                    "the credentials could be wrong.");
+        }
+
+        this.labelWarning.setVisible(true);
+        showProgress(false);
+    }
+
+    /**
+     * Shows or hides the progress indicator, and prevents the user from modifying his credentials while it is shown.
+     * It must be called from the JavaFX thread.
+     *
+     * @param inProgress if a session is being initiated.
+     */
+    private void showProgress(boolean inProgress) {
+
+        this.sessionInProgress = inProgress;
+
+        this.progressIndicator.setVisible(inProgress);
+        this.fieldUsername.setDisable(inProgress);
+        this.fieldPassword.setDisable(inProgress);
+        this.buttonGoOn.setDisable(inProgress);
     }
 
     /**
-     * Creates an instance of {@link ClientFacade} that will provide all the required functionality to the desktop app.
+     * Starts creating in background an instance of {@link ClientFacade} that will provide all the required
+     * functionality to the desktop app, unless it is already being created. If a previous attempt failed, for
+     * example because the server was not reachable, it is made again. It must be called from the JavaFX thread.
+     *
+     * @return a {@link CompletableFuture} that will be completed with the {@link ClientFacade}.
      */
-    private void prepareClientBackEnd() {
+    private CompletableFuture<ClientFacade> prepareClientBackEnd() {
 
-        if (this.clientFacade == null) {
-            this.clientFacade = new ClientFacade(ConfigurationParameters.RMI_ADDRESS,
-                    ConfigurationParameters.RMI_PORT, ConfigurationParameters.RMI_IDENTIFIER);
+        if (this.clientFacade == null || this.clientFacade.isCompletedExceptionally()) {
+            this.clientFacade = CompletableFuture.supplyAsync(() -> new ClientFacade(
+                    ConfigurationParameters.RMI_ADDRESS, ConfigurationParameters.RMI_PORT,
+                    ConfigurationParameters.RMI_IDENTIFIER), SessionDataWindowController.BACKGROUND_TASKS);
         }
+
+        return this.clientFacade;
+    }
+
+    /**
+     * Starts loading in background the main window, along with its stylesheets, unless it is already being loaded. It
+     * must be called from the JavaFX thread.
+     *
+     * @return a {@link CompletableFuture} that will be completed with the main window, or with null if it could not
+     * be loaded.
+     */
+    private CompletableFuture<PreparedScene> prepareMainWindow() {
+
+        if (this.mainWindow == null) {
+            this.mainWindow = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return prepareScene("../fxml/main_window.fxml");
+                } catch (IOException exception) {
+                    throw new UncheckedIOException(exception);
+                }
+            }, SessionDataWindowController.BACKGROUND_TASKS).exceptionally(exception -> {
+                System.err.println("The main window could not be loaded in background");
+                exception.printStackTrace();
+                return null;
+            });
+        }
+
+        return this.mainWindow;
     }
 
     /**
@@ -223,8 +375,9 @@ public class SessionDataWindowController extends AbstractController {
      */
     public void handleClosing() {
 
-        if(this.clientFacade != null) {
-            this.clientFacade.haltExecution();
+        // The back-end is halted once it is ready, if it is still being created
+        if (this.clientFacade != null) {
+            this.clientFacade.thenAccept(ClientFacade::haltExecution);
         }
     }
 }
@@ -0,0 +1,169 @@
+package com.goldardieste.javagram.server;
+
+import com.goldardieste.javagram.common.ConfigurationParameters;
+import com.goldardieste.javagram.common.datacontainers.CompactSerialization;
+import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
+import com.goldardieste.javagram.common.nio.MultiplexedChannel;
+import com.goldardieste.javagram.common.nio.ServerProtocol;
+
+import java.io.IOException;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.security.PublicKey;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class represents, in the server, the {@link IServerNotificationsListener} of a client that is connected
+ * through the {@link NioServerEndpoint}. Its callbacks are sent as requests over the same {@link MultiplexedChannel}
+ * through which the client sends its own requests.
+ */
+public class NioNotificationsListener implements IServerNotificationsListener {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * {@link MultiplexedChannel} that connects the server to the client.
+     */
+    private final MultiplexedChannel channel;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioNotificationsListener} for the client at the other end of the given channel.
+     *
+     * @param channel {@link MultiplexedChannel} that connects the server to the client.
+     */
+    public NioNotificationsListener(MultiplexedChannel channel) {
+        this.channel = channel;
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NewChatData replyChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
+            remoteUserPublicKey, int remoteUserFeatures) throws RemoteException {
+
+        try {
+            byte[] response = call(ServerProtocol.encode(ServerProtocol.REPLY_CHAT_REQUEST, out -> {
+                CompactSerialization.writeString(out, remoteUser);
+                ServerProtocol.writeTunnel(out, remoteUserTunnel);
+                ServerProtocol.writePublicKey(out, remoteUserPublicKey);
+                out.writeInt(remoteUserFeatures);
+            }));
+
+            return ServerProtocol.readNewChatData(ServerProtocol.decode(response));
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (IOException e) {
+            throw new RemoteException("The chat request could not be encoded or its reply decoded", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public NewChatData acceptChatRequest(String remoteUser, IRemoteUserTunnel remoteUserTunnel, PublicKey
+            remoteUserPublicKey, byte[] agreementSalt, int remoteUserFeatures) throws RemoteException {
+
+        try {
+            byte[] response = call(ServerProtocol.encode(ServerProtocol.ACCEPT_CHAT_REQUEST, out -> {
+                CompactSerialization.writeString(out, remoteUser);
+                ServerProtocol.writeTunnel(out, remoteUserTunnel);
+                ServerProtocol.writePublicKey(out, remoteUserPublicKey);
+                ServerProtocol.writeBytes(out, agreementSalt);
+                out.writeInt(remoteUserFeatures);
+            }));
+
+            return ServerProtocol.readNewChatData(ServerProtocol.decode(response));
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (IOException e) {
+            throw new RemoteException("The chat request could not be encoded or its reply decoded", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void completeChatRequest(String remoteUser, NewChatData chatData) throws RemoteException {
+
+        try {
+            call(ServerProtocol.encode(ServerProtocol.COMPLETE_CHAT_REQUEST, out -> {
+                CompactSerialization.writeString(out, remoteUser);
+                out.writeBoolean(chatData != null);
+
+                if (chatData != null) {
+                    ServerProtocol.writeNewChatData(out, chatData);
+                }
+            }));
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (IOException e) {
+            throw new RemoteException("The answer to the chat request could not be encoded", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateRemoteUserStatus(RemoteUser remoteUser) throws RemoteException {
+
+        try {
+            call(ServerProtocol.encode(ServerProtocol.UPDATE_REMOTE_USER_STATUS,
+                    out -> ServerProtocol.writeRemoteUser(out, remoteUser)));
+
+        } catch (RemoteException e) {
+            throw e;
+
+        } catch (IOException e) {
+            throw new RemoteException("The notification could not be encoded", e);
+        }
+    }
+
+    /**
+     * Sends the given request to the client and waits for its response.
+     *
+     * @param request the request.
+     * @return the response.
+     * @throws RemoteException if the client cannot process the request, or if it does not answer in time.
+     */
+    private byte[] call(byte[] request) throws RemoteException {
+
+        try {
+            return this.channel.sendRequest(request).get(ConfigurationParameters.SOCKET_READ_TIMEOUT_MS,
+                    TimeUnit.MILLISECONDS);
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw new ConnectIOException("The client could not be notified", e);
+
+        } catch (TimeoutException e) {
+            throw new ConnectIOException("The client has not answered in time", e);
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectIOException("The notification has been interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.goldardieste.javagram.server;
+
+import com.goldardieste.javagram.common.datacontainers.CompactSerialization;
+import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
+import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.datacontainers.UserToken;
+import com.goldardieste.javagram.common.exceptions.ServerOperationFailedException;
+import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
+import com.goldardieste.javagram.common.nio.MultiplexedChannel;
+import com.goldardieste.javagram.common.nio.NioEventLoop;
+import com.goldardieste.javagram.common.nio.RequestHandler;
+import com.goldardieste.javagram.common.nio.ServerProtocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class is a second front end of the {@link ServerFacade}, alongside the RMI one ({@link ServerFacadeProxy}).
+ * Clients keep one persistent TLS connection to it, over which they send requests with the binary {@link
+ * ServerProtocol} and receive the server's callbacks. A single {@link NioEventLoop} handles all the connections, and
+ * the requests are processed by a fixed pool of workers, so that no thread is needed per client.
+ */
+public class NioServerEndpoint implements RequestHandler {
+
+    /* ----- Attributes ----- */
+
+    /**
+     * The actual Javagram server.
+     */
+    private final ServerFacade serverFacade;
+
+    /**
+     * {@link NioEventLoop} that handles all the connections.
+     */
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Processes the requests, so that the {@link #eventLoop} never blocks.
+     */
+    private final ExecutorService workers;
+
+
+    /* ----- Constructor ----- */
+
+    /**
+     * Initializes a {@link NioServerEndpoint} that immediately starts accepting clients on the given port.
+     *
+     * @param serverFacade Javagram server that will process the requests.
+     * @param port         port where the clients will be accepted.
+     * @throws IOException if the port cannot be bound.
+     */
+    public NioServerEndpoint(ServerFacade serverFacade, int port) throws IOException {
+
+        this.serverFacade = serverFacade;
+
+        // Requests may wait on the database or on callbacks to other clients, so more workers than cores are used
+        this.workers = Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "javagram-nio-server-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.eventLoop = new NioEventLoop("javagram-nio-server");
+
+        // Requests from the same client may be processed concurrently, as with RMI
+        this.eventLoop.listen(port, MultiplexedChannel.acceptor(this, this.workers, false,
+                ServerProtocol.MAX_REQUEST_SIZE));
+
+        System.out.println("The Javagram server is now available through the NIO endpoint at port: " + port);
+    }
+
+
+    /* ----- Methods ----- */
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Decodes the request, calls the corresponding operation of {@link #serverFacade} and encodes its result.
+     */
+    @Override
+    public byte[] handleRequest(MultiplexedChannel channel, byte[] request) throws IOException {
+
+        DataInputStream in = ServerProtocol.decode(request);
+        byte code = in.readByte();
+
+        switch (code) {
+
+            case ServerProtocol.SIGN_UP: {
+                String username = CompactSerialization.readString(in);
+                String passwordHash = CompactSerialization.readString(in);
+                UserToken token = this.serverFacade.signUp(username, passwordHash, retrieveListener(channel));
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeToken(out, token));
+            }
+
+            case ServerProtocol.LOGIN: {
+                String username = CompactSerialization.readString(in);
+                String passwordHash = CompactSerialization.readString(in);
+                UserToken token = this.serverFacade.login(username, passwordHash, retrieveListener(channel));
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeToken(out, token));
+            }
+
+            case ServerProtocol.UPDATE_PASSWORD: {
+                UserToken token = ServerProtocol.readToken(in);
+                String passwordHash = CompactSerialization.readString(in);
+                String newPasswordHash = CompactSerialization.readString(in);
+                this.serverFacade.updatePassword(token, passwordHash, newPasswordHash);
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.DISCONNECT: {
+                this.serverFacade.disconnect(ServerProtocol.readToken(in));
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.RETRIEVE_FRIENDS: {
+                List<RemoteUser> friends = this.serverFacade.retrieveFriends(ServerProtocol.readToken(in));
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeRemoteUsers(out, friends));
+            }
+
+            case ServerProtocol.RETRIEVE_FRIENDS_BY_STATUS: {
+                UserToken token = ServerProtocol.readToken(in);
+                List<RemoteUser> friends = this.serverFacade.retrieveFriends(token,
+                        CompactSerialization.readStatus(in));
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeRemoteUsers(out, friends));
+            }
+
+            case ServerProtocol.INITIATE_CHAT: {
+                UserToken token = ServerProtocol.readToken(in);
+                IRemoteUserTunnel localTunnel = ServerProtocol.readTunnel(in);
+                PublicKey localPublicKey = ServerProtocol.readPublicKey(in);
+                int localFeatures = in.readInt();
+                String remoteUser = CompactSerialization.readString(in);
+
+                NewChatData chatData = this.serverFacade.initiateChat(token, localTunnel, localPublicKey,
+                        localFeatures, remoteUser);
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writeNewChatData(out, chatData));
+            }
+
+            case ServerProtocol.PUBLISH_PREKEYS: {
+                UserToken token = ServerProtocol.readToken(in);
+                this.serverFacade.publishPrekeys(token, ServerProtocol.readPrekeyBundle(in));
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.RETRIEVE_PREKEYS: {
+                UserToken token = ServerProtocol.readToken(in);
+                PrekeyBundle bundle = this.serverFacade.retrievePrekeys(token, CompactSerialization.readString(in));
+
+                return ServerProtocol.encodeResponse(out -> ServerProtocol.writePrekeyBundle(out, bundle));
+            }
+
+            case ServerProtocol.REQUEST_CHAT: {
+                UserToken token = ServerProtocol.readToken(in);
+                IRemoteUserTunnel localTunnel = ServerProtocol.readTunnel(in);
+                PublicKey localPublicKey = ServerProtocol.readPublicKey(in);
+                byte[] agreementSalt = ServerProtocol.readBytes(in);
+                int localFeatures = in.readInt();
+                String remoteUser = CompactSerialization.readString(in);
+
+                this.serverFacade.requestChat(token, localTunnel, localPublicKey, agreementSalt, localFeatures,
+                        remoteUser);
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.REQUEST_FRIENDSHIP: {
+                UserToken token = ServerProtocol.readToken(in);
+                this.serverFacade.requestFriendship(token, CompactSerialization.readString(in));
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.ACCEPT_FRIENDSHIP: {
+                UserToken token = ServerProtocol.readToken(in);
+                boolean online = this.serverFacade.acceptFriendship(token, CompactSerialization.readString(in));
+
+                return ServerProtocol.encodeResponse(out -> out.writeBoolean(online));
+            }
+
+            case ServerProtocol.REJECT_FRIENDSHIP: {
+                UserToken token = ServerProtocol.readToken(in);
+                this.serverFacade.rejectFriendship(token, CompactSerialization.readString(in));
+
+                return new byte[0];
+            }
+
+            case ServerProtocol.END_FRIENDSHIP: {
+                UserToken token = ServerProtocol.readToken(in);
+                this.serverFacade.endFriendship(token, CompactSerialization.readString(in));
+
+                return new byte[0];
+            }
+
+            default:
+                System.err.println("An unknown operation has been requested through the NIO endpoint: " + code);
+                throw new ServerOperationFailedException("Unknown operation: " + code);
+        }
+    }
+
+    /**
+     * Retrieves the {@link NioNotificationsListener} of the client at the other end of the given channel, creating it
+     * if needed.
+     *
+     * @param channel the {@link MultiplexedChannel}.
+     * @return the {@link NioNotificationsListener}.
+     */
+    private NioNotificationsListener retrieveListener(MultiplexedChannel channel) {
+
+        synchronized (channel) {
+
+            if (channel.getAttachment() == null) {
+                channel.setAttachment(new NioNotificationsListener(channel));
+            }
+
+            return (NioNotificationsListener) channel.getAttachment();
+        }
+    }
+
+    /**
+     * Stops accepting clients and closes all the connections.
+     */
+    public void haltExecution() {
+        this.eventLoop.haltExecution();
+        this.workers.shutdownNow();
+    }
+}
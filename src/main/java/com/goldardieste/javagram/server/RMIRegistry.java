@@ -1,7 +1,8 @@
 package com.goldardieste.javagram.server;
 
-import javax.rmi.ssl.SslRMIClientSocketFactory;
-import javax.rmi.ssl.SslRMIServerSocketFactory;
+import com.goldardieste.javagram.common.TunedSslRMIClientSocketFactory;
+import com.goldardieste.javagram.common.TunedSslRMIServerSocketFactory;
+
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
@@ -87,7 +88,7 @@ public class RMIRegistry {
             // Firstly, a quick check is performed to determine if the desired RMI registry already exists
             // Calling "list" if the registry does not already exist will throw an exception
             // TLS connections; host = null -> localhost
-            this.rmiRegistry = LocateRegistry.getRegistry(null, this.port, new SslRMIClientSocketFactory());
+            this.rmiRegistry = LocateRegistry.getRegistry(null, this.port, new TunedSslRMIClientSocketFactory());
             this.rmiRegistry.list();
         }
 
@@ -98,8 +99,8 @@ public class RMIRegistry {
             // A new one is created. Its reference is also stored so that the object may close it when finishing its
             // execution
             // TLS connections
-            this.rmiRegistry = LocateRegistry.createRegistry(this.port, new SslRMIClientSocketFactory(),
-                    new SslRMIServerSocketFactory());
+            this.rmiRegistry = LocateRegistry.createRegistry(this.port, new TunedSslRMIClientSocketFactory(),
+                    new TunedSslRMIServerSocketFactory());
             System.out.println("RMI registry initialized at port: " + this.port);
         }
     }
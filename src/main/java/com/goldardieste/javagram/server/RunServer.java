@@ -29,10 +29,14 @@ public class RunServer {
         RMIRegistry rmiRegistry = new RMIRegistry(ConfigurationParameters.RMI_PORT,
                 ConfigurationParameters.RMI_IDENTIFIER, (ServerFacadeProxy) server.getProxy());
 
+        // Also makes it available through the NIO endpoint
+        NioServerEndpoint nioEndpoint = new NioServerEndpoint(server, ConfigurationParameters.NIO_SERVER_PORT);
+
         // Ends the execution
         System.out.println("Press any key to end the execution");
         (new Scanner(System.in)).nextLine();
 
+        nioEndpoint.haltExecution();
         rmiRegistry.haltExecution();
     }
 }
@@ -2,7 +2,9 @@ package com.goldardieste.javagram.server;
 
 import com.goldardieste.javagram.common.*;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
+import com.goldardieste.javagram.common.datacontainers.RemoteUserList;
 import com.goldardieste.javagram.common.datacontainers.UserToken;
 import com.goldardieste.javagram.common.exceptions.ServerOperationFailedException;
 import com.goldardieste.javagram.common.interfaces.IRemoteUserTunnel;
@@ -20,6 +22,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This class holds the main logic of the Javagram server. Therefore, it orchestrates any operation that a client may
@@ -53,6 +58,21 @@ public class ServerFacade implements IServer {
      */
     private final Map<String, IServerNotificationsListener> serverNotificationsListeners;
 
+    /**
+     * Stores, for each currently logged in user, the {@link PrekeyBundle} that his client has published, if any. It
+     * is only kept in memory, as it must be published again each time the user logs in.
+     * <p>
+     * Key -> username.
+     * Value -> its corresponding {@link PrekeyBundle}.
+     */
+    private final Map<String, PrekeyBundle> prekeys;
+
+    /**
+     * Delivers the chat requests of {@link #requestChat} to the remote users, and their answers to the clients that
+     * sent them, so that the clients do not wait for them.
+     */
+    private final ExecutorService chatRequestsExecutor;
+
 
     /* ----- Constructor ----- */
 
@@ -84,6 +104,14 @@ public class ServerFacade implements IServer {
         }
 
         this.serverNotificationsListeners = new ConcurrentHashMap<>();
+        this.prekeys = new ConcurrentHashMap<>();
+
+        this.chatRequestsExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "javagram-chat-requests");
+            // The pending chat requests must not prevent the server from ending its execution
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
 
@@ -122,6 +150,7 @@ public class ServerFacade implements IServer {
                 userToken = this.currentSessionsManager.initiateSession(username);
                 // 3. Client's listener is stored for later usage
                 this.serverNotificationsListeners.put(username, serverNotificationsListener);
+                this.prekeys.remove(username);
             } else {
                 throw new ServerOperationFailedException("The specified username is already registered");
             }
@@ -159,8 +188,10 @@ public class ServerFacade implements IServer {
                 // 2. If they are valid, the user gets logged in
                 userToken = this.currentSessionsManager.initiateSession(username);
 
-                // 3. Client's listener is stored for later usage
+                // 3. Client's listener is stored for later usage, and the prekeys that a previous client may have
+                // published are discarded, as the new one will publish its own
                 this.serverNotificationsListeners.put(username, serverNotificationsListener);
+                this.prekeys.remove(username);
 
                 // 4. All current friends of the user are notified about him coming online
                 try {
@@ -258,8 +289,9 @@ public class ServerFacade implements IServer {
             // The given token will no longer be valid
             this.currentSessionsManager.terminateSession(token);
 
-            // The client's listener is no longer needed
+            // The client's listener and its prekeys are no longer needed
             this.serverNotificationsListeners.remove(username);
+            this.prekeys.remove(username);
 
         } catch (InvalidUserTokenException e) {
             System.err.println("An illegitimate token has been received");
@@ -284,7 +316,8 @@ public class ServerFacade implements IServer {
     @Override
     public List<RemoteUser> retrieveFriends(UserToken token) throws ServerOperationFailedException {
 
-        List<RemoteUser> result = new ArrayList<>();
+        // It will be serialized in a compact form when it is sent to the client
+        List<RemoteUser> result = new RemoteUserList();
         Connection connection = null;
 
         try {
@@ -319,7 +352,8 @@ public class ServerFacade implements IServer {
     @Override
     public List<RemoteUser> retrieveFriends(UserToken token, StatusType status) throws ServerOperationFailedException {
 
-        List<RemoteUser> result = new ArrayList<>();
+        // It will be serialized in a compact form when it is sent to the client
+        List<RemoteUser> result = new RemoteUserList();
         Connection connection = null;
 
         try {
@@ -355,7 +389,7 @@ public class ServerFacade implements IServer {
      */
     @Override
     public NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
-                                    String remoteUser) throws ServerOperationFailedException {
+                                    int localFeatures, String remoteUser) throws ServerOperationFailedException {
 
         Connection connection = null;
         NewChatData result = null;
@@ -373,7 +407,7 @@ public class ServerFacade implements IServer {
                 IServerNotificationsListener listener = this.serverNotificationsListeners.get(remoteUser);
 
                 if (listener != null) {
-                    result = listener.replyChatRequest(username, localTunnel, localPublicKey);
+                    result = listener.replyChatRequest(username, localTunnel, localPublicKey, localFeatures);
                 } else {
                     throw new ServerOperationFailedException("The specified remote user is not currently available");
                 }
@@ -400,6 +434,161 @@ public class ServerFacade implements IServer {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publishPrekeys(UserToken token, PrekeyBundle bundle) throws ServerOperationFailedException {
+
+        try {
+            String username = this.currentSessionsManager.getUserFromSession(token);
+
+            if (bundle == null || bundle.getEncodedKey() == null) {
+                throw new ServerOperationFailedException("No prekeys have been given");
+            }
+
+            this.prekeys.put(username, bundle);
+
+        } catch (InvalidUserTokenException e) {
+            System.err.println("An illegitimate token has been received");
+            e.printStackTrace();
+            throw new ServerOperationFailedException("Could not publish the prekeys of the specified user");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrekeyBundle retrievePrekeys(UserToken token, String remoteUser) throws ServerOperationFailedException {
+
+        Connection connection = null;
+        PrekeyBundle result = null;
+
+        try {
+            String username = this.currentSessionsManager.getUserFromSession(token);
+
+            connection = this.usersDAO.getConnection();
+
+            // Only friends may retrieve the prekeys of a user
+            if (this.usersDAO.checkUsersStatus(connection, username, remoteUser,
+                    StatusTypeUserDAO.ACCEPTED_FRIENDSHIP)) {
+                result = this.prekeys.get(remoteUser);
+            } else {
+                throw new ServerOperationFailedException("The client is not friends with the specified remote user");
+            }
+
+        } catch (InvalidUserTokenException e) {
+            System.err.println("An illegitimate token has been received");
+            e.printStackTrace();
+            throw new ServerOperationFailedException("Could not retrieve the prekeys of the specified remote user");
+
+        } catch (DaoOperationException e) {
+            System.err.println("Could not retrieve the prekeys of the specified remote user");
+            e.printStackTrace();
+            throw new ServerOperationFailedException("Could not retrieve the prekeys of the specified remote user");
+
+        } finally {
+            // If the previous steps have been completed successfully, the operation will seem successful to the
+            // client even if the connection cannot be closed
+            closeDaoConnection(connection);
+        }
+
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requestChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                            byte[] agreementSalt, int localFeatures, String remoteUser)
+            throws ServerOperationFailedException {
+
+        Connection connection = null;
+
+        try {
+            String username = this.currentSessionsManager.getUserFromSession(token);
+
+            connection = this.usersDAO.getConnection();
+
+            // 1. Both users must be current friends
+            if (this.usersDAO.checkUsersStatus(connection, username, remoteUser,
+                    StatusTypeUserDAO.ACCEPTED_FRIENDSHIP)) {
+
+                // 2. And the remote user must be online, with his prekeys published
+                IServerNotificationsListener listener = this.serverNotificationsListeners.get(remoteUser);
+
+                if (listener != null && this.prekeys.containsKey(remoteUser)) {
+
+                    // 3. The request is delivered without making the client wait for it
+                    this.chatRequestsExecutor.execute(() -> deliverChatRequest(username, localTunnel,
+                            localPublicKey, agreementSalt, localFeatures, remoteUser, listener));
+
+                } else {
+                    throw new ServerOperationFailedException("The specified remote user is not currently available");
+                }
+            } else {
+                throw new ServerOperationFailedException("The client is not friends with the specified remote user");
+            }
+
+        } catch (InvalidUserTokenException e) {
+            System.err.println("An illegitimate token has been received");
+            e.printStackTrace();
+            throw new ServerOperationFailedException("Could not establish a connection to the specified remote user");
+
+        } catch (DaoOperationException | RejectedExecutionException e) {
+            System.err.println("Could not establish a connection to the specified remote user");
+            e.printStackTrace();
+            throw new ServerOperationFailedException("Could not establish a connection to the specified remote user");
+
+        } finally {
+            // If the previous steps have been completed successfully, the operation will seem successful to the
+            // client even if the connection cannot be closed
+            closeDaoConnection(connection);
+        }
+    }
+
+    /**
+     * Delivers a chat request that has been sent through {@link #requestChat} to the remote user, and his answer to
+     * the user that sent it, as long as the latter is still online. If the remote user cannot accept it, the user that
+     * sent it is told so too.
+     *
+     * @param user           name by which the user that sent the request can be identified.
+     * @param localTunnel    {@link IRemoteUserTunnel} that the user has opened for the remote user.
+     * @param localPublicKey the X25519 public key of the user.
+     * @param agreementSalt  random salt that the user has mixed into the chat's key.
+     * @param localFeatures  bit mask of the {@link ChatFeature}s that the user supports.
+     * @param remoteUser     name by which the remote user can be identified.
+     * @param listener       {@link IServerNotificationsListener} of the remote user.
+     */
+    private void deliverChatRequest(String user, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                                    byte[] agreementSalt, int localFeatures, String remoteUser,
+                                    IServerNotificationsListener listener) {
+
+        NewChatData chatData = null;
+
+        try {
+            chatData = listener.acceptChatRequest(user, localTunnel, localPublicKey, agreementSalt, localFeatures);
+
+        } catch (RemoteException e) {
+            System.err.println("A remote user could not accept a chat request");
+            e.printStackTrace();
+        }
+
+        IServerNotificationsListener userListener = this.serverNotificationsListeners.get(user);
+
+        if (userListener != null) {
+            try {
+                userListener.completeChatRequest(remoteUser, chatData);
+
+            } catch (RemoteException e) {
+                System.err.println("The answer to a chat request could not be delivered");
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -718,7 +907,10 @@ public class ServerFacade implements IServer {
         // 1. Currently opened sessions -> they will automatically be destroyed, and the server's proxy is supposed to
         // no longer be able to accept incoming client's requests
 
-        // 2. Database connections
+        // 2. Pending chat requests
+        this.chatRequestsExecutor.shutdownNow();
+
+        // 3. Database connections
         this.usersDAO.haltExecution();
     }
 }
@@ -2,6 +2,7 @@ package com.goldardieste.javagram.server;
 
 import com.goldardieste.javagram.common.*;
 import com.goldardieste.javagram.common.datacontainers.NewChatData;
+import com.goldardieste.javagram.common.datacontainers.PrekeyBundle;
 import com.goldardieste.javagram.common.datacontainers.RemoteUser;
 import com.goldardieste.javagram.common.datacontainers.UserToken;
 import com.goldardieste.javagram.common.exceptions.ServerOperationFailedException;
@@ -10,8 +11,6 @@ import com.goldardieste.javagram.common.interfaces.IServer;
 import com.goldardieste.javagram.common.interfaces.IServerNotificationsListener;
 import com.goldardieste.javagram.server.dao.UsersDAO;
 
-import javax.rmi.ssl.SslRMIClientSocketFactory;
-import javax.rmi.ssl.SslRMIServerSocketFactory;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.security.PublicKey;
@@ -42,8 +41,10 @@ public class ServerFacadeProxy extends UnicastRemoteObject implements IServer {
      * @throws RemoteException the remote object cannot be successfully exported.
      */
     public ServerFacadeProxy(ServerFacade serverFacade) throws RemoteException {
-        // TLS connections; port = 0 -> ephemeral port
-        super(0, new SslRMIClientSocketFactory(), new SslRMIServerSocketFactory());
+        // TLS connections; port = 0 -> ephemeral port. Some calls block on callbacks to other clients, so the clients
+        // must wait longer for their responses
+        super(0, new TunedSslRMIClientSocketFactory(ConfigurationParameters.SERVER_CALL_READ_TIMEOUT_MS),
+                new TunedSslRMIServerSocketFactory());
         this.maskedServer = serverFacade;
     }
 
@@ -108,8 +109,34 @@ public class ServerFacadeProxy extends UnicastRemoteObject implements IServer {
      */
     @Override
     public NewChatData initiateChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
-                                    String remoteUser) throws ServerOperationFailedException {
-        return this.maskedServer.initiateChat(token, localTunnel, localPublicKey, remoteUser);
+                                    int localFeatures, String remoteUser) throws ServerOperationFailedException {
+        return this.maskedServer.initiateChat(token, localTunnel, localPublicKey, localFeatures, remoteUser);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void publishPrekeys(UserToken token, PrekeyBundle bundle) throws ServerOperationFailedException {
+        this.maskedServer.publishPrekeys(token, bundle);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PrekeyBundle retrievePrekeys(UserToken token, String remoteUser) throws ServerOperationFailedException {
+        return this.maskedServer.retrievePrekeys(token, remoteUser);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void requestChat(UserToken token, IRemoteUserTunnel localTunnel, PublicKey localPublicKey,
+                            byte[] agreementSalt, int localFeatures, String remoteUser)
+            throws ServerOperationFailedException {
+        this.maskedServer.requestChat(token, localTunnel, localPublicKey, agreementSalt, localFeatures, remoteUser);
     }
 
     /**